@@ -0,0 +1,96 @@
+package de.mround.searchbooster.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.CachingWrapperFilter.DeletesMode;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+
+import de.mround.searchbooster.api.Configuration.Caching;
+
+/**
+ * CachedFilters turns restrictions, that do not contribute to the score of a
+ * search, e.g. the search paths or the type of the files, into Filters, whose
+ * matching documents are cached per segment by a {@link CachingWrapperFilter}.
+ * Filters, that verify every document of a segment, e.g. a
+ * {@link FileNameFilter} without candidates, are cached the same way. The
+ * same restriction reuses its Filter across searches, so the terms of a
+ * segment are only enumerated once. New segments, e.g. after a commit, are
+ * computed on their first search, while the documents of unchanged segments
+ * are kept. Deletions are applied to the cached documents when searching.<br />
+ * <br />
+ * The Filters of the least recently used restrictions are dropped, when more
+ * than {@link Caching#FILTER_CACHE_MAX_FILTERS} are cached. All methods are
+ * thread-safe.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class CachedFilters {
+    // Members
+    private static final Map<String, Filter> filters = new LinkedHashMap<String, Filter>(
+	    16, 0.75f, true) {
+	// anonymous inner class
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+	    return size() > Caching.FILTER_CACHE_MAX_FILTERS.get();
+	}
+    };
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private CachedFilters() {
+    }
+
+    /**
+     * Returns the cached Filter of a restriction.
+     * 
+     * @param restriction
+     *            - a Query matching all allowed documents. Its score is
+     *            ignored.
+     * @return a Filter matching the same documents as restriction
+     */
+    protected static Filter getFilter(Query restriction) {
+	return getFilter(restriction.toString(), new QueryWrapperFilter(
+		restriction));
+    }
+
+    /**
+     * Returns the cached Filter of a restriction.
+     * 
+     * @param restriction
+     *            - a Filter matching all allowed documents
+     * @return a Filter matching the same documents as restriction
+     */
+    protected static Filter getFilter(Filter restriction) {
+	return getFilter(restriction.toString(), restriction);
+    }
+
+    /**
+     * Returns the cached Filter of a restriction.
+     * 
+     * @param key
+     *            - the string representation of the restriction
+     * @param restriction
+     *            - a Filter matching all allowed documents, which is cached,
+     *            if there is no Filter for key yet
+     * @return a Filter matching the same documents as restriction
+     */
+    private static Filter getFilter(String key, Filter restriction) {
+	// equal restrictions have equal string representations
+	synchronized (filters) {
+	    Filter filter = filters.get(key);
+	    if (filter == null) {
+		filter = new CachingWrapperFilter(restriction,
+			DeletesMode.DYNAMIC);
+		filters.put(key, filter);
+	    }
+	    return filter;
+	}
+    }
+}
@@ -2,7 +2,9 @@ package de.mround.searchbooster.api;
 
 import java.io.File;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import de.mround.searchbooster.api.LuceneDirectory.DirectoryType;
 import de.mround.searchbooster.api.Utility.DatePrecision;
 
 /**
@@ -23,6 +25,161 @@ public final class Configuration {
 	    .getProperty("user.home") + File.separator + ".search_booster";
     public static final String SEARCH_BOOSTER_CONFIG_FILE = "config.txt";
 
+    /**
+     * This class contains the limits of a single file's extraction by the
+     * {@link ExtractionService}. All values are mutable and may be overridden
+     * by the configuration file.
+     */
+    protected static final class Extraction {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private Extraction() {
+	}
+
+	// maximum number of bytes read from a file
+	protected static final AtomicLong MAX_BYTES = new AtomicLong(
+		64L * 1024 * 1024);
+	// maximum number of characters extracted from a file
+	protected static final AtomicLong MAX_CHARS = new AtomicLong(1000000);
+	// maximum time spent for a file
+	protected static final AtomicLong TIMEOUT_MILLIS = new AtomicLong(
+		10 * Utility.DatePrecision.Second.getPrecisionInMilliseconds());
+	// maximum size of the ExtractionCache on disk, 0 disables the cache
+	protected static final AtomicLong CACHE_MAX_BYTES = new AtomicLong(
+		256L * 1024 * 1024);
+	// files of at least this size are fingerprinted, so the extraction of
+	// identical copies is reused, 0 disables fingerprinting
+	protected static final AtomicLong FINGERPRINT_MIN_BYTES = new AtomicLong(
+		16L * 1024);
+    }
+
+    /**
+     * This class contains the checkpoints of a running {@link IndexPipeline}.
+     * All values are mutable and may be overridden by the configuration file.
+     */
+    protected static final class Checkpoint {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private Checkpoint() {
+	}
+
+	// number of written documents between two checkpoint commits
+	protected static final AtomicLong DOCUMENTS = new AtomicLong(5000);
+	// maximum time between two checkpoint commits
+	protected static final AtomicLong INTERVAL_MILLIS = new AtomicLong(
+		Utility.DatePrecision.Minute.getPrecisionInMilliseconds());
+    }
+
+    /**
+     * This class contains the configuration of the {@link IndexWatcher}. All
+     * values are mutable and may be overridden by the configuration file.
+     */
+    protected static final class Watcher {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private Watcher() {
+	}
+
+	// time between two polls of the watched directories, 0 disables the
+	// watcher
+	protected static final AtomicLong POLL_INTERVAL_MILLIS = new AtomicLong(
+		10 * Utility.DatePrecision.Second.getPrecisionInMilliseconds());
+	// a changed directory is indexed, if it did not change for this time
+	protected static final AtomicLong DEBOUNCE_MILLIS = new AtomicLong(
+		2 * Utility.DatePrecision.Second.getPrecisionInMilliseconds());
+	// time between two incremental rescans of the same recursive root,
+	// catches changes, that do not touch a directory's modification time
+	protected static final AtomicLong RECONCILE_INTERVAL_MILLIS = new AtomicLong(
+		Utility.DatePrecision.Hour.getPrecisionInMilliseconds());
+	// upper bound of directories polled individually
+	protected static final AtomicLong MAX_DIRECTORIES = new AtomicLong(
+		100000);
+    }
+
+    /**
+     * This class contains the storage backends of the index folders. All
+     * values are mutable and may be overridden by the configuration file. They
+     * take effect, when an index folder is opened the next time.
+     */
+    protected static final class Storage {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private Storage() {
+	}
+
+	// backend of the persistent index, searched for a long time
+	protected static final AtomicReference<DirectoryType> PERSISTENT_DIRECTORY = new AtomicReference<DirectoryType>(
+		DirectoryType.getDefault(true));
+	// backend of the temporary index, cleared by each session
+	protected static final AtomicReference<DirectoryType> TEMPORARY_DIRECTORY = new AtomicReference<DirectoryType>(
+		DirectoryType.getDefault(false));
+	// the temporary index is built in memory, until it grows past this
+	// size, 0 builds it in its folder right away
+	protected static final AtomicLong TEMPORARY_RAM_MAX_BYTES = new AtomicLong(
+		64L * 1024 * 1024);
+    }
+
+    /**
+     * This class contains the paging of the results of a {@link SearchTask}.
+     * All values are mutable and may be overridden by the configuration file.
+     */
+    protected static final class Paging {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private Paging() {
+	}
+
+	// number of results of a page, if the request does not limit it
+	protected static final AtomicLong PAGE_SIZE = new AtomicLong(1000);
+    }
+
+    /**
+     * This class contains the configuration of the parallel search of the
+     * segments of an index by a {@link FederatedSearch}. All values are
+     * mutable and may be overridden by the configuration file. THREADS takes
+     * effect on the next start.
+     */
+    protected static final class ParallelSearch {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private ParallelSearch() {
+	}
+
+	// number of threads searching slices of segments, 0 searches all
+	// segments by the requesting thread
+	protected static final AtomicLong THREADS = new AtomicLong(0);
+	// minimum number of documents of a slice, smaller indexes are not
+	// worth splitting
+	protected static final AtomicLong MIN_SLICE_DOCUMENTS = new AtomicLong(
+		100000);
+    }
+
+    /**
+     * This class contains the limits of the {@link ResultCache} and the
+     * {@link CachedFilters}. All values are mutable and may be overridden by
+     * the configuration file.
+     */
+    protected static final class Caching {
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private Caching() {
+	}
+
+	// estimated size of all cached pages, 0 disables the cache
+	protected static final AtomicLong RESULT_CACHE_MAX_BYTES = new AtomicLong(
+		16 * 1024 * 1024);
+	// number of cached path and type restrictions
+	protected static final AtomicLong FILTER_CACHE_MAX_FILTERS = new AtomicLong(
+		64);
+    }
+
     /**
      * This class contains the fields that will be stored in a
      * {@link LuceneDirectory}.
@@ -40,17 +197,45 @@ public final class Configuration {
 	protected static final AtomicLong EXPIRE_TIME_MILLIS = new AtomicLong(
 		Utility.DatePrecision.Day.getPrecisionInMilliseconds());
 
-	// Index Meta
+	// Index Meta, only read to convert indexes of older versions. The roots
+	// are registered in the commits by a RootRegistry.
 	protected static final String META_PATH = "MetaPath";
 	protected static final String META_RECURSIVE = "MetaRecursive";
-	protected static final String META_DATE_INDEXED = "MetaDateTimeIndexed";
-	protected static final DatePrecision META_DATE_INDEXED_PRECISION = Utility.DatePrecision.Second;
 
 	// Entry Meta
 	public static final String FILE_NAME = "FileName";
 	public static final String URL = "URL";
-	public static final String LAST_MODIFIED = "LastModified";
-	protected static final String LAST_MODIFIED_SEARCH = "LastModifiedSearch";
+	// Entry Hierarchy: the canonical paths of all directories containing
+	// the file, and the number of these directories
+	protected static final String ANCESTOR_PATH = "AncestorPath";
+	protected static final String DEPTH = "Depth";
+	// Entry File Name Search: the distinct lower case n-grams of the file
+	// name, used to find candidates of file name patterns
+	protected static final String FILE_NAME_NGRAMS = "FileNameNGrams";
+	protected static final int FILE_NAME_NGRAM_LENGTH = 3;
+	// Entry Extension: the lower case extension of the file name without
+	// the period, e.g. pdf
+	public static final String EXTENSION = "Extension";
+	// Entry Identity (incremental indexing)
+	protected static final String PATH_KEY = "PathKey";
+	protected static final String SCHEMA_VERSION = "SchemaVersion";
+	// Increase SCHEMA_VERSION_VALUE, if the fields of an entry change. All
+	// entries of an older version are reindexed.
+	protected static final int SCHEMA_VERSION_VALUE = 7;
+	// Entry Numeric: stored and indexed as NumericFields, so they can be
+	// range filtered, sorted and read from the FieldCache. The size and
+	// the modification time in milliseconds also identify the entry for
+	// incremental indexing.
+	protected static final int NUMERIC_PRECISION_STEP = 8;
+	public static final String FILE_SIZE = "FileSize";
+	public static final String LAST_MODIFIED_MILLIS = "LastModifiedMillis";
+	public static final String INDEXED_MILLIS = "IndexedMillis";
+	// Entry Fingerprint: identical copies share their ContentFingerprint
+	protected static final String CONTENT_HASH = "ContentHash";
+	// Entry Enrichment: marks entries, whose Tika fields are extracted by
+	// the IndexEnricher later on
+	protected static final String PENDING_ENRICHMENT = "PendingEnrichment";
+	protected static final String PENDING_ENRICHMENT_VALUE = "true";
 	// Entry Tika
 	public static final String TYPE = "Type";
 	public static final String TEXT_CONTENT = "TextContent";
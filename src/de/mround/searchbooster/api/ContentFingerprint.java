@@ -0,0 +1,201 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.mround.searchbooster.api.Configuration.Extraction;
+
+/**
+ * ContentFingerprint identifies files with the same content, so the
+ * extraction of one copy can be reused for all others.<br />
+ * <br />
+ * The fingerprint of a file is a fast hash over its size and a few sampled
+ * blocks at its beginning, its middle and its end. Small files are hashed
+ * completely. Since two different large files may share the sampled blocks,
+ * an equal fingerprint is confirmed by a full hash of both files, before an
+ * extraction is reused (see {@link #isComplete(File)}). Only files of at least
+ * {@link Extraction#FINGERPRINT_MIN_BYTES} are fingerprinted.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class ContentFingerprint {
+    // Constants
+    // maximum number of copies of a file looked up in the index
+    protected static final int MAX_COPIES = 8;
+    private static final String ALGORITHM = "MD5";
+    private static final int SAMPLE_BYTES = 16 * 1024;
+    private static final int SAMPLES = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Registry is a helper class remembering a file for each fingerprint seen
+     * during a single indexing run, so copies within the run are found before
+     * they are committed to the index. To keep the memory bounded, only the
+     * first {@link #MAX_ENTRIES} fingerprints are remembered.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    protected static class Registry {
+	private static final int MAX_ENTRIES = 100000;
+	private final ConcurrentMap<String, File> files = new ConcurrentHashMap<String, File>();
+
+	/**
+	 * This method remembers a file for its fingerprint, if no other file
+	 * has been remembered for it before.
+	 * 
+	 * @param fingerprint
+	 *            - (optional, null allowed) the fingerprint of f
+	 * @param f
+	 *            - a file
+	 */
+	protected void register(String fingerprint, File f) {
+	    if ((fingerprint != null) && (this.files.size() < MAX_ENTRIES)) {
+		this.files.putIfAbsent(fingerprint, f);
+	    }
+	}
+
+	/**
+	 * Returns the file remembered for a fingerprint.
+	 * 
+	 * @param fingerprint
+	 *            - a fingerprint
+	 * @return the remembered file or null, if there is none
+	 */
+	protected File get(String fingerprint) {
+	    return this.files.get(fingerprint);
+	}
+    }
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private ContentFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of a file.
+     * 
+     * @param f
+     *            - a file
+     * @return the fingerprint of f or null, if f is too small or cannot be
+     *         read
+     */
+    protected static String getFingerprint(File f) {
+	long minBytes = Extraction.FINGERPRINT_MIN_BYTES.get();
+	long size = f.length();
+	if ((minBytes <= 0) || (size < minBytes)) {
+	    return null;
+	}
+
+	RandomAccessFile raf = null;
+	try {
+	    MessageDigest digest = newDigest(size);
+	    raf = new RandomAccessFile(f, "r");
+	    if (size <= (SAMPLES * SAMPLE_BYTES)) {
+		byte[] buffer = new byte[(int) size];
+		raf.readFully(buffer);
+		digest.update(buffer);
+	    } else {
+		byte[] buffer = new byte[SAMPLE_BYTES];
+		for (int i = 0; i < SAMPLES; i++) {
+		    raf.seek(((size - SAMPLE_BYTES) / (SAMPLES - 1)) * i);
+		    raf.readFully(buffer);
+		    digest.update(buffer);
+		}
+	    }
+	    return toHex(digest.digest());
+	} catch (IOException ignore) {
+	    return null;
+	} finally {
+	    if (raf != null) {
+		try {
+		    raf.close();
+		} catch (IOException ignore) {
+		}
+	    }
+	}
+    }
+
+    /**
+     * This method checks, if the fingerprint of a file covers its complete
+     * content. Otherwise equal fingerprints have to be confirmed by
+     * {@link #getFullHash(File)}.
+     * 
+     * @param f
+     *            - a file
+     * @return true if the fingerprint of f is a hash of its complete content
+     */
+    protected static boolean isComplete(File f) {
+	return f.length() <= (SAMPLES * SAMPLE_BYTES);
+    }
+
+    /**
+     * Returns a hash of the size and the complete content of a file.
+     * 
+     * @param f
+     *            - a file
+     * @return the full hash of f
+     * @throws IOException
+     *             if f cannot be read
+     */
+    protected static String getFullHash(File f) throws IOException {
+	MessageDigest digest = newDigest(f.length());
+	InputStream is = new FileInputStream(f);
+	try {
+	    byte[] buffer = new byte[BUFFER_SIZE];
+	    int n = is.read(buffer);
+	    while (n >= 0) {
+		digest.update(buffer, 0, n);
+		n = is.read(buffer);
+	    }
+	} finally {
+	    is.close();
+	}
+	return toHex(digest.digest());
+    }
+
+    /**
+     * Returns a new digest, that already contains the size of a file.
+     * 
+     * @param size
+     *            - the size of a file
+     * @return a new digest
+     * @throws IOException
+     *             if the digest algorithm is not available
+     */
+    private static MessageDigest newDigest(long size) throws IOException {
+	MessageDigest digest;
+	try {
+	    digest = MessageDigest.getInstance(ALGORITHM);
+	} catch (NoSuchAlgorithmException e) {
+	    throw new IOException(e);
+	}
+	for (int i = 7; i >= 0; i--) {
+	    digest.update((byte) (size >>> (8 * i)));
+	}
+	return digest;
+    }
+
+    /**
+     * Returns the hexadecimal representation of a hash.
+     * 
+     * @param hash
+     *            - a hash
+     * @return the lower case hexadecimal representation of hash
+     */
+    private static String toHex(byte[] hash) {
+	StringBuilder sb = new StringBuilder(hash.length * 2);
+	for (byte b : hash) {
+	    sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+	    sb.append(Character.forDigit(b & 0xf, 16));
+	}
+	return sb.toString();
+    }
+}
@@ -0,0 +1,332 @@
+package de.mround.searchbooster.api;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CrawlFrontier remembers the progress of a crawl of a
+ * {@link LuceneDirectory} in a file next to the index, so a cancelled or
+ * crashed crawl resumes where it stopped instead of starting over.<br />
+ * <br />
+ * The file is a journal of lines, each consisting of a type and a canonical
+ * path separated by tabs:
+ * 
+ * <pre>
+ * R  recursion depth  root   a root, whose crawl has been started
+ * C  root                    a root, whose crawl has been completed
+ * D  directory               a directory, whose files are all indexed
+ * </pre>
+ * 
+ * Roots and directories are only written after the changes belonging to them
+ * have been committed to the index, so the journal never claims more progress
+ * than the index contains. When the crawl of a root is resumed with the same
+ * recursion depth, its finished directories are skipped. The file is deleted
+ * when a crawl has been completed.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class CrawlFrontier {
+    // Constants
+    protected static final String FILE_NAME = "crawl.frontier";
+    private static final String ENCODING = "UTF-8";
+    private static final String STARTED = "R";
+    private static final String COMPLETED = "C";
+    private static final String DONE = "D";
+    // Members
+    private final File file;
+    // roots, whose crawl has been started, but not completed
+    private final Map<String, Integer> pendingRoots = new HashMap<String, Integer>();
+    // directories of pending roots, whose files are all indexed
+    private final Set<String> doneDirectories = Collections
+	    .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Writer writer = null;
+
+    /**
+     * Constructor. Reads the journal of a previous crawl, if available.
+     * 
+     * @param folder
+     *            - the folder of the index
+     */
+    protected CrawlFrontier(File folder) {
+	this.file = new File(folder, FILE_NAME);
+	if (!this.file.exists()) {
+	    return;
+	}
+
+	BufferedReader reader = null;
+	try {
+	    reader = new BufferedReader(new InputStreamReader(
+		    new FileInputStream(this.file), ENCODING));
+	    String line = reader.readLine();
+	    while (line != null) {
+		this.readLine(line);
+		line = reader.readLine();
+	    }
+	} catch (IOException e) {
+	    // the crawl starts over
+	    System.err.println("Cannot read the crawl frontier <" + this.file
+		    + ">. Reason: " + e.getMessage());
+	    this.pendingRoots.clear();
+	    this.doneDirectories.clear();
+	} finally {
+	    if (reader != null) {
+		try {
+		    reader.close();
+		} catch (IOException ignore) {
+		}
+	    }
+	}
+    }
+
+    /**
+     * This method applies a single line of the journal. Broken lines, e.g. a
+     * line torn by a crash, are ignored.
+     * 
+     * @param line
+     *            - a line of the journal
+     */
+    private void readLine(String line) {
+	String[] parts = line.split("\t", 3);
+	if (parts[0].equals(STARTED) && (parts.length == 3)) {
+	    try {
+		this.pendingRoots.put(parts[2], Integer.valueOf(parts[1]));
+	    } catch (NumberFormatException ignore) {
+	    }
+	} else if (parts[0].equals(COMPLETED) && (parts.length == 2)) {
+	    this.pendingRoots.remove(parts[1]);
+	} else if (parts[0].equals(DONE) && (parts.length == 2)) {
+	    this.doneDirectories.add(parts[1]);
+	}
+    }
+
+    /**
+     * This method returns all roots, whose crawl has been started, but not
+     * completed.
+     * 
+     * @return a Map from the canonical paths of the pending roots to their
+     *         recursion depth
+     */
+    protected synchronized Map<String, Integer> getPendingRoots() {
+	return new HashMap<String, Integer>(this.pendingRoots);
+    }
+
+    /**
+     * This method starts a new crawl of the items contained in the
+     * contentMap. Finished directories of pending roots, that are crawled
+     * again with the same recursion depth, are kept, all others are
+     * forgotten. Abandoned roots stay pending, until the crawl has been
+     * completed.
+     * 
+     * @param contentMap
+     *            - a Map of items to be crawled. For the format of the
+     *            contentMap see {@link LuceneDirectory#addContentMapToIndex(Map)}
+     * @param abandonedRoots
+     *            - a Map of pending roots, that will be removed from the index
+     */
+    protected synchronized void start(Map<String, Integer> contentMap,
+	    Map<String, Integer> abandonedRoots) {
+	Map<String, Integer> resumedRoots = new HashMap<String, Integer>();
+	Map<String, Integer> roots = new HashMap<String, Integer>(
+		abandonedRoots);
+	for (String s : contentMap.keySet()) {
+	    String root = Utility.canonicalizePath(s);
+	    if (contentMap.get(s).equals(this.pendingRoots.get(root))) {
+		resumedRoots.put(root, contentMap.get(s));
+	    }
+	    roots.put(root, contentMap.get(s));
+	}
+	this.pendingRoots.clear();
+	this.pendingRoots.putAll(roots);
+
+	Iterator<String> it = this.doneDirectories.iterator();
+	while (it.hasNext()) {
+	    if (!isCovered(resumedRoots, it.next())) {
+		it.remove();
+	    }
+	}
+	if (!this.doneDirectories.isEmpty()) {
+	    System.out.println("[info] Resuming the crawl of "
+		    + resumedRoots.size() + " root(s). "
+		    + this.doneDirectories.size()
+		    + " directory(s) are already indexed.");
+	}
+
+	// rewrite the journal, to keep it small
+	this.close();
+	try {
+	    this.writer = new BufferedWriter(new OutputStreamWriter(
+		    new FileOutputStream(this.file), ENCODING));
+	    for (String root : this.pendingRoots.keySet()) {
+		this.writeLine(STARTED, this.pendingRoots.get(root).toString(),
+			root);
+	    }
+	    for (String dir : this.doneDirectories) {
+		this.writeLine(DONE, dir);
+	    }
+	    this.writer.flush();
+	} catch (FileNotFoundException e) {
+	    System.err.println("Cannot write the crawl frontier <" + this.file
+		    + ">. Reason: " + e.getMessage());
+	    this.writer = null;
+	} catch (IOException e) {
+	    System.err.println("Cannot write the crawl frontier <" + this.file
+		    + ">. Reason: " + e.getMessage());
+	    this.close();
+	}
+    }
+
+    /**
+     * This method checks, if a directory is covered by one of the roots.
+     * 
+     * @param roots
+     *            - a Map from canonical paths of roots to their recursion
+     *            depth
+     * @param dir
+     *            - the canonical path of a directory
+     * @return true if dir is one of the roots or located below a recursive
+     *         one
+     */
+    private static boolean isCovered(Map<String, Integer> roots, String dir) {
+	for (String root : roots.keySet()) {
+	    if (root.equals(dir)
+		    || ((roots.get(root).intValue() < 0) && Utility
+			    .isSubDirectory(root, dir))) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * This method checks, if all files of a directory have been indexed by a
+     * previous run of the current crawl. It may be called by several threads
+     * at the same time.
+     * 
+     * @param dir
+     *            - the canonical path of a directory
+     * @return true if dir can be skipped
+     */
+    protected boolean isDone(String dir) {
+	return this.doneDirectories.contains(dir);
+    }
+
+    /**
+     * This method records the progress of the current crawl. It has to be
+     * called after the changes belonging to the directories and roots have
+     * been committed to the index.
+     * 
+     * @param directories
+     *            - the canonical paths of directories, whose files are all
+     *            indexed
+     * @param roots
+     *            - the canonical paths of roots, whose crawl has been
+     *            completed
+     */
+    protected synchronized void checkpoint(Collection<String> directories,
+	    Collection<String> roots) {
+	for (String root : roots) {
+	    this.pendingRoots.remove(root);
+	}
+	if (this.writer == null) {
+	    return;
+	}
+
+	try {
+	    for (String dir : directories) {
+		this.writeLine(DONE, dir);
+	    }
+	    for (String root : roots) {
+		this.writeLine(COMPLETED, root);
+	    }
+	    this.writer.flush();
+	} catch (IOException e) {
+	    // a resumed crawl will do some work twice
+	    System.err.println("Cannot write the crawl frontier <" + this.file
+		    + ">. Reason: " + e.getMessage());
+	    this.close();
+	}
+    }
+
+    /**
+     * This method writes a single line to the journal.
+     * 
+     * @param fields
+     *            - the fields of the line
+     * @throws IOException
+     *             if the journal cannot be written
+     */
+    private void writeLine(String... fields) throws IOException {
+	for (String field : fields) {
+	    // such paths cannot be stored, so their crawl will be repeated
+	    if ((field.indexOf('\n') >= 0) || (field.indexOf('\r') >= 0)) {
+		return;
+	    }
+	}
+	for (int i = 0; i < fields.length; i++) {
+	    if (i > 0) {
+		this.writer.write('\t');
+	    }
+	    this.writer.write(fields[i]);
+	}
+	this.writer.write('\n');
+    }
+
+    /**
+     * This method ends the current crawl after it has been completed and
+     * deletes the journal.
+     */
+    protected synchronized void finish() {
+	this.close();
+	this.pendingRoots.clear();
+	this.doneDirectories.clear();
+	if (this.file.exists() && !this.file.delete()) {
+	    System.err.println("Cannot delete the crawl frontier <" + this.file
+		    + ">.");
+	}
+    }
+
+    /**
+     * This method closes the journal, keeping its content for a resumed
+     * crawl.
+     */
+    protected synchronized void close() {
+	if (this.writer == null) {
+	    return;
+	}
+	try {
+	    this.writer.close();
+	} catch (IOException ignore) {
+	} finally {
+	    this.writer = null;
+	}
+    }
+
+    /**
+     * This method deletes the journal of the index folder, e.g. when the index
+     * is rebuilt.
+     * 
+     * @param folder
+     *            - the folder of the index
+     */
+    protected static void delete(File folder) {
+	File f = new File(folder, FILE_NAME);
+	if (f.exists() && !f.delete()) {
+	    System.err.println("Cannot delete the crawl frontier <" + f + ">.");
+	}
+    }
+}
@@ -0,0 +1,244 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DirectoryWalker lists a directory tree with several threads in parallel.
+ * Each directory is listed by its own task. The tasks of the subdirectories
+ * are put on top of a shared stack, so the walk proceeds depth first like a
+ * single threaded walk and the number of waiting tasks stays small, while idle
+ * threads take the next directory from the stack.<br />
+ * <br />
+ * A waiting task only holds the path of its directory, so the File objects of
+ * a directory listing are released as soon as the directory is visited.
+ * Symbolic directory links are not followed, since they might cause loops.<br />
+ * <br />
+ * All walks of a DirectoryWalker share its threads, which are stopped by
+ * {@link #close()}.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class DirectoryWalker {
+    // Members
+    private final ThreadPoolExecutor executor;
+    private final DirectoryVisitor visitor;
+
+    /**
+     * DirectoryVisitor is called by the {@link DirectoryWalker} once for each
+     * directory. It may be called by several threads at the same time.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    protected interface DirectoryVisitor {
+	/**
+	 * This method is called for each directory of the walked tree.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory
+	 * @param files
+	 *            - all entries of the directory, that are no directories
+	 * @throws InterruptedException
+	 *             if the currently running Thread was interrupted
+	 */
+	void visitDirectory(String dir, List<File> files)
+		throws InterruptedException;
+
+	/**
+	 * This method is called for each directory of the walked tree, that
+	 * cannot be listed, e.g. because of missing permissions. Its
+	 * subdirectories are not walked.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory
+	 * @throws InterruptedException
+	 *             if the currently running Thread was interrupted
+	 */
+	void visitUnlistableDirectory(String dir) throws InterruptedException;
+    }
+
+    /**
+     * LifoQueue is a private helper class, that turns the work queue of a
+     * {@link ThreadPoolExecutor} into a stack.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class LifoQueue extends LinkedBlockingDeque<Runnable> {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public boolean offer(Runnable r) {
+	    return super.offerFirst(r);
+	}
+    }
+
+    /**
+     * Walk is a private helper class holding the state of a single walk.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private class Walk {
+	private final AtomicInteger numPending = new AtomicInteger();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile boolean cancelled = false;
+
+	/**
+	 * This method adds the listing of a directory to the walk.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory
+	 * @param recursive
+	 *            - true if the subdirectories should be walked, too
+	 * @throws InterruptedException
+	 *             if the walker has been closed
+	 */
+	private void submit(final String dir, final boolean recursive)
+		throws InterruptedException {
+	    this.numPending.incrementAndGet();
+	    try {
+		DirectoryWalker.this.executor.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			try {
+			    Walk.this.list(dir, recursive);
+			} catch (InterruptedException ignore) {
+			    // the walk has been cancelled
+			} catch (RuntimeException e) {
+			    System.err.println("Cannot walk the directory <"
+				    + dir + ">. Reason: " + e.getMessage());
+			} finally {
+			    Walk.this.release();
+			}
+		    }
+		});
+	    } catch (RejectedExecutionException e) {
+		// the walker has been closed, which cancels the walk
+		this.release();
+		throw new InterruptedException();
+	    }
+	}
+
+	/**
+	 * This method marks the listing of a directory as done.
+	 */
+	private void release() {
+	    if (this.numPending.decrementAndGet() == 0) {
+		this.finished.countDown();
+	    }
+	}
+
+	/**
+	 * This method lists a single directory, submits its subdirectories and
+	 * passes the remaining entries to the visitor.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory
+	 * @param recursive
+	 *            - true if the subdirectories should be walked, too
+	 * @throws InterruptedException
+	 *             if the currently running Thread was interrupted
+	 */
+	private void list(String dir, boolean recursive)
+		throws InterruptedException {
+	    if (this.cancelled || Thread.currentThread().isInterrupted()) {
+		throw new InterruptedException();
+	    }
+	    File dirFile = new File(dir);
+	    String[] names = dirFile.list();
+	    if (names == null) {
+		DirectoryWalker.this.visitor.visitUnlistableDirectory(dir);
+		return;
+	    }
+
+	    List<File> files = new ArrayList<File>(names.length);
+	    for (String name : names) {
+		File file = new File(dirFile, name);
+		if (!file.isDirectory()) {
+		    files.add(file);
+		} else if (recursive) {
+		    // dir is canonical, so file is a symbolic link, if its
+		    // canonical path differs
+		    String subDir = dir + name;
+		    try {
+			if (subDir.equals(file.getCanonicalPath())) {
+			    this.submit(Utility.canonicalizePath(subDir), true);
+			}
+		    } catch (IOException ignore) {
+		    }
+		}
+	    }
+	    DirectoryWalker.this.visitor.visitDirectory(dir, files);
+	}
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param numThreads
+     *            - the number of threads listing directories in parallel
+     * @param visitor
+     *            - the {@link DirectoryVisitor} called for each directory
+     */
+    protected DirectoryWalker(int numThreads, DirectoryVisitor visitor) {
+	int n = Math.max(1, numThreads);
+	this.executor = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+		new LifoQueue());
+	this.visitor = visitor;
+    }
+
+    /**
+     * This method walks a directory tree and returns, when all directories
+     * have been visited. If root is a symbolic link or no directory at all,
+     * nothing is visited.
+     * 
+     * @param root
+     *            - the top directory of the tree
+     * @param recursive
+     *            - true if the whole tree should be walked, false if only root
+     *            should be visited
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected void walk(File root, boolean recursive)
+	    throws InterruptedException {
+	if (!root.isDirectory()) {
+	    return;
+	}
+	try {
+	    // Do not follow symbolic links (causes loops and trouble!)
+	    if (!root.getAbsolutePath().equals(root.getCanonicalPath())) {
+		return;
+	    }
+	} catch (IOException ignore) {
+	    return;
+	}
+
+	Walk walk = new Walk();
+	try {
+	    walk.submit(Utility.canonicalizePath(root.getAbsolutePath()),
+		    recursive);
+	    walk.finished.await();
+	} catch (InterruptedException e) {
+	    // the remaining directories of the walk are skipped
+	    walk.cancelled = true;
+	    throw e;
+	}
+    }
+
+    /**
+     * This method stops all threads of this walker. Running walks are
+     * cancelled, further walks visit nothing and throw an
+     * InterruptedException.
+     */
+    protected void close() {
+	this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,417 @@
+package de.mround.searchbooster.api;
+
+import static de.mround.searchbooster.api.Configuration.SEARCH_BOOSTER_ROOT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+
+import de.mround.searchbooster.api.Configuration.Extraction;
+import de.mround.searchbooster.api.ExtractionService.ExtractionResult;
+
+/**
+ * ExtractionCache stores the outcome of extractions on disk, so unchanged
+ * files do not have to be parsed again, e.g. when an index is rebuilt or the
+ * temporary index is filled on every launch.<br />
+ * <br />
+ * An entry is identified by the path, the size and the modification time of a
+ * file (Java 6 provides no access to inodes). The entries are appended to
+ * generation files in the folder <code>cache</code> in
+ * {@link Configuration#SEARCH_BOOSTER_ROOT}. Each entry is stored deflated
+ * behind a small header:
+ * 
+ * <pre>
+ * long  hash of the key
+ * int   length of the deflated entry
+ * int   length of the inflated entry
+ * byte[] deflated entry
+ * </pre>
+ * 
+ * Only the hashes and the positions of the entries are kept in memory. If the
+ * cache exceeds {@link Extraction#CACHE_MAX_BYTES}, the oldest generation file
+ * is deleted. Entries read from the oldest generation are copied to the
+ * current one, so frequently used entries survive.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class ExtractionCache {
+    // Constants
+    private static final String GENERATION_PREFIX = "gen-";
+    private static final String GENERATION_SUFFIX = ".cache";
+    private static final int HEADER_LENGTH = 16;
+    private static final long MIN_GENERATION_BYTES = 1024 * 1024;
+    private static final int GENERATIONS = 4;
+    // Members
+    private final File folder;
+    // open generation files by generation number
+    private final TreeMap<Integer, RandomAccessFile> generations = new TreeMap<Integer, RandomAccessFile>();
+    // position of each entry: generation number << 40 | offset
+    private final Map<Long, Long> positions = new HashMap<Long, Long>();
+    private long totalBytes = 0;
+
+    /**
+     * Constructor. Opens the cache folder and reads the positions of all
+     * stored entries.
+     */
+    protected ExtractionCache() {
+	this.folder = new File(SEARCH_BOOSTER_ROOT + File.separator + "cache");
+	if (!this.folder.exists() && !this.folder.mkdirs()) {
+	    System.err.println("Unable to create the directory <"
+		    + this.folder + ">.");
+	}
+
+	File[] files = this.folder.listFiles();
+	if (files != null) {
+	    for (File f : files) {
+		String name = f.getName();
+		if (!name.startsWith(GENERATION_PREFIX)
+			|| !name.endsWith(GENERATION_SUFFIX)) {
+		    continue;
+		}
+		try {
+		    int generation = Integer.parseInt(name.substring(
+			    GENERATION_PREFIX.length(), name.length()
+				    - GENERATION_SUFFIX.length()));
+		    this.openGeneration(generation);
+		} catch (NumberFormatException ignore) {
+		} catch (IOException e) {
+		    System.err.println("Cannot read the extraction cache <"
+			    + f + ">. Reason: " + e.getMessage());
+		}
+	    }
+	}
+    }
+
+    /**
+     * This method opens a generation file and reads the positions of its
+     * entries. An incomplete entry at the end of the file is cut off.
+     * 
+     * @param generation
+     *            - the generation number
+     * @throws IOException
+     *             if the generation file cannot be opened
+     */
+    private synchronized void openGeneration(int generation)
+	    throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(
+		this.getGenerationFile(generation), "rw");
+	this.generations.put(Integer.valueOf(generation), raf);
+
+	long offset = 0;
+	long length = raf.length();
+	while ((offset + HEADER_LENGTH) <= length) {
+	    raf.seek(offset);
+	    long hash = raf.readLong();
+	    int storedLength = raf.readInt();
+	    if ((storedLength < 0)
+		    || ((offset + HEADER_LENGTH + storedLength) > length)) {
+		break;
+	    }
+	    this.positions.put(Long.valueOf(hash),
+		    Long.valueOf(getPosition(generation, offset)));
+	    offset += HEADER_LENGTH + storedLength;
+	}
+	if (offset < length) {
+	    raf.setLength(offset);
+	}
+	this.totalBytes += offset;
+    }
+
+    /**
+     * Returns the file of a generation.
+     * 
+     * @param generation
+     *            - the generation number
+     * @return the file of the generation
+     */
+    private File getGenerationFile(int generation) {
+	return new File(this.folder, GENERATION_PREFIX + generation
+		+ GENERATION_SUFFIX);
+    }
+
+    /**
+     * Returns the cached outcome of a file's extraction.
+     * 
+     * @param f
+     *            - a file
+     * @return the cached outcome or null, if f is not cached or has changed
+     */
+    protected ExtractionResult get(File f) {
+	String path = LuceneDirectoryUtility.getPathKey(f);
+	long size = f.length();
+	long lastModified = f.lastModified();
+	long hash = getHash(path, size, lastModified);
+
+	byte[] stored = null;
+	byte[] entry = null;
+	synchronized (this) {
+	    Long position = this.positions.get(Long.valueOf(hash));
+	    if (position == null) {
+		return null;
+	    }
+	    int generation = (int) (position.longValue() >>> 40);
+	    long offset = position.longValue() & ((1L << 40) - 1);
+	    RandomAccessFile raf = this.generations.get(Integer
+		    .valueOf(generation));
+	    if (raf == null) {
+		return null;
+	    }
+	    try {
+		raf.seek(offset + 8);
+		stored = new byte[raf.readInt()];
+		entry = new byte[raf.readInt()];
+		raf.readFully(stored);
+		// save the entry from eviction
+		if ((generation == this.generations.firstKey().intValue())
+			&& (this.generations.size() > 1)) {
+		    this.append(hash, stored, entry.length);
+		}
+	    } catch (IOException e) {
+		this.positions.remove(Long.valueOf(hash));
+		return null;
+	    }
+	}
+
+	// inflate and decode without blocking other threads
+	try {
+	    Inflater inflater = new Inflater();
+	    try {
+		inflater.setInput(stored);
+		if (inflater.inflate(entry) != entry.length) {
+		    return null;
+		}
+	    } finally {
+		inflater.end();
+	    }
+
+	    DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+		    entry));
+	    // hash collisions are resolved here
+	    if (!in.readUTF().equals(path) || (in.readLong() != size)
+		    || (in.readLong() != lastModified)) {
+		return null;
+	    }
+	    MediaType mediaType = MediaType.parse(in.readUTF());
+	    Metadata metadata = new Metadata();
+	    int numNames = in.readInt();
+	    for (int i = 0; i < numNames; i++) {
+		String name = in.readUTF();
+		int numValues = in.readInt();
+		for (int j = 0; j < numValues; j++) {
+		    metadata.add(name, in.readUTF());
+		}
+	    }
+	    String textContent = null;
+	    if (in.readBoolean()) {
+		byte[] text = new byte[in.readInt()];
+		in.readFully(text);
+		textContent = new String(text, "UTF-8");
+	    }
+	    if (mediaType == null) {
+		return null;
+	    }
+
+	    return new ExtractionResult(mediaType, metadata, textContent,
+		    false);
+	} catch (IOException ignore) {
+	    return null;
+	} catch (DataFormatException ignore) {
+	    return null;
+	}
+    }
+
+    /**
+     * This method stores the outcome of a file's extraction. Outcomes of
+     * extractions stopped by a limit are not stored, since they depend on the
+     * current limits.
+     * 
+     * @param f
+     *            - a file
+     * @param result
+     *            - the outcome of f's extraction
+     */
+    protected void put(File f, ExtractionResult result) {
+	if (result.isLimitExceeded()
+		|| (Extraction.CACHE_MAX_BYTES.get() <= 0)) {
+	    return;
+	}
+	String path = LuceneDirectoryUtility.getPathKey(f);
+	long size = f.length();
+	long lastModified = f.lastModified();
+
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    DataOutputStream out = new DataOutputStream(bytes);
+	    out.writeUTF(path);
+	    out.writeLong(size);
+	    out.writeLong(lastModified);
+	    out.writeUTF(result.getMediaType().toString());
+	    String[] names = result.getMetadata().names();
+	    out.writeInt(names.length);
+	    for (String name : names) {
+		String[] values = result.getMetadata().getValues(name);
+		out.writeUTF(name);
+		out.writeInt(values.length);
+		for (String value : values) {
+		    out.writeUTF(value);
+		}
+	    }
+	    out.writeBoolean(result.getTextContent() != null);
+	    if (result.getTextContent() != null) {
+		byte[] text = result.getTextContent().getBytes("UTF-8");
+		out.writeInt(text.length);
+		out.write(text);
+	    }
+	    out.close();
+	    byte[] entry = bytes.toByteArray();
+
+	    Deflater deflater = new Deflater();
+	    ByteArrayOutputStream stored = new ByteArrayOutputStream(
+		    entry.length / 2 + 16);
+	    try {
+		deflater.setInput(entry);
+		deflater.finish();
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+		    stored.write(buffer, 0, deflater.deflate(buffer));
+		}
+	    } finally {
+		deflater.end();
+	    }
+
+	    synchronized (this) {
+		this.append(getHash(path, size, lastModified),
+			stored.toByteArray(), entry.length);
+	    }
+	} catch (IOException e) {
+	    System.err.println("Cannot write to the extraction cache. Reason: "
+		    + e.getMessage());
+	} catch (RuntimeException e) {
+	    // e.g. a metadata value longer than 64k
+	    System.err.println("Cannot write to the extraction cache. Reason: "
+		    + e.getMessage());
+	}
+    }
+
+    /**
+     * This method appends an entry to the current generation. A new
+     * generation is started, if the current one is full, and the oldest
+     * generations are deleted, if the cache is too large.
+     * 
+     * @param hash
+     *            - the hash of the entry's key
+     * @param stored
+     *            - the deflated entry
+     * @param entryLength
+     *            - the length of the inflated entry
+     * @throws IOException
+     *             if the entry cannot be written
+     */
+    private void append(long hash, byte[] stored, int entryLength)
+	    throws IOException {
+	long maxBytes = Extraction.CACHE_MAX_BYTES.get();
+	long generationBytes = Math.max(MIN_GENERATION_BYTES, maxBytes
+		/ GENERATIONS);
+
+	if (this.generations.isEmpty()
+		|| (this.generations.lastEntry().getValue().length() >= generationBytes)) {
+	    int generation = this.generations.isEmpty() ? 1 : (this.generations
+		    .lastKey().intValue() + 1);
+	    this.openGeneration(generation);
+	}
+	while ((this.totalBytes > maxBytes) && (this.generations.size() > 1)) {
+	    this.deleteOldestGeneration();
+	}
+
+	int generation = this.generations.lastKey().intValue();
+	RandomAccessFile raf = this.generations.lastEntry().getValue();
+	long offset = raf.length();
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH
+		+ stored.length);
+	DataOutputStream out = new DataOutputStream(bytes);
+	out.writeLong(hash);
+	out.writeInt(stored.length);
+	out.writeInt(entryLength);
+	out.write(stored);
+	out.close();
+	raf.seek(offset);
+	raf.write(bytes.toByteArray());
+
+	this.positions.put(Long.valueOf(hash),
+		Long.valueOf(getPosition(generation, offset)));
+	this.totalBytes += bytes.size();
+    }
+
+    /**
+     * This method deletes the oldest generation and forgets its entries.
+     */
+    private void deleteOldestGeneration() {
+	Map.Entry<Integer, RandomAccessFile> oldest = this.generations
+		.pollFirstEntry();
+	int generation = oldest.getKey().intValue();
+	try {
+	    this.totalBytes -= oldest.getValue().length();
+	    oldest.getValue().close();
+	} catch (IOException ignore) {
+	}
+	if (!this.getGenerationFile(generation).delete()) {
+	    System.err.println("Cannot delete <"
+		    + this.getGenerationFile(generation) + ">.");
+	}
+
+	Iterator<Long> it = this.positions.values().iterator();
+	while (it.hasNext()) {
+	    if ((it.next().longValue() >>> 40) == generation) {
+		it.remove();
+	    }
+	}
+    }
+
+    /**
+     * Returns the position of an entry.
+     * 
+     * @param generation
+     *            - the generation number
+     * @param offset
+     *            - the offset of the entry in the generation file
+     * @return the position of the entry
+     */
+    private static long getPosition(int generation, long offset) {
+	return (((long) generation) << 40) | offset;
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of an entry's key.
+     * 
+     * @param path
+     *            - the path key of a file
+     * @param size
+     *            - the size of the file
+     * @param lastModified
+     *            - the modification time of the file
+     * @return the hash of the key
+     */
+    private static long getHash(String path, long size, long lastModified) {
+	long hash = 0xcbf29ce484222325L;
+	String key = path + '\u0000' + size + '\u0000' + lastModified;
+	for (int i = 0; i < key.length(); i++) {
+	    hash ^= key.charAt(i);
+	    hash *= 0x100000001b3L;
+	}
+	return hash;
+    }
+}
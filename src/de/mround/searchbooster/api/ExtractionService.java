@@ -0,0 +1,731 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.DefaultDetector;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.CompositeParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.mround.searchbooster.api.Configuration.Extraction;
+
+/**
+ * ExtractionService extracts the media type, the metadata and the text content
+ * of files using Tika.<br />
+ * <br />
+ * Loading the Tika configuration is expensive, so it is done only once. Each
+ * thread gets its own detector and parser on top of it. The media type of a
+ * file is detected once and decides, how much of the file is parsed:
+ * <ul>
+ * <li>text and whitelisted documents: metadata and text content</li>
+ * <li>audio: metadata only</li>
+ * <li>all other types (images, videos, byte streams, ...): no parsing at all
+ * </li>
+ * </ul>
+ * The media type is detected in the calling thread. The parsing runs isolated
+ * in a pooled thread and is limited in bytes read, characters extracted and
+ * time spent, so a single large or malformed file cannot stall the indexing.
+ * The time spent for each media type is collected and can be obtained by
+ * {@link #getTimings()}.<br />
+ * <br />
+ * The outcome of each extraction is stored in the {@link ExtractionCache} and
+ * reused as long as the file does not change.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class ExtractionService {
+    // List of well-known file extensions, whose text content is extracted
+    private final static List<String> whitelist = Collections
+	    .unmodifiableList(new LinkedList<String>() {
+		// anonymous inner class
+		private static final long serialVersionUID = 1L;
+		{
+		    add(".doc");
+		    add(".docx");
+		    add(".odt");
+		    add(".pdf");
+		}
+	    });
+    // Timing key of extractions reused from identical copies
+    private static final String REUSED = "reused";
+    // Threads parsing beyond the number of CPUs, e.g. while abandoned
+    // extractions finish
+    private static final int SPARE_THREADS = 2;
+    // Members
+    private static final ThreadLocal<Detector> detector = new ThreadLocal<Detector>() {
+	@Override
+	protected Detector initialValue() {
+	    return new DefaultDetector(Config.CONFIG.getMimeRepository());
+	}
+    };
+    private static final ThreadLocal<CompositeParser> parser = new ThreadLocal<CompositeParser>() {
+	@Override
+	protected CompositeParser initialValue() {
+	    CompositeParser p = new CompositeParser();
+	    p.setMediaTypeRegistry(Config.CONFIG.getMediaTypeRegistry());
+	    p.setParsers(Config.PARSERS);
+	    return p;
+	}
+    };
+    private static final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+    // extractions, whose parsing timed out
+    private static final AtomicLong numAbandoned = new AtomicLong();
+    // Extractions run isolated from the indexing threads, which only wait for
+    // them as long as the timeout permits. If all threads are busy, the
+    // calling thread parses itself.
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+	    Configuration.NUMBER_OF_CPUS + SPARE_THREADS,
+	    Configuration.NUMBER_OF_CPUS + SPARE_THREADS, 0,
+	    TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(),
+	    new ThreadFactory() {
+		private final AtomicInteger numThreads = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "Extraction-"
+			    + this.numThreads.incrementAndGet());
+		    t.setDaemon(true);
+		    return t;
+		}
+	    }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * Config is a private helper class, that loads the Tika configuration
+     * lazily on first use.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class Config {
+	private static final TikaConfig CONFIG = TikaConfig
+		.getDefaultConfig();
+	private static final Map<MediaType, Parser> PARSERS = getParsers(CONFIG);
+
+	/**
+	 * This method does nothing, but loads the Tika configuration as a side
+	 * effect of its first call.
+	 */
+	private static void load() {
+	}
+
+	/**
+	 * Returns the parsers of a Tika configuration by media type.
+	 * 
+	 * @param config
+	 *            - a Tika configuration
+	 * @return the parsers of config by media type
+	 */
+	private static Map<MediaType, Parser> getParsers(TikaConfig config) {
+	    Parser p = config.getParser();
+	    if (p instanceof CompositeParser) {
+		return ((CompositeParser) p).getParsers();
+	    }
+	    return Collections.emptyMap();
+	}
+    }
+
+    /**
+     * CacheHolder is a private helper class, that opens the
+     * {@link ExtractionCache} lazily on first use.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class CacheHolder {
+	private static final ExtractionCache CACHE = new ExtractionCache();
+    }
+
+    /**
+     * ExtractionResult is a helper class holding the outcome of an extraction.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    protected static class ExtractionResult {
+	private final MediaType mediaType;
+	private final Metadata metadata;
+	private final String textContent;
+	private final boolean limitExceeded;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param mediaType
+	 *            - the detected media type without parameters
+	 * @param metadata
+	 *            - the extracted metadata
+	 * @param textContent
+	 *            - (optional, null allowed) the extracted text content
+	 * @param limitExceeded
+	 *            - true if the extraction was stopped by a limit
+	 */
+	protected ExtractionResult(MediaType mediaType, Metadata metadata,
+		String textContent, boolean limitExceeded) {
+	    this.mediaType = mediaType;
+	    this.metadata = metadata;
+	    this.textContent = textContent;
+	    this.limitExceeded = limitExceeded;
+	}
+
+	/**
+	 * Returns the detected media type without parameters.
+	 * 
+	 * @return the detected media type without parameters
+	 */
+	protected MediaType getMediaType() {
+	    return this.mediaType;
+	}
+
+	/**
+	 * Returns the extracted metadata.
+	 * 
+	 * @return the extracted metadata
+	 */
+	protected Metadata getMetadata() {
+	    return this.metadata;
+	}
+
+	/**
+	 * Returns the extracted text content.
+	 * 
+	 * @return the extracted text content or null, if it was not extracted
+	 */
+	protected String getTextContent() {
+	    return this.textContent;
+	}
+
+	/**
+	 * Returns, if the extraction was stopped by a limit. In this case only
+	 * the media type and the metadata extracted so far are available.
+	 * 
+	 * @return true if the extraction was stopped by a limit
+	 */
+	protected boolean isLimitExceeded() {
+	    return this.limitExceeded;
+	}
+    }
+
+    /**
+     * LimitExceededException is a private helper class signaling, that a
+     * {@link BudgetInputStream} stopped reading.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class LimitExceededException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param message
+	 *            - the exceeded limit
+	 */
+	private LimitExceededException(String message) {
+	    super(message);
+	}
+    }
+
+    /**
+     * BudgetInputStream is a private helper class, that stops reading, if
+     * too many bytes have been read, the deadline has passed or the reading
+     * thread was interrupted.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class BudgetInputStream extends FilterInputStream {
+	private long remainingBytes;
+	private final long deadlineMillis;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param in
+	 *            - the stream to read from
+	 * @param maxBytes
+	 *            - the maximum number of bytes to read
+	 * @param deadlineMillis
+	 *            - the time, after which reading is stopped
+	 */
+	private BudgetInputStream(InputStream in, long maxBytes,
+		long deadlineMillis) {
+	    super(in);
+	    this.remainingBytes = maxBytes;
+	    this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * This method checks all limits before reading.
+	 * 
+	 * @throws LimitExceededException
+	 *             if a limit is exceeded
+	 */
+	private void checkLimits() throws LimitExceededException {
+	    if (this.remainingBytes < 0) {
+		throw new LimitExceededException("Byte limit exceeded.");
+	    }
+	    if (System.currentTimeMillis() > this.deadlineMillis) {
+		throw new LimitExceededException("Timeout exceeded.");
+	    }
+	    if (Thread.currentThread().isInterrupted()) {
+		throw new LimitExceededException("Extraction interrupted.");
+	    }
+	}
+
+	@Override
+	public int read() throws IOException {
+	    this.checkLimits();
+	    int b = super.read();
+	    if (b >= 0) {
+		this.remainingBytes--;
+	    }
+	    return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    this.checkLimits();
+	    int n = super.read(b, off, len);
+	    if (n > 0) {
+		this.remainingBytes -= n;
+	    }
+	    return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+	    this.checkLimits();
+	    long skipped = super.skip(n);
+	    this.remainingBytes -= skipped;
+	    return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+	    // a reset would corrupt the byte count
+	    return false;
+	}
+    }
+
+    /**
+     * Timing is a helper class counting the extractions of a media type and
+     * the time spent for them.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    protected static class Timing {
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+
+	/**
+	 * Returns the number of extractions.
+	 * 
+	 * @return the number of extractions
+	 */
+	protected long getCount() {
+	    return this.count.get();
+	}
+
+	/**
+	 * Returns the time spent for all extractions in milliseconds.
+	 * 
+	 * @return the time spent for all extractions in milliseconds
+	 */
+	protected long getTimeMillis() {
+	    return this.nanos.get() / 1000000;
+	}
+
+	@Override
+	public String toString() {
+	    return this.getCount() + " files in " + this.getTimeMillis()
+		    + " milliseconds";
+	}
+    }
+
+    /**
+     * Private constructor to avoid instantiation.
+     */
+    private ExtractionService() {
+    }
+
+    /**
+     * This method extracts the media type, the metadata and, if wanted for
+     * the media type, the text content of a file. The media type is detected
+     * in the calling thread, the parsing runs in a separate thread. The
+     * extraction is limited by {@link Extraction#MAX_BYTES},
+     * {@link Extraction#MAX_CHARS} and {@link Extraction#TIMEOUT_MILLIS}. If a
+     * limit is exceeded, the calling thread continues with the media type and
+     * the metadata extracted so far. If the parsing times out, these are the
+     * detected media type and the metadata known before parsing, and the
+     * extraction is counted as abandoned, see {@link #getNumAbandoned()}.
+     * The parsing threads are bounded by the number of CPUs. If all of them
+     * are busy, the calling thread parses and is only stopped by the limits
+     * of the input stream.
+     * 
+     * @param f
+     *            - a readable file
+     * @return the outcome of the extraction
+     * @throws IOException
+     *             if f cannot be read
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected static ExtractionResult extract(final File f)
+	    throws IOException, InterruptedException {
+	// unchanged files are not parsed again
+	boolean useCache = (Extraction.CACHE_MAX_BYTES.get() > 0);
+	if (useCache) {
+	    ExtractionResult cached = CacheHolder.CACHE.get(f);
+	    if (cached != null) {
+		return cached;
+	    }
+	}
+
+	// loading the configuration does not count for the timeout
+	Config.load();
+
+	final long start = System.nanoTime();
+	long timeoutMillis = Extraction.TIMEOUT_MILLIS.get();
+	final long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+	final long maxBytes = Extraction.MAX_BYTES.get();
+
+	final Metadata metadata = new Metadata();
+	metadata.set(Metadata.RESOURCE_NAME_KEY, f.getName());
+	final MediaType mediaType;
+	final TikaInputStream is = TikaInputStream.get(new BudgetInputStream(
+		new FileInputStream(f), maxBytes, deadlineMillis));
+	// the thread claiming the stream closes it
+	final AtomicBoolean claimed = new AtomicBoolean();
+	try {
+	    try {
+		mediaType = detector.get().detect(is, metadata).getBaseType();
+	    } catch (IOException e) {
+		if (!isLimitExceeded(e, null)) {
+		    throw e;
+		}
+		addTiming(MediaType.OCTET_STREAM.toString(), start);
+		return new ExtractionResult(MediaType.OCTET_STREAM, metadata,
+			null, true);
+	    }
+	    // let the parser use the detected type instead of detecting again
+	    metadata.set(Metadata.CONTENT_TYPE, mediaType.toString());
+
+	    // too large files are not parsed at all
+	    final boolean limitExceeded = (f.length() > maxBytes);
+	    if (limitExceeded || !isParsed(f, mediaType)) {
+		addTiming(mediaType.toString(), start);
+		ExtractionResult result = new ExtractionResult(mediaType,
+			metadata, null, limitExceeded);
+		if (useCache) {
+		    CacheHolder.CACHE.put(f, result);
+		}
+		return result;
+	    }
+
+	    // the metadata known before parsing survives a timeout
+	    Metadata detected = new Metadata();
+	    for (String name : metadata.names()) {
+		for (String value : metadata.getValues(name)) {
+		    detected.add(name, value);
+		}
+	    }
+
+	    Future<ExtractionResult> future = executor
+		    .submit(new Callable<ExtractionResult>() {
+			@Override
+			public ExtractionResult call() throws IOException {
+			    if (!claimed.compareAndSet(false, true)) {
+				// abandoned before it has been started
+				return null;
+			    }
+			    try {
+				return parse(is, mediaType, metadata);
+			    } finally {
+				is.close();
+				addTiming(mediaType.toString(), start);
+			    }
+			}
+		    });
+	    try {
+		ExtractionResult result = future.get(timeoutMillis,
+			TimeUnit.MILLISECONDS);
+		if (useCache) {
+		    CacheHolder.CACHE.put(f, result);
+		}
+		return result;
+	    } catch (TimeoutException e) {
+		// the extraction thread stops at its next read
+		future.cancel(true);
+		numAbandoned.incrementAndGet();
+		return new ExtractionResult(mediaType, detected, null, true);
+	    } catch (InterruptedException e) {
+		future.cancel(true);
+		throw e;
+	    } catch (ExecutionException e) {
+		if (e.getCause() instanceof IOException) {
+		    throw (IOException) e.getCause();
+		}
+		if (e.getCause() instanceof RuntimeException) {
+		    throw (RuntimeException) e.getCause();
+		}
+		throw new IOException(e.getCause());
+	    }
+	} finally {
+	    // unless the parsing thread has claimed the stream
+	    if (claimed.compareAndSet(false, true)) {
+		is.close();
+	    }
+	}
+    }
+
+    /**
+     * This method extracts a file like {@link #extract(File)}, but reuses the
+     * cached extraction of an identical copy, if available. Copies have the
+     * same size and file extension and a confirmed equal
+     * {@link ContentFingerprint}.
+     * 
+     * @param f
+     *            - a readable file
+     * @param copies
+     *            - files with the same fingerprint as f
+     * @return the outcome of the extraction
+     * @throws IOException
+     *             if f cannot be read
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected static ExtractionResult extract(File f, Collection<File> copies)
+	    throws IOException, InterruptedException {
+	if (copies.isEmpty() || (Extraction.CACHE_MAX_BYTES.get() <= 0)) {
+	    return extract(f);
+	}
+	ExtractionResult cached = CacheHolder.CACHE.get(f);
+	if (cached != null) {
+	    return cached;
+	}
+
+	long start = System.nanoTime();
+	String fullHash = null;
+	for (File copy : copies) {
+	    if (copy.equals(f) || (copy.length() != f.length())
+		    || !getExtension(copy).equals(getExtension(f))) {
+		continue;
+	    }
+	    ExtractionResult result = CacheHolder.CACHE.get(copy);
+	    if (result == null) {
+		continue;
+	    }
+	    // sampled fingerprints of different files might be equal
+	    if (!ContentFingerprint.isComplete(f)) {
+		try {
+		    if (fullHash == null) {
+			fullHash = ContentFingerprint.getFullHash(f);
+		    }
+		    if (!fullHash.equals(ContentFingerprint.getFullHash(copy))) {
+			continue;
+		    }
+		} catch (IOException ignore) {
+		    continue;
+		}
+	    }
+	    CacheHolder.CACHE.put(f, result);
+	    addTiming(REUSED, start);
+	    return result;
+	}
+
+	return extract(f);
+    }
+
+    /**
+     * This method returns the outcome of a previous extraction of a file, if
+     * it is still cached. The file is not parsed.
+     * 
+     * @param f
+     *            - a file
+     * @return the cached outcome of the extraction or null, if there is none
+     */
+    protected static ExtractionResult getCached(File f) {
+	if (Extraction.CACHE_MAX_BYTES.get() <= 0) {
+	    return null;
+	}
+	return CacheHolder.CACHE.get(f);
+    }
+
+    /**
+     * This method decides by the media type of a file, whether it is parsed.
+     * 
+     * @param f
+     *            - a file
+     * @param mediaType
+     *            - the detected media type of f without parameters
+     * @return true if the metadata or the text content of f are parsed
+     */
+    private static boolean isParsed(File f, MediaType mediaType) {
+	String type = mediaType.getType();
+	return type.equals("text")
+		|| type.equals("audio")
+		|| (type.equals("application")
+			&& !mediaType.equals(MediaType.OCTET_STREAM) && whitelist
+			.contains(getExtension(f)));
+    }
+
+    /**
+     * This method parses a file in the current thread. Text and documents are
+     * parsed for their metadata and text content, audio files for their
+     * metadata only.
+     * 
+     * @param is
+     *            - the stream of the file positioned at its start
+     * @param mediaType
+     *            - the detected media type of the file without parameters
+     * @param metadata
+     *            - the metadata known before parsing. It is completed by the
+     *            parser.
+     * @return the outcome of the extraction
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static ExtractionResult parse(TikaInputStream is,
+	    MediaType mediaType, Metadata metadata) throws IOException {
+	int maxChars = (int) Math.min(Integer.MAX_VALUE,
+		Extraction.MAX_CHARS.get());
+
+	String textContent = null;
+	WriteOutContentHandler contenthandler = null;
+	boolean limitExceeded = false;
+	try {
+	    if (mediaType.getType().equals("audio")) {
+		// the text content is not used
+		parser.get().parse(is, new DefaultHandler(), metadata,
+			new ParseContext());
+	    } else {
+		contenthandler = new WriteOutContentHandler(maxChars);
+		parser.get().parse(is, new BodyContentHandler(contenthandler),
+			metadata, new ParseContext());
+		textContent = contenthandler.toString();
+	    }
+	} catch (IOException e) {
+	    if (!isLimitExceeded(e, contenthandler)) {
+		throw e;
+	    }
+	    limitExceeded = true;
+	} catch (SAXException e) {
+	    // keep the media type and the metadata extracted so far
+	    limitExceeded = isLimitExceeded(e, contenthandler);
+	} catch (TikaException e) {
+	    // keep the media type and the metadata extracted so far
+	    limitExceeded = isLimitExceeded(e, contenthandler);
+	}
+
+	return new ExtractionResult(mediaType, metadata,
+		(limitExceeded ? null : textContent), limitExceeded);
+    }
+
+    /**
+     * This method adds the time spent since start to a timing.
+     * 
+     * @param key
+     *            - the key of the timing, usually a media type
+     * @param start
+     *            - the start time in nanoseconds
+     */
+    private static void addTiming(String key, long start) {
+	Timing timing = timings.get(key);
+	if (timing == null) {
+	    timings.putIfAbsent(key, new Timing());
+	    timing = timings.get(key);
+	}
+	timing.count.incrementAndGet();
+	timing.nanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * This method checks, if an exception was caused by an exceeded limit.
+     * 
+     * @param e
+     *            - an exception thrown during an extraction
+     * @param contenthandler
+     *            - (optional, null allowed) the content handler used for the
+     *            extraction
+     * @return true if a limit of a {@link BudgetInputStream} or the character
+     *         limit of contenthandler was exceeded
+     */
+    private static boolean isLimitExceeded(Throwable e,
+	    WriteOutContentHandler contenthandler) {
+	if ((contenthandler != null) && contenthandler.isWriteLimitReached(e)) {
+	    return true;
+	}
+	while (e != null) {
+	    if (e instanceof LimitExceededException) {
+		return true;
+	    }
+	    e = e.getCause();
+	}
+	return false;
+    }
+
+    /**
+     * Returns the lower case extension of a file's name including the period.
+     * 
+     * @param f
+     *            - a file
+     * @return the lower case extension or an empty String, if there is none
+     */
+    protected static String getExtension(File f) {
+	String name = f.getName();
+	if (!name.contains(".")) {
+	    return "";
+	}
+	return name.substring(name.lastIndexOf(".")).toLowerCase();
+    }
+
+    /**
+     * Returns the extraction timings of all media types seen so far, sorted by
+     * media type.
+     * 
+     * @return a Map from media types to their extraction timings
+     */
+    protected static Map<String, Timing> getTimings() {
+	return Collections.unmodifiableMap(new TreeMap<String, Timing>(
+		timings));
+    }
+
+    /**
+     * Returns the number of extractions, whose parsing has timed out. Their
+     * threads may still be running until their parser reads again.
+     * 
+     * @return the number of abandoned extractions
+     */
+    protected static long getNumAbandoned() {
+	return numAbandoned.get();
+    }
+}
@@ -0,0 +1,228 @@
+package de.mround.searchbooster.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
+import org.apache.lucene.search.Scorer;
+
+import de.mround.searchbooster.api.Configuration.Index;
+
+/**
+ * FacetCollector counts the values of the facet fields of all hits of a
+ * search in a single pass. It is usually combined with the collector of the
+ * hits by {@link org.apache.lucene.search.MultiCollector}.<br />
+ * <br />
+ * The values of a segment are taken from the ordinal cache of the
+ * {@link FieldCache}, so a hit is counted by incrementing an array element
+ * per facet. The ordinals are translated into values once per segment. The
+ * facets are {@link Index#TYPE}, {@link Index#EXTENSION},
+ * {@link Index#INTERPRET}, {@link Index#ALBUM} and the year of the
+ * modification ({@link #MODIFICATION_YEAR}).
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class FacetCollector extends Collector {
+    // Constants
+    public static final String MODIFICATION_YEAR = "ModificationYear";
+    private static final String[] FIELDS = { Index.TYPE, Index.EXTENSION,
+	    Index.INTERPRET, Index.ALBUM };
+    private static final int FIRST_YEAR = 1970;
+    private static final int LAST_YEAR = 2100;
+    // Members
+    // the first millisecond of each year from FIRST_YEAR to LAST_YEAR + 1
+    private final long[] yearStarts = new long[LAST_YEAR - FIRST_YEAR + 2];
+    private final Map<String, Map<String, Integer>> counts = new LinkedHashMap<String, Map<String, Integer>>();
+    // state of the current segment
+    private StringIndex[] ordinals = null;
+    private int[][] ordinalCounts = null;
+    private long[] lastModified = null;
+    private int[] yearCounts = null;
+
+    /**
+     * Constructor.
+     */
+    protected FacetCollector() {
+	GregorianCalendar cal = new GregorianCalendar();
+	cal.clear();
+	for (int i = 0; i < this.yearStarts.length; i++) {
+	    cal.set(FIRST_YEAR + i, 0, 1);
+	    this.yearStarts[i] = cal.getTimeInMillis();
+	}
+	for (String field : FIELDS) {
+	    this.counts.put(field, new TreeMap<String, Integer>());
+	}
+	this.counts.put(MODIFICATION_YEAR, new TreeMap<String, Integer>());
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+	// scores are not needed
+    }
+
+    @Override
+    public void setNextReader(IndexReader reader, int docBase)
+	    throws IOException {
+	this.flushSegment();
+
+	this.ordinals = new StringIndex[FIELDS.length];
+	this.ordinalCounts = new int[FIELDS.length][];
+	for (int i = 0; i < FIELDS.length; i++) {
+	    this.ordinals[i] = FieldCache.DEFAULT.getStringIndex(reader,
+		    FIELDS[i]);
+	    this.ordinalCounts[i] = new int[this.ordinals[i].lookup.length];
+	}
+	this.lastModified = FieldCache.DEFAULT.getLongs(reader,
+		Index.LAST_MODIFIED_MILLIS,
+		FieldCache.NUMERIC_UTILS_LONG_PARSER);
+	this.yearCounts = new int[this.yearStarts.length - 1];
+    }
+
+    @Override
+    public void collect(int doc) {
+	for (int i = 0; i < FIELDS.length; i++) {
+	    this.ordinalCounts[i][this.ordinals[i].order[doc]]++;
+	}
+
+	// modification times outside of the supported years are not counted
+	int year = Arrays.binarySearch(this.yearStarts,
+		this.lastModified[doc]);
+	if (year < 0) {
+	    year = -year - 2;
+	}
+	if ((year >= 0) && (year < this.yearCounts.length)) {
+	    this.yearCounts[year]++;
+	}
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+	return true;
+    }
+
+    /**
+     * This method adds the counts of the current segment to the counts of all
+     * segments.
+     */
+    private void flushSegment() {
+	if (this.ordinals == null) {
+	    return;
+	}
+
+	for (int i = 0; i < FIELDS.length; i++) {
+	    // ordinal 0 stands for hits without a value
+	    for (int ord = 1; ord < this.ordinalCounts[i].length; ord++) {
+		add(this.counts.get(FIELDS[i]), this.ordinals[i].lookup[ord],
+			this.ordinalCounts[i][ord]);
+	    }
+	}
+	for (int i = 0; i < this.yearCounts.length; i++) {
+	    add(this.counts.get(MODIFICATION_YEAR),
+		    Integer.toString(FIRST_YEAR + i), this.yearCounts[i]);
+	}
+
+	this.ordinals = null;
+	this.ordinalCounts = null;
+	this.lastModified = null;
+	this.yearCounts = null;
+    }
+
+    /**
+     * Returns the counts of all facets of the hits collected so far.
+     * 
+     * @return a Map from facet names to Maps from their values to the number
+     *         of hits. Values without hits are omitted.
+     */
+    protected Map<String, Map<String, Integer>> getCounts() {
+	this.flushSegment();
+	return this.counts;
+    }
+
+    /**
+     * This method adds the counts of a facet to the counts of the same facet,
+     * e.g. of another index.
+     * 
+     * @param target
+     *            - a Map from facet names to Maps from their values to the
+     *            number of hits. It is modified.
+     * @param source
+     *            - the counts to add in the same format
+     */
+    protected static void addCounts(Map<String, Map<String, Integer>> target,
+	    Map<String, Map<String, Integer>> source) {
+	for (String facet : source.keySet()) {
+	    if (!target.containsKey(facet)) {
+		target.put(facet, new TreeMap<String, Integer>());
+	    }
+	    for (Map.Entry<String, Integer> entry : source.get(facet)
+		    .entrySet()) {
+		add(target.get(facet), entry.getKey(), entry.getValue()
+			.intValue());
+	    }
+	}
+    }
+
+    /**
+     * Returns the most frequent values of a facet.
+     * 
+     * @param counts
+     *            - a Map from the values of a facet to the number of hits
+     * @param max
+     *            - the maximum number of values to return
+     * @return a Map of at most max values, ordered by descending number of
+     *         hits
+     */
+    protected static Map<String, Integer> getTopCounts(
+	    Map<String, Integer> counts, int max) {
+	List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(
+		counts.entrySet());
+	Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+	    @Override
+	    public int compare(Map.Entry<String, Integer> e1,
+		    Map.Entry<String, Integer> e2) {
+		return e2.getValue().compareTo(e1.getValue());
+	    }
+	});
+
+	Map<String, Integer> resultMap = new LinkedHashMap<String, Integer>();
+	for (Map.Entry<String, Integer> entry : entries) {
+	    if (resultMap.size() >= max) {
+		break;
+	    }
+	    resultMap.put(entry.getKey(), entry.getValue());
+	}
+
+	return resultMap;
+    }
+
+    /**
+     * This method adds a number of hits to a value of a facet.
+     * 
+     * @param counts
+     *            - a Map from the values of a facet to the number of hits
+     * @param value
+     *            - a value of the facet
+     * @param count
+     *            - the number of hits to add
+     */
+    private static void add(Map<String, Integer> counts, String value,
+	    int count) {
+	if (count == 0) {
+	    return;
+	}
+	Integer old = counts.get(value);
+	counts.put(value,
+		Integer.valueOf((old == null) ? count : old.intValue() + count));
+    }
+}
@@ -0,0 +1,448 @@
+package de.mround.searchbooster.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+import de.mround.searchbooster.api.Configuration.Index;
+import de.mround.searchbooster.api.Configuration.ParallelSearch;
+
+/**
+ * FederatedSearch searches several indexes, e.g. the persistent and the
+ * temporary index, in a single pass. Their readers are combined into one
+ * {@link MultiReader}, so the hits of all indexes are scored by the same
+ * statistics and collected by the same {@link Collector} in the order of
+ * their scores. Hits are addressed by the document numbers of the combined
+ * reader.<br />
+ * <br />
+ * A file, that is contained in more than one index, is only found in the
+ * first of them. The indexes are given in the order of preference.<br />
+ * <br />
+ * If an executor is given, large indexes are split into slices of segments,
+ * which are searched in parallel, and the top hits of the slices are merged.
+ * The number of slices is limited by the idle threads of the executor, so
+ * concurrent searches share the threads instead of queuing behind each other.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class FederatedSearch {
+    // Members
+    private final MultiReader reader;
+    private final IndexSearcher searcher;
+    // the segments of all indexes and their first document numbers
+    private final IndexReader[] segments;
+    private final int[] starts;
+    // null, if all segments are searched by the requesting thread
+    private final ThreadPoolExecutor executor;
+    // null, if there is at most one index with files
+    private final Filter duplicates;
+
+    /**
+     * DuplicateFilter is a private helper class, that removes the files of an
+     * index, which are contained in a preferred index, too. The files are
+     * identified by their {@link Index#PATH_KEY}.<br />
+     * <br />
+     * The documents of each segment are computed once per combination of
+     * readers. The Filter of the latest combination is reused by the next
+     * searches, until one of the indexes opens a new reader.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static final class DuplicateFilter extends Filter {
+	private static final long serialVersionUID = 1L;
+	// the Filter of the latest combination of readers
+	private static DuplicateFilter latest = null;
+	private final IndexReader[] readers;
+	// the index of the reader of each segment
+	private final Map<IndexReader, Integer> owners = new IdentityHashMap<IndexReader, Integer>();
+	// the computed documents of each segment
+	private final Map<IndexReader, DocIdSet> docIdSets = new IdentityHashMap<IndexReader, DocIdSet>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param readers
+	 *            - the readers of the indexes in the order of preference
+	 */
+	private DuplicateFilter(IndexReader[] readers) {
+	    this.readers = readers;
+	    for (int i = 0; i < readers.length; i++) {
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(segments, readers[i]);
+		for (IndexReader segment : segments) {
+		    this.owners.put(segment, Integer.valueOf(i));
+		}
+	    }
+	}
+
+	/**
+	 * Returns the Filter of a combination of readers. It is shared with
+	 * previous searches of the same readers.
+	 * 
+	 * @param readers
+	 *            - the readers of the indexes in the order of preference
+	 * @return the Filter of the readers
+	 */
+	private static synchronized DuplicateFilter get(IndexReader[] readers) {
+	    if ((latest == null) || (latest.readers.length != readers.length)) {
+		latest = new DuplicateFilter(readers);
+		return latest;
+	    }
+	    for (int i = 0; i < readers.length; i++) {
+		if (latest.readers[i] != readers[i]) {
+		    latest = new DuplicateFilter(readers);
+		    break;
+		}
+	    }
+	    return latest;
+	}
+
+	@Override
+	public DocIdSet getDocIdSet(IndexReader segment) throws IOException {
+	    synchronized (this.docIdSets) {
+		DocIdSet cached = this.docIdSets.get(segment);
+		if (cached != null) {
+		    return cached;
+		}
+	    }
+	    DocIdSet docIdSet = this.computeDocIdSet(segment);
+	    synchronized (this.docIdSets) {
+		this.docIdSets.put(segment, docIdSet);
+	    }
+	    return docIdSet;
+	}
+
+	/**
+	 * This method computes the documents of a segment, whose files are not
+	 * contained in a preferred index.
+	 * 
+	 * @param segment
+	 *            - a segment of one of the readers
+	 * @return the documents of segment passing this Filter
+	 * @throws IOException
+	 *             if a reader cannot be read
+	 */
+	private DocIdSet computeDocIdSet(IndexReader segment) throws IOException {
+	    OpenBitSet bits = new OpenBitSet(segment.maxDoc());
+	    bits.set(0, segment.maxDoc());
+
+	    Integer owner = this.owners.get(segment);
+	    if ((owner == null) || (owner.intValue() == 0)) {
+		return bits;
+	    }
+
+	    TermEnum terms = segment.terms(new Term(Index.PATH_KEY, ""));
+	    try {
+		do {
+		    Term term = terms.term();
+		    if ((term == null) || !term.field().equals(Index.PATH_KEY)) {
+			break;
+		    }
+		    if (this.isPreferred(term, owner.intValue())) {
+			TermDocs termDocs = segment.termDocs(term);
+			try {
+			    while (termDocs.next()) {
+				bits.clear(termDocs.doc());
+			    }
+			} finally {
+			    termDocs.close();
+			}
+		    }
+		} while (terms.next());
+	    } finally {
+		terms.close();
+	    }
+
+	    return bits;
+	}
+
+	/**
+	 * This method checks, if a file is contained in an index preferred to
+	 * the index of the given reader.
+	 * 
+	 * @param pathKey
+	 *            - the {@link Index#PATH_KEY} of a file
+	 * @param owner
+	 *            - the index of the reader containing the file
+	 * @return true if a preferred reader contains an undeleted file with the
+	 *         same {@link Index#PATH_KEY}
+	 * @throws IOException
+	 *             if a reader cannot be read
+	 */
+	private boolean isPreferred(Term pathKey, int owner) throws IOException {
+	    for (int i = 0; i < owner; i++) {
+		TermDocs termDocs = this.readers[i].termDocs(pathKey);
+		try {
+		    if (termDocs.next()) {
+			return true;
+		    }
+		} finally {
+		    termDocs.close();
+		}
+	    }
+	    return false;
+	}
+    }
+
+    /**
+     * SliceSearch is a private helper class, that collects the top hits and
+     * the facets of a slice of segments.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static final class SliceSearch implements Callable<TopDocs> {
+	private final IndexSearcher slice;
+	private final Weight weight;
+	private final Filter filter;
+	private final ScoreDoc after;
+	private final int numHits;
+	private final FacetCollector facets;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param slice
+	 *            - a searcher of the slice
+	 * @param weight
+	 *            - the Weight of the Query, shared by all slices
+	 * @param filter
+	 *            - (optional, null allowed) a Filter of the hits
+	 * @param after
+	 *            - (optional, null allowed) the last hit of the previous
+	 *            page
+	 * @param numHits
+	 *            - the number of top hits to collect
+	 * @param facets
+	 *            - (optional, null allowed) the collector of the facets
+	 */
+	private SliceSearch(IndexSearcher slice, Weight weight, Filter filter,
+		ScoreDoc after, int numHits, FacetCollector facets) {
+	    this.slice = slice;
+	    this.weight = weight;
+	    this.filter = filter;
+	    this.after = after;
+	    this.numHits = numHits;
+	    this.facets = facets;
+	}
+
+	@Override
+	public TopDocs call() throws IOException {
+	    TopScoreDocCollector collector = TopScoreDocCollector.create(
+		    this.numHits, this.after, true);
+	    this.slice.search(this.weight, this.filter,
+		    (this.facets == null) ? collector : MultiCollector.wrap(
+			    collector, this.facets));
+	    return collector.topDocs();
+	}
+    }
+
+    /**
+     * Constructor. The readers are not closed by {@link #close()}.
+     * 
+     * @param executor
+     *            - (optional, null allowed) the executor searching slices of
+     *            segments in parallel
+     * @param readers
+     *            - (null entries allowed) the readers of the indexes in the
+     *            order of preference
+     */
+    protected FederatedSearch(ThreadPoolExecutor executor,
+	    IndexReader... readers) {
+	List<IndexReader> readerList = new ArrayList<IndexReader>();
+	int numFilled = 0;
+	for (IndexReader r : readers) {
+	    if (r != null) {
+		readerList.add(r);
+		if (r.numDocs() > 0) {
+		    numFilled++;
+		}
+	    }
+	}
+	IndexReader[] subReaders = readerList
+		.toArray(new IndexReader[readerList.size()]);
+
+	this.reader = new MultiReader(subReaders, false);
+	this.searcher = new IndexSearcher(this.reader);
+	this.duplicates = (numFilled > 1) ? DuplicateFilter.get(subReaders)
+		: null;
+	this.executor = executor;
+
+	List<IndexReader> segmentList = new ArrayList<IndexReader>();
+	ReaderUtil.gatherSubReaders(segmentList, this.reader);
+	this.segments = segmentList.toArray(new IndexReader[segmentList.size()]);
+	this.starts = new int[this.segments.length];
+	int start = 0;
+	for (int i = 0; i < this.segments.length; i++) {
+	    this.starts[i] = start;
+	    start += this.segments[i].maxDoc();
+	}
+    }
+
+    /**
+     * This method searches all indexes for the top hits after the last hit of
+     * the previous page.
+     * 
+     * @param after
+     *            - (optional, null allowed) the last hit of the previous page
+     *            or null for the first page
+     * @param query
+     *            - the Query to search for
+     * @param n
+     *            - the maximum number of hits to return
+     * @param facetCounts
+     *            - (optional, null allowed) a Map from facet names to Maps
+     *            from their values to the number of hits, see
+     *            {@link FacetCollector}. The facets of all hits are added to
+     *            it.
+     * @return the top hits, ordered by descending score and ascending
+     *         document number, and the number of all hits
+     * @throws IOException
+     *             if an index cannot be searched
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting for a slice
+     */
+    protected TopDocs searchAfter(ScoreDoc after, Query query, int n,
+	    Map<String, Map<String, Integer>> facetCounts) throws IOException,
+	    InterruptedException {
+	int numHits = Math.max(1, Math.min(n, this.reader.maxDoc()));
+	Weight weight = this.searcher.createNormalizedWeight(query);
+	IndexSearcher[] slices = this.getSlices();
+
+	FacetCollector[] facets = new FacetCollector[slices.length];
+	SliceSearch[] sliceSearches = new SliceSearch[slices.length];
+	for (int i = 0; i < slices.length; i++) {
+	    facets[i] = (facetCounts == null) ? null : new FacetCollector();
+	    sliceSearches[i] = new SliceSearch(slices[i], weight,
+		    this.duplicates, after, numHits, facets[i]);
+	}
+
+	TopDocs[] topDocs = new TopDocs[slices.length];
+	List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>();
+	try {
+	    for (int i = 1; i < slices.length; i++) {
+		futures.add(this.executor.submit(sliceSearches[i]));
+	    }
+	    // the requesting thread searches the first slice itself
+	    topDocs[0] = sliceSearches[0].call();
+	    for (int i = 1; i < slices.length; i++) {
+		topDocs[i] = futures.get(i - 1).get();
+	    }
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    for (Future<TopDocs> future : futures) {
+		future.cancel(true);
+	    }
+	}
+
+	if (facetCounts != null) {
+	    for (FacetCollector f : facets) {
+		FacetCollector.addCounts(facetCounts, f.getCounts());
+	    }
+	}
+	if (slices.length == 1) {
+	    return topDocs[0];
+	}
+	// the slices are in the order of the document numbers, so equal
+	// scores stay ordered by document number
+	TopDocs merged = TopDocs.merge(null, numHits, topDocs);
+	// merge only counts the hits of slices, that contribute top hits
+	merged.totalHits = 0;
+	for (TopDocs t : topDocs) {
+	    merged.totalHits += t.totalHits;
+	}
+	return merged;
+    }
+
+    /**
+     * Returns the slices of segments to search in parallel. The number of
+     * slices adapts to the current load: it is limited by the idle threads
+     * of the executor and by {@link ParallelSearch#MIN_SLICE_DOCUMENTS}.
+     * Each slice is a range of consecutive segments with about the same
+     * number of documents.
+     * 
+     * @return searchers of the slices in the order of the document numbers
+     */
+    private IndexSearcher[] getSlices() {
+	int maxDoc = this.reader.maxDoc();
+	long minSliceDocs = Math.max(1,
+		ParallelSearch.MIN_SLICE_DOCUMENTS.get());
+	int numSlices = 1;
+	if (this.executor != null) {
+	    // idle threads and the requesting thread
+	    int maxSlices = this.executor.getMaximumPoolSize()
+		    - this.executor.getActiveCount() + 1;
+	    numSlices = (int) Math.min(Math.min(maxSlices,
+		    this.segments.length), maxDoc / minSliceDocs);
+	}
+	if (numSlices <= 1) {
+	    return new IndexSearcher[] { this.searcher };
+	}
+
+	List<IndexSearcher> slices = new ArrayList<IndexSearcher>();
+	int from = 0;
+	long docs = 0;
+	for (int i = 0; i < this.segments.length; i++) {
+	    docs += this.segments[i].maxDoc();
+	    if ((i + 1 == this.segments.length)
+		    || (docs >= (slices.size() + 1L) * maxDoc / numSlices)) {
+		slices.add(new IndexSearcher(this.reader, Arrays.copyOfRange(
+			this.segments, from, i + 1), Arrays.copyOfRange(
+			this.starts, from, i + 1)));
+		from = i + 1;
+	    }
+	}
+	return slices.toArray(new IndexSearcher[slices.size()]);
+    }
+
+    /**
+     * Returns the combined reader of all indexes.
+     * 
+     * @return the combined reader of all indexes
+     */
+    protected IndexReader getIndexReader() {
+	return this.reader;
+    }
+
+    /**
+     * This method releases the combined reader. The readers of the indexes
+     * stay open.
+     */
+    protected void close() {
+	try {
+	    this.searcher.close();
+	    this.reader.close();
+	} catch (IOException e) {
+	    System.err.println("Cannot close the federated reader. Reason: "
+		    + e.getMessage());
+	}
+    }
+}
@@ -0,0 +1,133 @@
+package de.mround.searchbooster.api;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.util.OpenBitSet;
+
+import de.mround.searchbooster.api.Configuration.Index;
+
+/**
+ * FileNameFilter matches the {@link Index#FILE_NAME} of all files against a
+ * file name pattern, ignoring the case. A pattern consists of literal
+ * characters and the wildcards '*' (any sequence of characters) and '?' (any
+ * single character) and has to match the complete file name.<br />
+ * <br />
+ * Instead of enumerating all file names of the index, only the candidates
+ * found by a cheap query, e.g. a conjunction of
+ * {@link Index#FILE_NAME_NGRAMS}, are verified. The file names are taken from
+ * the {@link FieldCache}, so the verification does not touch the stored
+ * fields.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class FileNameFilter extends Filter {
+    private static final long serialVersionUID = 1L;
+    // Members
+    private final Query candidates;
+    private final String pattern;
+    private final Pattern regex;
+
+    /**
+     * Constructor.
+     * 
+     * @param candidates
+     *            - (optional, null allowed) a Query matching at least all
+     *            files, whose name matches the pattern. If candidates is null,
+     *            all files are verified.
+     * @param pattern
+     *            - a file name pattern
+     */
+    protected FileNameFilter(Query candidates, String pattern) {
+	this.candidates = candidates;
+	this.pattern = pattern;
+	this.regex = Pattern.compile(toRegex(pattern), Pattern.CASE_INSENSITIVE
+		| Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    /**
+     * This method translates a file name pattern into a regular expression.
+     * 
+     * @param pattern
+     *            - a file name pattern
+     * @return a regular expression matching the same file names
+     */
+    private static String toRegex(String pattern) {
+	StringBuilder sb = new StringBuilder();
+	StringBuilder literal = new StringBuilder();
+	for (char c : pattern.toCharArray()) {
+	    if ((c != '*') && (c != '?')) {
+		literal.append(c);
+		continue;
+	    }
+	    if (literal.length() > 0) {
+		sb.append(Pattern.quote(literal.toString()));
+		literal.setLength(0);
+	    }
+	    sb.append((c == '*') ? ".*" : ".");
+	}
+	if (literal.length() > 0) {
+	    sb.append(Pattern.quote(literal.toString()));
+	}
+	return sb.toString();
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+	OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+
+	if (this.candidates == null) {
+	    String[] names = FieldCache.DEFAULT.getStrings(reader,
+		    Index.FILE_NAME);
+	    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+		if (!reader.isDeleted(doc) && this.matches(names[doc])) {
+		    bits.set(doc);
+		}
+	    }
+	    return bits;
+	}
+
+	DocIdSet candidateSet = new QueryWrapperFilter(this.candidates)
+		.getDocIdSet(reader);
+	DocIdSetIterator it = (candidateSet == null) ? null : candidateSet
+		.iterator();
+	int doc = (it == null) ? DocIdSetIterator.NO_MORE_DOCS : it.nextDoc();
+	if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+	    return bits;
+	}
+	// the file names are only loaded for segments with candidates
+	String[] names = FieldCache.DEFAULT.getStrings(reader, Index.FILE_NAME);
+	while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+	    if (this.matches(names[doc])) {
+		bits.set(doc);
+	    }
+	    doc = it.nextDoc();
+	}
+
+	return bits;
+    }
+
+    /**
+     * This method checks, if a file name matches the pattern.
+     * 
+     * @param name
+     *            - (optional, null allowed) a file name
+     * @return true if name matches the pattern, false if name is null
+     */
+    private boolean matches(String name) {
+	return (name != null) && this.regex.matcher(name).matches();
+    }
+
+    @Override
+    public String toString() {
+	return "FileNameFilter(" + this.pattern + ", candidates: "
+		+ this.candidates + ")";
+    }
+}
@@ -5,7 +5,6 @@ import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.w3c.dom.Document;
@@ -85,55 +84,37 @@ public final class IndexChangeTask implements Runnable {
 	    }
 
 	    // get a model of the current index content (if a rebuild is forced,
-	    // the map will just stay empty)
-	    Map<String, Integer> alreadyInIndexMap = this.persistent
-		    .getIndexContentMap();
-
-	    if (RequestIndexChangeParser.getForceRebuild(this.request)) {
+	    // the map will just stay empty, as the rebuild replaces the index as
+	    // a whole)
+	    boolean rebuild = RequestIndexChangeParser
+		    .getForceRebuild(this.request);
+	    Map<String, Integer> alreadyInIndexMap = new HashMap<String, Integer>();
+	    if (rebuild) {
 		System.out.println("[info] Rebuilding of the persistent index"
 			+ " has been requested.");
-		// TODO maybe a backup, in case of cancellation?!
-		this.persistent.clearDirectory();
-		alreadyInIndexMap.clear();
+	    } else {
+		alreadyInIndexMap = this.persistent.getIndexContentMap();
 	    }
 
-	    // get a model of the current index content without
-	    // fully-recursive-entries => delete them from the index
+	    // get a model of the current index content without entries, that
+	    // are not present in the future index or changed their recursion
+	    // depth => delete them from the index. All remaining entries are
+	    // indexed again incrementally, so only changed files are processed.
 	    Map<String, Integer> toDeleteMap = new HashMap<String, Integer>();
 	    for (String s : alreadyInIndexMap.keySet()) {
-		if (alreadyInIndexMap.get(s).intValue() >= 0) {
-		    toDeleteMap.put(s, alreadyInIndexMap.get(s));
-		}
-	    }
-	    for (String s : toDeleteMap.keySet()) {
-		alreadyInIndexMap.remove(s);
-	    }
-
-	    // get a model of the current index content without
-	    // entries, that are not present in the future index => delete them
-	    // from the index
-	    for (String s : alreadyInIndexMap.keySet()) {
-		if (!futureIndexMap.containsKey(s)) {
+		if (!alreadyInIndexMap.get(s).equals(futureIndexMap.get(s))) {
 		    toDeleteMap.put(s, alreadyInIndexMap.get(s));
 		}
 	    }
-	    for (String s : toDeleteMap.keySet()) {
-		alreadyInIndexMap.remove(s);
-	    }
 
 	    // perform current index deletion
 	    if (toDeleteMap.size() > 0) {
 		for (String s : toDeleteMap.keySet()) {
 		    Query q = null;
+		    this.persistent.removeRoot(s,
+			    (toDeleteMap.get(s).intValue() < 0));
 		    if (toDeleteMap.get(s).intValue() < 0) {
-			q = new PrefixQuery(new Term(Index.META_PATH, s));
-		    } else {
-			q = new TermQuery(new Term(Index.META_PATH, s));
-		    }
-
-		    this.persistent.deleteFromIndex(q);
-		    if (toDeleteMap.get(s).intValue() < 0) {
-			q = new PrefixQuery(new Term(Index.URL, s));
+			q = LuceneDirectoryUtility.getSubtreeQuery(s);
 		    } else {
 			q = new TermQuery(new Term(Index.URL, s));
 		    }
@@ -141,28 +122,46 @@ public final class IndexChangeTask implements Runnable {
 		}
 	    }
 
-	    // get the final model of the future index content without entries,
-	    // that are already completely contained in the index
-	    for (String s : alreadyInIndexMap.keySet()) {
-		futureIndexMap.remove(s);
-	    }
-
 	    System.out.println("[info] Need to index at least "
 		    + futureIndexMap.size() + " directory(s).");
 
 	    LuceneDirectory.IndexResult indexResult = null;
 	    try {
-		indexResult = this.persistent
-			.addContentMapToIndex(futureIndexMap);
+		if (rebuild) {
+		    // the old index keeps serving searches until the new one
+		    // is complete
+		    indexResult = this.persistent
+			    .rebuildContentMap(futureIndexMap);
+		} else {
+		    indexResult = this.persistent
+			    .addContentMapToIndex(futureIndexMap);
+		}
 	    } catch (InterruptedException ignore) {
 	    }
+	    if (indexResult == null) {
+		// the response reports the failure
+		return;
+	    }
+
+	    System.out.println("[info] Extraction timings per media type: "
+		    + ExtractionService.getTimings() + ", "
+		    + ExtractionService.getNumAbandoned()
+		    + " extraction(s) abandoned after a timeout.");
 
 	    response = ResponseBuilder.create(StatusCodeID.SUCCESSFUL,
 		    "Adding " + indexResult.getNumIndexed()
 			    + " files to the permanent index took "
 			    + indexResult.getTimeMillis() + " milliseconds. "
+			    + indexResult.getNumUnchanged()
+			    + " files were unchanged, "
+			    + indexResult.getNumDeleted()
+			    + " files were removed and "
 			    + indexResult.getNumIndexErrors()
-			    + " files were erroneous.");
+			    + " files were erroneous. "
+			    + indexResult.getNumLimitExceeded()
+			    + " files exceeded an extraction limit. The content of "
+			    + this.persistent.getNumPendingDocuments()
+			    + " files is extracted in the background.");
 	} finally {
 	    try {
 		this.responseQueue.put(response);
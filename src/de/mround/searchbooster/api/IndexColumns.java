@@ -0,0 +1,85 @@
+package de.mround.searchbooster.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.ReaderUtil;
+
+import de.mround.searchbooster.api.Configuration.Index;
+
+/**
+ * IndexColumns reads single-valued fields of search hits from the
+ * {@link FieldCache} instead of loading their stored fields. Each field is
+ * read as a column per segment once and shared by all following searches, as
+ * long as the segment is not merged away. Hits are addressed by the document
+ * numbers of the top level {@link IndexReader}.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class IndexColumns {
+    // Members
+    private final IndexReader[] segments;
+    private final int[] starts;
+
+    /**
+     * Constructor.
+     * 
+     * @param reader
+     *            - the top level {@link IndexReader} of a search
+     */
+    protected IndexColumns(IndexReader reader) {
+	List<IndexReader> segmentList = new ArrayList<IndexReader>();
+	ReaderUtil.gatherSubReaders(segmentList, reader);
+	this.segments = segmentList.toArray(new IndexReader[segmentList.size()]);
+	this.starts = new int[this.segments.length];
+	int start = 0;
+	for (int i = 0; i < this.segments.length; i++) {
+	    this.starts[i] = start;
+	    start += this.segments[i].maxDoc();
+	}
+    }
+
+    /**
+     * Returns the path of a file, i.e. its {@link Index#URL} followed by its
+     * {@link Index#FILE_NAME}.
+     * 
+     * @param doc
+     *            - the document number of a hit
+     * @return the path of the file or null, if the hit is no file
+     * @throws IOException
+     *             if a column cannot be read
+     */
+    protected String getPath(int doc) throws IOException {
+	int i = ReaderUtil.subIndex(doc, this.starts);
+	int segmentDoc = doc - this.starts[i];
+	String url = FieldCache.DEFAULT.getStrings(this.segments[i],
+		Index.URL)[segmentDoc];
+	String name = FieldCache.DEFAULT.getStrings(this.segments[i],
+		Index.FILE_NAME)[segmentDoc];
+	if ((url == null) || (name == null)) {
+	    return null;
+	}
+	return url + name;
+    }
+
+    /**
+     * Returns the value of a numeric long field, e.g.
+     * {@link Index#LAST_MODIFIED_MILLIS}.
+     * 
+     * @param doc
+     *            - the document number of a hit
+     * @param field
+     *            - the name of the field
+     * @return the value of the field or 0, if the hit has none
+     * @throws IOException
+     *             if the column cannot be read
+     */
+    protected long getLong(int doc, String field) throws IOException {
+	int i = ReaderUtil.subIndex(doc, this.starts);
+	return FieldCache.DEFAULT.getLongs(this.segments[i], field,
+		FieldCache.NUMERIC_UTILS_LONG_PARSER)[doc - this.starts[i]];
+    }
+}
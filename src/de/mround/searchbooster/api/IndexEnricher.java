@@ -0,0 +1,205 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.document.Document;
+
+import de.mround.searchbooster.api.Configuration.Checkpoint;
+import de.mround.searchbooster.api.Configuration.Index;
+import de.mround.searchbooster.api.ContentFingerprint.Registry;
+import de.mround.searchbooster.api.ExtractionService.ExtractionResult;
+
+/**
+ * IndexEnricher performs the second pass of a two-phase indexing. The first
+ * pass makes files searchable by their name, path and modification time
+ * quickly, without parsing them. Their {@link Document} representations are
+ * marked as {@link Index#PENDING_ENRICHMENT}.<br />
+ * <br />
+ * The enricher takes these files in batches, extracts their content using the
+ * {@link ExtractionService} with several threads in parallel and replaces
+ * their Documents by complete ones. The index is only locked while a batch is
+ * fetched and written, so searches and index changes are not blocked by the
+ * extraction. Files marked by a running crawl are taken after its next
+ * checkpoint. The changes are committed every {@link Checkpoint#DOCUMENTS}
+ * Documents or {@link Checkpoint#INTERVAL_MILLIS} and when no file is
+ * left.<br />
+ * <br />
+ * Interrupting the thread running the enricher stops it.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class IndexEnricher implements Runnable {
+    // Constants
+    private static final int BATCH_SIZE_PER_WORKER = 16;
+    private static final long IDLE_MILLIS = 1000;
+    // Members
+    private final LuceneDirectory directory;
+    private final int numWorkers = Math.max(1, Configuration.NUMBER_OF_CPUS);
+    // enriched files, whose extraction may be reused
+    private final Registry registry = new Registry();
+
+    /**
+     * Constructor.
+     * 
+     * @param directory
+     *            - the two-phase {@link LuceneDirectory} to enrich
+     */
+    protected IndexEnricher(LuceneDirectory directory) {
+	this.directory = directory;
+    }
+
+    @Override
+    public void run() {
+	System.out.println("[info] IndexEnricher has been started.");
+
+	ExecutorService executor = Executors
+		.newFixedThreadPool(this.numWorkers);
+	long numUncommitted = 0;
+	long numEnriched = 0;
+	long lastCommit = System.currentTimeMillis();
+	try {
+	    while (!Thread.currentThread().isInterrupted()) {
+		List<File> files = this.directory.getPendingFiles(this.numWorkers
+			* BATCH_SIZE_PER_WORKER);
+		int n = 0;
+		if (!files.isEmpty()) {
+		    n = this.directory.enrichDocuments(this.extract(executor,
+			    files));
+		    numUncommitted += n;
+		}
+
+		long now = System.currentTimeMillis();
+		long maxDocuments = Checkpoint.DOCUMENTS.get();
+		long maxMillis = Checkpoint.INTERVAL_MILLIS.get();
+		boolean checkpoint = files.isEmpty()
+			|| ((maxDocuments > 0) && (numUncommitted >= maxDocuments))
+			|| ((maxMillis > 0) && ((now - lastCommit) >= maxMillis));
+		if ((numUncommitted > 0) && checkpoint) {
+		    this.directory.commitChanges();
+		    numEnriched += numUncommitted;
+		    numUncommitted = 0;
+		    lastCommit = now;
+		}
+		if (files.isEmpty() && (numEnriched > 0)) {
+		    System.out.println("[info] IndexEnricher extracted the "
+			    + "content of " + numEnriched + " file(s).");
+		    numEnriched = 0;
+		}
+
+		// wait for new files, or for a reason to fail no longer
+		if (n == 0) {
+		    Thread.sleep(IDLE_MILLIS);
+		}
+	    }
+	} catch (InterruptedException ignore) {
+	} finally {
+	    executor.shutdownNow();
+	}
+
+	System.out.println("[info] IndexEnricher has been stopped.");
+    }
+
+    /**
+     * This method creates the complete {@link Document} representations of
+     * files in parallel.
+     * 
+     * @param executor
+     *            - the {@link ExecutorService} running the extractions
+     * @param files
+     *            - the files to extract
+     * @return a Map from the path keys of the files to their Document
+     *         representation or null, if a file vanished. Files, whose
+     *         extraction failed, are represented without their content.
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private Map<String, Document> extract(ExecutorService executor,
+	    List<File> files) throws InterruptedException {
+	List<Future<Document>> futures = new ArrayList<Future<Document>>(
+		files.size());
+	for (final File file : files) {
+	    futures.add(executor.submit(new Callable<Document>() {
+		@Override
+		public Document call() throws InterruptedException {
+		    if (!file.isFile()) {
+			return null;
+		    }
+		    String fingerprint = ContentFingerprint
+			    .getFingerprint(file);
+		    try {
+			ExtractionResult extraction = ExtractionService.extract(
+				file, IndexEnricher.this.getCopies(fingerprint));
+			IndexEnricher.this.registry.register(fingerprint, file);
+			return LuceneDirectoryUtility.getDocument(file,
+				extraction, fingerprint);
+		    } catch (IOException ignore) {
+			// index the file without its content
+		    } catch (RuntimeException ignore) {
+			// A single broken file must not stop the enricher.
+		    }
+		    return LuceneDirectoryUtility.getDocument(file, null,
+			    fingerprint);
+		}
+	    }));
+	}
+
+	Map<String, Document> resultMap = new HashMap<String, Document>();
+	try {
+	    for (int i = 0; i < files.size(); i++) {
+		File file = files.get(i);
+		Document doc;
+		try {
+		    doc = futures.get(i).get();
+		} catch (ExecutionException e) {
+		    // Index the file without its content. Otherwise it stays
+		    // pending and is fetched again with every batch.
+		    System.err.println("Cannot extract the content of <" + file
+			    + ">. Reason: " + e.getCause());
+		    doc = LuceneDirectoryUtility.getDocument(file, null, null);
+		}
+		resultMap.put(LuceneDirectoryUtility.getPathKey(file), doc);
+	    }
+	} finally {
+	    for (Future<Document> future : futures) {
+		future.cancel(true);
+	    }
+	}
+
+	return resultMap;
+    }
+
+    /**
+     * This method returns files, that may be copies of a file, because they
+     * have been enriched before or are present in the index with the same
+     * {@link ContentFingerprint}.
+     * 
+     * @param fingerprint
+     *            - (optional, null allowed) the fingerprint of a file
+     * @return a List of possible copies, empty if fingerprint is null
+     */
+    private List<File> getCopies(String fingerprint) {
+	List<File> resultList = new ArrayList<File>();
+	if (fingerprint == null) {
+	    return resultList;
+	}
+
+	File copy = this.registry.get(fingerprint);
+	if (copy != null) {
+	    resultList.add(copy);
+	}
+	resultList.addAll(this.directory.getFilesByFingerprint(fingerprint,
+		ContentFingerprint.MAX_COPIES));
+
+	return resultList;
+    }
+}
@@ -10,13 +10,15 @@ import de.mround.searchbooster.api.xml.SearchBoosterXML.StatusCodeID;
 
 /**
  * An IndexInfoTask collects information about the content of the persistent
- * index.
+ * index. The status message reports the statistics of the
+ * {@link ResultCache}, too.
  * 
  * @author Kai Torben Ohlhus
  */
 public final class IndexInfoTask implements Runnable {
     private final BlockingQueue<Document> responseQueue;
     private final LuceneDirectory persistent;
+    private final ResultCache resultCache;
 
     /**
      * Constructor.
@@ -25,11 +27,15 @@ public final class IndexInfoTask implements Runnable {
      *            - a {@link BlockingQueue} to put the response messages in
      * @param persistent
      *            - a reference to the persistent index
+     * @param resultCache
+     *            - (optional, null allowed) the cache of the pages of recent
+     *            searches
      */
     protected IndexInfoTask(BlockingQueue<Document> responseQueue,
-	    LuceneDirectory persistent) {
+	    LuceneDirectory persistent, ResultCache resultCache) {
 	this.responseQueue = responseQueue;
 	this.persistent = persistent;
+	this.resultCache = resultCache;
     }
 
     @Override
@@ -42,16 +48,20 @@ public final class IndexInfoTask implements Runnable {
 	try {
 	    Map<String, Integer> contentMap = this.persistent
 		    .getIndexContentMap();
+	    String cacheStatus = "";
+	    if (this.resultCache != null) {
+		cacheStatus = " Result cache: " + this.resultCache + ".";
+	    }
 
 	    if (contentMap.isEmpty()) {
 		response = ResponseIndexContentBuilder.create(
 			StatusCodeID.SUCCESSFUL,
-			"The persistent index is empty.");
+			"The persistent index is empty." + cacheStatus);
 	    } else {
 		response = ResponseIndexContentBuilder.create(
 			StatusCodeID.SUCCESSFUL,
 			"The persistent index contains " + contentMap.size()
-				+ " path(s).");
+				+ " path(s)." + cacheStatus);
 		for (String url : contentMap.keySet()) {
 		    ResponseIndexContentBuilder.appendPath(response, url,
 			    contentMap.get(url).intValue());
@@ -0,0 +1,927 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import de.mround.searchbooster.api.Configuration.Checkpoint;
+import de.mround.searchbooster.api.Configuration.Index;
+import de.mround.searchbooster.api.ContentFingerprint.Registry;
+import de.mround.searchbooster.api.DirectoryWalker.DirectoryVisitor;
+import de.mround.searchbooster.api.ExtractionService.ExtractionResult;
+import de.mround.searchbooster.api.LuceneDirectory.IndexResult;
+
+/**
+ * IndexPipeline performs the indexing of a content map in three stages, which
+ * are connected by bounded queues:
+ * <ol>
+ * <li>a crawler, that walks the directory trees in parallel using a
+ * {@link DirectoryWalker} and emits readable files,</li>
+ * <li>a pool of extraction workers, that create a {@link Document} for each
+ * file using Tika, and</li>
+ * <li>a writer, that adds the Documents to the {@link LuceneDirectory}.</li>
+ * </ol>
+ * If the content is not extracted, e.g. in the first pass of a two-phase
+ * indexing, the workers create Documents marked as
+ * {@link Index#PENDING_ENRICHMENT} from the file system information only, as
+ * long as no cached extraction is available. The {@link IndexEnricher}
+ * replaces them later on.<br />
+ * <br />
+ * A full queue blocks the stage filling it, so the crawler never runs far ahead
+ * of the extraction workers and only a few extracted Documents are kept in
+ * memory at the same time.<br />
+ * <br />
+ * Indexing is incremental: the crawler compares the size and the modification
+ * time of each file with the values stored in the index. Unchanged files are
+ * skipped, changed files are replaced and files or directories, that vanished
+ * from the file system, are deleted from the index.<br />
+ * <br />
+ * The writer commits a checkpoint every {@link Checkpoint#DOCUMENTS} updates
+ * or {@link Checkpoint#INTERVAL_MILLIS}, whatever comes first, and when the
+ * pipeline is cancelled. The pipeline keeps track of the directories, whose
+ * files have all been written, and of the roots, whose crawl has been
+ * completed. Both are recorded in the {@link CrawlFrontier} after each
+ * checkpoint, so a cancelled or crashed crawl can be resumed. A root only
+ * counts as complete, i.e. gets its meta information in the index, when all
+ * of its files have been written.<br />
+ * <br />
+ * The writer stage runs in the thread calling {@link #run(Map, Map)}.
+ * Interrupting this thread cancels the whole pipeline.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class IndexPipeline {
+    // Constants
+    private static final int FILE_QUEUE_CAPACITY_PER_WORKER = 64;
+    private static final int UPDATE_QUEUE_CAPACITY_PER_WORKER = 4;
+    private static final long CHECKPOINT_POLL_MILLIS = 1000;
+    private static final FieldSelector INDEXED_FILE_SELECTOR = new MapFieldSelector(
+	    new String[] { Index.FILE_NAME, Index.PATH_KEY, Index.FILE_SIZE,
+		    Index.LAST_MODIFIED_MILLIS, Index.SCHEMA_VERSION });
+    // Markers for the end of a stage's output
+    private static final IndexItem END_OF_FILES = new IndexItem(null, null,
+	    null);
+    private static final IndexUpdate END_OF_UPDATES = new IndexUpdate(null,
+	    null, null, null, null);
+    // Members
+    private final LuceneDirectory directory;
+    private final IndexReader reader;
+    private final Map<String, Integer> indexRoots;
+    private final CrawlFrontier frontier;
+    private final boolean extractContent;
+    private final int numWorkers;
+    private final BlockingQueue<IndexItem> fileQueue;
+    private final BlockingQueue<IndexUpdate> updateQueue;
+    private final AtomicLong numUnchanged = new AtomicLong();
+    private final AtomicLong numDeleted = new AtomicLong();
+    private final AtomicLong numIndexErrors = new AtomicLong();
+    private final AtomicLong numLimitExceeded = new AtomicLong();
+    // files seen during this run, whose extraction may be reused
+    private final Registry registry = new Registry();
+    // number of unwritten updates of each directory and root
+    private final ConcurrentMap<String, AtomicInteger> directoryCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, AtomicInteger> rootCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    // directories and roots, whose updates have all been written
+    private final Queue<String> writtenDirectories = new ConcurrentLinkedQueue<String>();
+    private final Queue<String> writtenRoots = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * IndexItem is a private helper class describing a file, that will be
+     * extracted by the extraction stage.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class IndexItem {
+	private final File file;
+	private final String dir;
+	private final String root;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param file
+	 *            - the file to extract
+	 * @param dir
+	 *            - (optional, null allowed) the canonical path of the
+	 *            crawled directory containing the file
+	 * @param root
+	 *            - the canonical path of the crawled root containing the
+	 *            file
+	 */
+	private IndexItem(File file, String dir, String root) {
+	    this.file = file;
+	    this.dir = dir;
+	    this.root = root;
+	}
+    }
+
+    /**
+     * IndexUpdate is a private helper class describing a single change of the
+     * index, that will be performed by the writer stage.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class IndexUpdate {
+	private final Term term;
+	private final Query deleteQuery;
+	private final Document doc;
+	private final String dir;
+	private final String root;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param term
+	 *            - (optional, null allowed) all documents containing this
+	 *            term will be replaced by doc or deleted if doc is null
+	 * @param deleteQuery
+	 *            - (optional, null allowed) all documents matching this
+	 *            query will be deleted
+	 * @param doc
+	 *            - (optional, null allowed) the document to add
+	 * @param dir
+	 *            - (optional, null allowed) the canonical path of the
+	 *            crawled directory, this update belongs to
+	 * @param root
+	 *            - (optional, null allowed) the canonical path of the
+	 *            crawled root, this update belongs to
+	 */
+	private IndexUpdate(Term term, Query deleteQuery, Document doc,
+		String dir, String root) {
+	    this.term = term;
+	    this.deleteQuery = deleteQuery;
+	    this.doc = doc;
+	    this.dir = dir;
+	    this.root = root;
+	}
+    }
+
+    /**
+     * IndexedFile is a private helper class holding the stored information
+     * about a file, that is already present in the index.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static class IndexedFile {
+	private final boolean hasPathKey;
+	private final String size;
+	private final String lastModified;
+	private final String schemaVersion;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param doc
+	 *            - the stored fields of an indexed file
+	 */
+	private IndexedFile(Document doc) {
+	    this.hasPathKey = (doc.get(Index.PATH_KEY) != null);
+	    this.size = doc.get(Index.FILE_SIZE);
+	    this.lastModified = doc.get(Index.LAST_MODIFIED_MILLIS);
+	    this.schemaVersion = doc.get(Index.SCHEMA_VERSION);
+	}
+
+	/**
+	 * This method checks, if the file has not changed since it was
+	 * indexed.
+	 * 
+	 * @param f
+	 *            - the file in the file system
+	 * @return true if the file has not changed since it was indexed
+	 */
+	private boolean isUpToDate(File f) {
+	    return this.hasPathKey
+		    && Long.toString(f.length()).equals(this.size)
+		    && Long.toString(f.lastModified())
+			    .equals(this.lastModified)
+		    && Integer.toString(Index.SCHEMA_VERSION_VALUE).equals(
+			    this.schemaVersion);
+	}
+    }
+
+    /**
+     * Crawler is the first stage of the pipeline. It walks all directories of
+     * a content map in parallel, compares their contents with the index and
+     * puts each new or changed file into the file queue. Before, it removes
+     * the files of abandoned roots from the index.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private class Crawler implements Runnable, DirectoryVisitor {
+	private final Map<String, Integer> contentMap;
+	private final Map<String, Integer> abandonedRoots;
+	private final Set<String> visited = Collections
+		.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// directories, whose subtrees are kept, since they cannot be listed
+	private final Set<String> unlistable = Collections
+		.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private volatile String root = null;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param contentMap
+	 *            - a Map of items to be crawled
+	 * @param abandonedRoots
+	 *            - a Map of roots to be removed from the index
+	 */
+	private Crawler(Map<String, Integer> contentMap,
+		Map<String, Integer> abandonedRoots) {
+	    this.contentMap = contentMap;
+	    this.abandonedRoots = abandonedRoots;
+	}
+
+	@Override
+	public void run() {
+	    boolean interrupted = false;
+	    DirectoryWalker walker = new DirectoryWalker(
+		    IndexPipeline.this.numWorkers, this);
+	    try {
+		// abandoned roots stay pending, until the whole run has been
+		// completed, so their deletions are not tracked
+		for (String s : this.abandonedRoots.keySet()) {
+		    this.deleteUncoveredDirectories(
+			    Utility.canonicalizePath(s),
+			    (this.abandonedRoots.get(s).intValue() != 0),
+			    Collections.<String> emptySet(),
+			    Collections.<String> emptySet(), null);
+		}
+
+		for (String s : this.contentMap.keySet()) {
+		    this.root = Utility.canonicalizePath(s);
+		    int recursionDepth = this.contentMap.get(s).intValue();
+		    this.visited.clear();
+		    this.unlistable.clear();
+		    acquire(IndexPipeline.this.rootCounts, this.root);
+		    File file = new File(s);
+		    if (file.isDirectory()) {
+			walker.walk(file, (recursionDepth != 0));
+		    } else if (file.isFile() && file.canRead()) {
+			acquire(IndexPipeline.this.rootCounts, this.root);
+			IndexPipeline.this.fileQueue.put(new IndexItem(file,
+				null, this.root));
+		    } else {
+			IndexPipeline.this.numIndexErrors.incrementAndGet();
+		    }
+		    if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedException();
+		    }
+		    // flat items own no directories below them
+		    if (recursionDepth != 0) {
+			this.deleteUncoveredDirectories(this.root, true,
+				this.visited, this.unlistable, this.root);
+		    }
+		    release(IndexPipeline.this.rootCounts,
+			    IndexPipeline.this.writtenRoots, this.root);
+		}
+	    } catch (InterruptedException e) {
+		interrupted = true;
+	    } finally {
+		// the walker's threads serve all roots of the run
+		walker.close();
+		// tell every extraction worker, that there is nothing left
+		if (!interrupted) {
+		    try {
+			for (int i = 0; i < IndexPipeline.this.numWorkers; i++) {
+			    IndexPipeline.this.fileQueue.put(END_OF_FILES);
+			}
+		    } catch (InterruptedException ignore) {
+		    }
+		}
+	    }
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void visitDirectory(String dir, List<File> files)
+		throws InterruptedException {
+	    this.visited.add(dir);
+	    // finished by a previous run of a resumed crawl
+	    if ((IndexPipeline.this.frontier != null)
+		    && IndexPipeline.this.frontier.isDone(dir)) {
+		return;
+	    }
+	    acquire(IndexPipeline.this.directoryCounts, dir);
+	    try {
+		this.compareDirectory(dir, files);
+	    } finally {
+		release(IndexPipeline.this.directoryCounts,
+			IndexPipeline.this.writtenDirectories, dir);
+	    }
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void visitUnlistableDirectory(String dir) {
+	    // the documents of the directory and below are kept
+	    this.unlistable.add(dir);
+	    IndexPipeline.this.numIndexErrors.incrementAndGet();
+	}
+
+	/**
+	 * This method compares the files of a directory with the index. New and
+	 * changed files are put into the file queue, vanished files will be
+	 * deleted from the index.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory
+	 * @param subFiles
+	 *            - the current entries of the directory, that are no
+	 *            directories
+	 * @throws InterruptedException
+	 *             if the currently running Thread was interrupted
+	 */
+	private void compareDirectory(String dir, List<File> subFiles)
+		throws InterruptedException {
+	    Map<String, IndexedFile> indexedFiles = getIndexedFiles(dir);
+
+	    for (File subFile : subFiles) {
+		// the walker passes no directories, so the entry is not
+		// examined again before its modification time is compared
+		IndexedFile indexed = indexedFiles.remove(subFile.getName());
+		if ((indexed != null) && indexed.isUpToDate(subFile)) {
+		    IndexPipeline.this.numUnchanged.incrementAndGet();
+		} else if (!subFile.canRead()) {
+		    // readability is only checked for files, that have to be
+		    // read
+		    IndexPipeline.this.numIndexErrors.incrementAndGet();
+		    if (indexed != null) {
+			this.deleteFile(dir, subFile.getName(), indexed);
+			IndexPipeline.this.numDeleted.incrementAndGet();
+		    }
+		} else {
+		    if ((indexed != null) && !indexed.hasPathKey) {
+			// documents of older versions can only be found by
+			// their location
+			this.deleteFile(dir, subFile.getName(), indexed);
+		    }
+		    this.acquireFor(dir);
+		    IndexPipeline.this.fileQueue.put(new IndexItem(subFile, dir,
+			    this.root));
+		}
+	    }
+
+	    // all remaining files vanished from the file system
+	    for (String name : indexedFiles.keySet()) {
+		this.deleteFile(dir, name, indexedFiles.get(name));
+		IndexPipeline.this.numDeleted.incrementAndGet();
+	    }
+	}
+
+	/**
+	 * This method hands the deletion of an indexed file over to the writer
+	 * stage.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory containing the file
+	 * @param name
+	 *            - the name of the file
+	 * @param indexed
+	 *            - the stored information about the file
+	 * @throws InterruptedException
+	 *             if the currently running Thread was interrupted
+	 */
+	private void deleteFile(String dir, String name, IndexedFile indexed)
+		throws InterruptedException {
+	    this.acquireFor(dir);
+	    if (indexed.hasPathKey) {
+		IndexPipeline.this.updateQueue.put(new IndexUpdate(new Term(
+			Index.PATH_KEY, dir + name), null, null, dir, this.root));
+	    } else {
+		BooleanQuery q = new BooleanQuery();
+		q.add(new TermQuery(new Term(Index.URL, dir)), Occur.MUST);
+		q.add(new TermQuery(new Term(Index.FILE_NAME, name)),
+			Occur.MUST);
+		IndexPipeline.this.updateQueue.put(new IndexUpdate(null, q,
+			null, dir, this.root));
+	    }
+	}
+
+	/**
+	 * This method registers an update of a directory of the current root,
+	 * that has to be written before the directory and the root are
+	 * complete.
+	 * 
+	 * @param dir
+	 *            - the canonical path of the directory
+	 */
+	private void acquireFor(String dir) {
+	    acquire(IndexPipeline.this.directoryCounts, dir);
+	    acquire(IndexPipeline.this.rootCounts, this.root);
+	}
+
+	/**
+	 * This method deletes all directories below root from the index, that
+	 * have not been visited by the crawler and that are not covered by
+	 * another root of the index. Directories below an unlistable one are
+	 * kept, since the crawler could not tell, whether they still exist.
+	 * 
+	 * @param root
+	 *            - the canonical path of the top directory
+	 * @param recursive
+	 *            - false if only root itself should be deleted
+	 * @param visited
+	 *            - the canonical paths of all visited directories
+	 * @param unlistable
+	 *            - the canonical paths of all directories, that could not
+	 *            be listed
+	 * @param crawledRoot
+	 *            - (optional, null allowed) the canonical path of the
+	 *            crawled root, that does not protect its own directories
+	 * @throws InterruptedException
+	 *             if the currently running Thread was interrupted
+	 */
+	private void deleteUncoveredDirectories(String root, boolean recursive,
+		Set<String> visited, Set<String> unlistable, String crawledRoot)
+		throws InterruptedException {
+	    if (IndexPipeline.this.reader == null) {
+		return;
+	    }
+
+	    TermEnum terms = null;
+	    try {
+		terms = IndexPipeline.this.reader.terms(new Term(Index.URL,
+			root));
+		do {
+		    Term t = terms.term();
+		    if ((t == null) || !t.field().equals(Index.URL)
+			    || !t.text().startsWith(root)
+			    || (!recursive && !t.text().equals(root))) {
+			break;
+		    }
+		    if (!visited.contains(t.text())
+			    && !isBelow(unlistable, t.text())
+			    && !isCoveredByOtherRoot(crawledRoot, t.text())) {
+			IndexPipeline.this.numDeleted.addAndGet(terms.docFreq());
+			acquire(IndexPipeline.this.rootCounts, this.root);
+			IndexPipeline.this.updateQueue.put(new IndexUpdate(t,
+				null, null, null, this.root));
+		    }
+		} while (terms.next());
+	    } catch (IOException ignore) {
+		// vanished directories remain in the index
+	    } finally {
+		if (terms != null) {
+		    try {
+			terms.close();
+		    } catch (IOException ignore) {
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Extractor is the second stage of the pipeline. Several Extractors run
+     * concurrently, each taking files from the file queue and putting their
+     * {@link Document} representation into the update queue.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private class Extractor implements Runnable {
+	@Override
+	public void run() {
+	    boolean interrupted = false;
+	    try {
+		IndexItem item = IndexPipeline.this.fileQueue.take();
+		while (item != END_OF_FILES) {
+		    Document doc = null;
+		    try {
+			ExtractionResult extraction = null;
+			String fingerprint = null;
+			if (IndexPipeline.this.extractContent) {
+			    fingerprint = ContentFingerprint
+				    .getFingerprint(item.file);
+			    try {
+				extraction = ExtractionService.extract(
+					item.file, IndexPipeline.this
+						.getCopies(fingerprint));
+			    } catch (IOException ignore) {
+				// index the file without its content
+			    }
+			} else {
+			    extraction = ExtractionService.getCached(item.file);
+			    if (extraction != null) {
+				fingerprint = ContentFingerprint
+					.getFingerprint(item.file);
+			    }
+			}
+			IndexPipeline.this.registry.register(fingerprint,
+				item.file);
+			if ((extraction != null) && extraction.isLimitExceeded()) {
+			    IndexPipeline.this.numLimitExceeded
+				    .incrementAndGet();
+			}
+			if ((extraction == null)
+				&& !IndexPipeline.this.extractContent) {
+			    doc = LuceneDirectoryUtility
+				    .getPendingDocument(item.file);
+			} else {
+			    doc = LuceneDirectoryUtility.getDocument(item.file,
+				    extraction, fingerprint);
+			}
+		    } catch (RuntimeException ignore) {
+			// A single broken file must not stop the pipeline.
+		    }
+		    if (doc != null) {
+			IndexPipeline.this.updateQueue.put(new IndexUpdate(
+				new Term(Index.PATH_KEY, doc
+					.get(Index.PATH_KEY)), null, doc,
+				item.dir, item.root));
+		    } else {
+			IndexPipeline.this.numIndexErrors.incrementAndGet();
+			// nothing to write, but the item has been handled
+			IndexPipeline.this.updateQueue.put(new IndexUpdate(null,
+				null, null, item.dir, item.root));
+		    }
+		    item = IndexPipeline.this.fileQueue.take();
+		}
+	    } catch (InterruptedException e) {
+		interrupted = true;
+	    } finally {
+		// tell the writer, that this worker has finished
+		if (!interrupted) {
+		    try {
+			IndexPipeline.this.updateQueue.put(END_OF_UPDATES);
+		    } catch (InterruptedException ignore) {
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param directory
+     *            - the {@link LuceneDirectory} to write the Documents to. Its
+     *            IndexWriter has to be initialized.
+     * @param reader
+     *            - (optional, null allowed) an {@link IndexReader} reflecting
+     *            the current state of the index including uncommitted
+     *            deletions. If reader is null, all files are treated as new.
+     * @param indexRoots
+     *            - all roots of the index after this run, used to protect
+     *            directories of other roots from being deleted
+     * @param frontier
+     *            - (optional, null allowed) the {@link CrawlFrontier}
+     *            recording the progress of this run. If frontier is null, no
+     *            progress is recorded and completed roots get no meta
+     *            information, e.g. when roots already present in the index are
+     *            updated.
+     * @param extractContent
+     *            - false if the content should be extracted later on by the
+     *            {@link IndexEnricher}
+     * @param numWorkers
+     *            - the number of concurrent extraction workers
+     */
+    protected IndexPipeline(LuceneDirectory directory, IndexReader reader,
+	    Map<String, Integer> indexRoots, CrawlFrontier frontier,
+	    boolean extractContent, int numWorkers) {
+	this.directory = directory;
+	this.reader = reader;
+	this.indexRoots = indexRoots;
+	this.frontier = frontier;
+	this.extractContent = extractContent;
+	this.numWorkers = Math.max(1, numWorkers);
+	this.fileQueue = new ArrayBlockingQueue<IndexItem>(this.numWorkers
+		* FILE_QUEUE_CAPACITY_PER_WORKER);
+	this.updateQueue = new ArrayBlockingQueue<IndexUpdate>(this.numWorkers
+		* UPDATE_QUEUE_CAPACITY_PER_WORKER);
+    }
+
+    /**
+     * This method returns the stored information of all files of a directory,
+     * that are present in the index.
+     * 
+     * @param dir
+     *            - the canonical path of a directory
+     * @return a Map from file names to their stored information
+     */
+    private Map<String, IndexedFile> getIndexedFiles(String dir) {
+	Map<String, IndexedFile> resultMap = new HashMap<String, IndexedFile>();
+	if (this.reader == null) {
+	    return resultMap;
+	}
+
+	TermDocs termDocs = null;
+	try {
+	    termDocs = this.reader.termDocs(new Term(Index.URL, dir));
+	    while (termDocs.next()) {
+		Document d = this.reader.document(termDocs.doc(),
+			INDEXED_FILE_SELECTOR);
+		resultMap.put(d.get(Index.FILE_NAME), new IndexedFile(d));
+	    }
+	} catch (IOException ignore) {
+	    // treat the remaining files as new
+	} finally {
+	    if (termDocs != null) {
+		try {
+		    termDocs.close();
+		} catch (IOException ignore) {
+		}
+	    }
+	}
+
+	return resultMap;
+    }
+
+    /**
+     * This method returns files, that may be copies of a file, because they
+     * have been seen during this run or are present in the index with the same
+     * {@link ContentFingerprint}.
+     * 
+     * @param fingerprint
+     *            - (optional, null allowed) the fingerprint of a file
+     * @return a List of possible copies, empty if fingerprint is null
+     */
+    private List<File> getCopies(String fingerprint) {
+	List<File> resultList = new ArrayList<File>();
+	if (fingerprint == null) {
+	    return resultList;
+	}
+
+	File copy = this.registry.get(fingerprint);
+	if (copy != null) {
+	    resultList.add(copy);
+	}
+	if (this.reader != null) {
+	    resultList.addAll(LuceneDirectoryUtility.getFilesByFingerprint(
+		    this.reader, fingerprint, ContentFingerprint.MAX_COPIES));
+	}
+
+	return resultList;
+    }
+
+    /**
+     * This method registers an unwritten update of a directory or root.
+     * 
+     * @param counts
+     *            - the number of unwritten updates by directory or root
+     * @param key
+     *            - (optional, null allowed) the canonical path of the
+     *            directory or root
+     */
+    private static void acquire(ConcurrentMap<String, AtomicInteger> counts,
+	    String key) {
+	if (key == null) {
+	    return;
+	}
+	AtomicInteger count = counts.get(key);
+	if (count == null) {
+	    counts.putIfAbsent(key, new AtomicInteger());
+	    count = counts.get(key);
+	}
+	count.incrementAndGet();
+    }
+
+    /**
+     * This method unregisters a written update of a directory or root. When
+     * no unwritten update is left, key is added to the written ones.
+     * 
+     * @param counts
+     *            - the number of unwritten updates by directory or root
+     * @param written
+     *            - the directories or roots, whose updates have all been
+     *            written
+     * @param key
+     *            - (optional, null allowed) the canonical path of the
+     *            directory or root
+     */
+    private static void release(ConcurrentMap<String, AtomicInteger> counts,
+	    Queue<String> written, String key) {
+	if (key == null) {
+	    return;
+	}
+	AtomicInteger count = counts.get(key);
+	if ((count != null) && (count.decrementAndGet() == 0)) {
+	    counts.remove(key);
+	    written.add(key);
+	}
+    }
+
+    /**
+     * This method checks, if a directory is one of several directories or
+     * below one of them.
+     * 
+     * @param dirs
+     *            - the canonical paths of several directories
+     * @param dir
+     *            - the canonical path of a directory
+     * @return true if dir is contained in the tree of one of dirs
+     */
+    private static boolean isBelow(Set<String> dirs, String dir) {
+	for (String s : dirs) {
+	    // canonical paths end with a separator
+	    if (dir.startsWith(s)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * This method checks, if a directory is covered by a root of the index
+     * other than root.
+     * 
+     * @param root
+     *            - (optional, null allowed) the canonical path of the
+     *            currently crawled root
+     * @param dir
+     *            - the canonical path of a directory below root
+     * @return true if dir is covered by another root
+     */
+    private boolean isCoveredByOtherRoot(String root, String dir) {
+	for (String s : this.indexRoots.keySet()) {
+	    String other = Utility.canonicalizePath(s);
+	    if (other.equals(root)) {
+		continue;
+	    }
+	    if (other.equals(dir)
+		    || (Utility.isSubDirectory(other, dir) && (this.indexRoots
+			    .get(s).intValue() < 0))) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * This method indexes all items contained in the contentMap. For the
+     * format of the contentMap see
+     * {@link LuceneDirectory#addContentMapToIndex(Map)}. The crawler and the
+     * extraction workers run in their own threads, the writer stage runs in
+     * the calling thread. This method returns, when all stages have finished
+     * and the last checkpoint has been committed. If the currently running
+     * Thread is interrupted, a checkpoint is committed, too. An IndexPipeline
+     * instance can only be run once.
+     * 
+     * @param contentMap
+     *            - a Map of items to be added to the index
+     * @param abandonedRoots
+     *            - a Map of roots of an interrupted crawl, that are not
+     *            crawled again. Their files are removed from the index, as
+     *            long as they are not covered by another root of the index.
+     * @return indexing statistics
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected IndexResult run(Map<String, Integer> contentMap,
+	    Map<String, Integer> abandonedRoots) throws InterruptedException {
+	long start = System.currentTimeMillis();
+	long numIndexed = 0;
+
+	// recursion depth of the roots, that get meta information
+	Map<String, Integer> roots = new HashMap<String, Integer>();
+	for (String s : contentMap.keySet()) {
+	    roots.put(Utility.canonicalizePath(s), contentMap.get(s));
+	}
+
+	ExecutorService executor = Executors
+		.newFixedThreadPool(this.numWorkers + 1);
+	try {
+	    executor.execute(new Crawler(contentMap, abandonedRoots));
+	    for (int i = 0; i < this.numWorkers; i++) {
+		executor.execute(new Extractor());
+	    }
+
+	    // Writer stage: runs until every extraction worker has finished
+	    int numFinishedWorkers = 0;
+	    long numUpdates = 0;
+	    long lastCheckpoint = System.currentTimeMillis();
+	    while (numFinishedWorkers < this.numWorkers) {
+		IndexUpdate update = this.updateQueue.poll(
+			CHECKPOINT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+		if (update == END_OF_UPDATES) {
+		    numFinishedWorkers++;
+		} else if (update != null) {
+		    if (this.write(update)) {
+			numIndexed++;
+		    }
+		    release(this.directoryCounts, this.writtenDirectories,
+			    update.dir);
+		    release(this.rootCounts, this.writtenRoots, update.root);
+		    numUpdates++;
+		}
+
+		long now = System.currentTimeMillis();
+		long maxUpdates = Checkpoint.DOCUMENTS.get();
+		long maxMillis = Checkpoint.INTERVAL_MILLIS.get();
+		if (((maxUpdates > 0) && (numUpdates >= maxUpdates))
+			|| ((maxMillis > 0)
+				&& ((now - lastCheckpoint) >= maxMillis))) {
+		    this.checkpoint(roots);
+		    numUpdates = 0;
+		    lastCheckpoint = now;
+		}
+	    }
+	    this.checkpoint(roots);
+	} catch (InterruptedException e) {
+	    // keep everything written so far, the crawl resumes from here
+	    Thread.interrupted();
+	    this.checkpoint(roots);
+	    // keep the interrupt visible for the caller's checkpoints
+	    Thread.currentThread().interrupt();
+	    throw e;
+	} finally {
+	    // stops the crawler and all extraction workers, if still running
+	    executor.shutdownNow();
+	}
+
+	long end = System.currentTimeMillis();
+
+	return new IndexResult((end - start), numIndexed,
+		this.numUnchanged.get(), this.numDeleted.get(),
+		this.numIndexErrors.get(), this.numLimitExceeded.get());
+    }
+
+    /**
+     * This method performs a single update of the index.
+     * 
+     * @param update
+     *            - the update to perform
+     * @return true if a document has been added to the index
+     */
+    private boolean write(IndexUpdate update) {
+	if (update.deleteQuery != null) {
+	    this.directory.deleteFromIndex(update.deleteQuery);
+	}
+	if (update.doc == null) {
+	    if (update.term != null) {
+		this.directory.deleteFromIndex(new TermQuery(update.term));
+	    }
+	    return false;
+	}
+	if (this.directory.updateDocumentInIndex(update.term, update.doc)) {
+	    return true;
+	}
+	this.numIndexErrors.incrementAndGet();
+	return false;
+    }
+
+    /**
+     * This method commits all written updates to the index. Roots, whose
+     * updates have all been written, get their meta information before. The
+     * written directories and roots are recorded in the frontier afterwards.
+     * 
+     * @param roots
+     *            - the recursion depth of all crawled roots
+     */
+    private void checkpoint(Map<String, Integer> roots) {
+	List<String> completedRoots = new ArrayList<String>();
+	String root = this.writtenRoots.poll();
+	while (root != null) {
+	    // roots, that are only updated, keep their registration
+	    if (this.frontier != null) {
+		this.directory.putRoot(root, roots.get(root).intValue(),
+			System.currentTimeMillis());
+	    }
+	    completedRoots.add(root);
+	    root = this.writtenRoots.poll();
+	}
+	List<String> completedDirectories = new ArrayList<String>();
+	String dir = this.writtenDirectories.poll();
+	while (dir != null) {
+	    completedDirectories.add(dir);
+	    dir = this.writtenDirectories.poll();
+	}
+
+	this.directory.commitChanges();
+
+	if (this.frontier != null) {
+	    this.frontier.checkpoint(completedDirectories, completedRoots);
+	}
+    }
+}
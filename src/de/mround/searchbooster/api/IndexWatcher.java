@@ -0,0 +1,408 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import de.mround.searchbooster.api.Configuration.Watcher;
+import de.mround.searchbooster.api.LuceneDirectory.IndexResult;
+
+/**
+ * IndexWatcher keeps the recursive roots of a {@link LuceneDirectory} up to
+ * date between two index change requests.<br />
+ * <br />
+ * Java 6 provides no file system notifications, so the watcher polls the
+ * modification time of every directory below the recursive roots. Creating,
+ * deleting or renaming an entry changes the modification time of the
+ * containing directory. Changed directories are collected and indexed, when
+ * they did not change any more for {@link Watcher#DEBOUNCE_MILLIS}. All
+ * directories settled within one poll are indexed as one batch and committed
+ * together.<br />
+ * <br />
+ * To keep the memory bounded, at most {@link Watcher#MAX_DIRECTORIES}
+ * directories are polled individually. Directories beyond this limit and
+ * files modified in place, which do not change the modification time of their
+ * directory, are caught by an incremental rescan of each recursive root every
+ * {@link Watcher#RECONCILE_INTERVAL_MILLIS}.<br />
+ * <br />
+ * The watcher indexes by background crawls, which give way to index change
+ * requests and to closing the index. An aborted batch or rescan is repeated
+ * by a later poll.<br />
+ * <br />
+ * Interrupting the thread running the watcher stops it.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class IndexWatcher implements Runnable {
+    // Members
+    private final LuceneDirectory directory;
+    // recursive roots of the index and the time of their last rescan
+    private final Map<String, Long> roots = new HashMap<String, Long>();
+    // watched directories and their last seen modification time
+    private final Map<String, Long> watched = new HashMap<String, Long>();
+    // changed directories and the time their last change was seen
+    private final Map<String, Long> pending = new HashMap<String, Long>();
+    private boolean limitReached = false;
+
+    /**
+     * Constructor.
+     * 
+     * @param directory
+     *            - the {@link LuceneDirectory} to keep up to date
+     */
+    protected IndexWatcher(LuceneDirectory directory) {
+	this.directory = directory;
+    }
+
+    @Override
+    public void run() {
+	System.out.println("[info] IndexWatcher has been started.");
+
+	try {
+	    // the roots found on startup may have changed while nobody was
+	    // watching
+	    boolean startup = true;
+	    while (!Thread.currentThread().isInterrupted()) {
+		this.updateRoots(startup);
+		startup = false;
+		this.poll();
+		this.indexSettledDirectories();
+		this.reconcileRoot();
+
+		Thread.sleep(Math.max(1, Watcher.POLL_INTERVAL_MILLIS.get()));
+	    }
+	} catch (InterruptedException ignore) {
+	}
+
+	System.out.println("[info] IndexWatcher has been stopped.");
+    }
+
+    /**
+     * This method synchronizes the watched roots with the recursive roots of
+     * the index. Directories of new roots are registered, directories of
+     * removed roots are forgotten.
+     * 
+     * @param startup
+     *            - true if the roots are registered for the first time after
+     *            the start of the watcher. They are rescanned by the next
+     *            poll, all other new roots after
+     *            {@link Watcher#RECONCILE_INTERVAL_MILLIS}.
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void updateRoots(boolean startup) throws InterruptedException {
+	Map<String, Integer> contentMap = this.directory.getIndexContentMap();
+
+	// forget removed roots
+	boolean removed = false;
+	Iterator<String> it = this.roots.keySet().iterator();
+	while (it.hasNext()) {
+	    String root = it.next();
+	    Integer recursionDepth = contentMap.get(root);
+	    if ((recursionDepth == null) || (recursionDepth.intValue() >= 0)) {
+		it.remove();
+		removed = true;
+	    }
+	}
+	if (removed) {
+	    this.forgetUncoveredDirectories();
+	}
+
+	// register new roots, that were indexed just now
+	for (String s : contentMap.keySet()) {
+	    if (contentMap.get(s).intValue() >= 0) {
+		continue;
+	    }
+	    String root = Utility.canonicalizePath(s);
+	    if (!this.roots.containsKey(root)) {
+		this.roots.put(root,
+			Long.valueOf(startup ? 0 : System.currentTimeMillis()));
+		this.register(root);
+	    }
+	}
+    }
+
+    /**
+     * This method walks a directory tree and remembers the modification time
+     * of each directory, as long as {@link Watcher#MAX_DIRECTORIES} is not
+     * exceeded.
+     * 
+     * @param dir
+     *            - the canonical path of the tree's top directory
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void register(String dir) throws InterruptedException {
+	Stack<File> dirStack = new Stack<File>();
+	dirStack.push(new File(dir));
+
+	while (!dirStack.isEmpty()) {
+	    if (Thread.currentThread().isInterrupted()) {
+		throw new InterruptedException();
+	    }
+	    if (this.watched.size() >= Watcher.MAX_DIRECTORIES.get()) {
+		if (!this.limitReached) {
+		    this.limitReached = true;
+		    System.out.println("[info] IndexWatcher polls "
+			    + this.watched.size() + " directories at most. "
+			    + "Further changes are found by rescanning.");
+		}
+		return;
+	    }
+
+	    File file = dirStack.pop();
+	    if (!isRealDirectory(file)) {
+		continue;
+	    }
+	    String path = Utility.canonicalizePath(file.getAbsolutePath());
+	    // read the modification time before the listing, so changes
+	    // during the listing are seen by the next poll. Already watched
+	    // directories keep their time, but may have unwatched children.
+	    if (!this.watched.containsKey(path)) {
+		this.watched.put(path, Long.valueOf(file.lastModified()));
+	    }
+	    File[] subFiles = file.listFiles();
+	    if (subFiles != null) {
+		for (File subFile : subFiles) {
+		    if (subFile.isDirectory()) {
+			dirStack.push(subFile);
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * This method forgets all watched and pending directories, that are not
+     * located below a watched root any more.
+     */
+    private void forgetUncoveredDirectories() {
+	Iterator<String> it = this.watched.keySet().iterator();
+	while (it.hasNext()) {
+	    String dir = it.next();
+	    if (!this.isCovered(dir)) {
+		it.remove();
+	    }
+	}
+	it = this.pending.keySet().iterator();
+	while (it.hasNext()) {
+	    String dir = it.next();
+	    if (!this.isCovered(dir)) {
+		it.remove();
+	    }
+	}
+	this.limitReached = false;
+    }
+
+    /**
+     * This method checks, if a directory is a watched root or located below
+     * one.
+     * 
+     * @param dir
+     *            - the canonical path of a directory
+     * @return true if dir is covered by a watched root
+     */
+    private boolean isCovered(String dir) {
+	for (String root : this.roots.keySet()) {
+	    if (root.equals(dir) || Utility.isSubDirectory(root, dir)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * This method compares the modification time of all watched directories
+     * with the last seen one. Changed or vanished directories become pending.
+     * 
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void poll() throws InterruptedException {
+	long now = System.currentTimeMillis();
+	for (Map.Entry<String, Long> entry : this.watched.entrySet()) {
+	    if (Thread.currentThread().isInterrupted()) {
+		throw new InterruptedException();
+	    }
+	    // lastModified() returns 0, if the directory vanished
+	    long lastModified = new File(entry.getKey()).lastModified();
+	    if (lastModified != entry.getValue().longValue()) {
+		entry.setValue(Long.valueOf(lastModified));
+		this.pending.put(entry.getKey(), Long.valueOf(now));
+	    }
+	}
+    }
+
+    /**
+     * This method indexes all pending directories, that did not change for
+     * {@link Watcher#DEBOUNCE_MILLIS}, as one batch. Existing directories are
+     * compared flat with the index, new subdirectories and vanished
+     * directories recursively.
+     * 
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void indexSettledDirectories() throws InterruptedException {
+	long now = System.currentTimeMillis();
+	Map<String, Integer> batch = new HashMap<String, Integer>();
+	List<String> settled = new ArrayList<String>();
+	List<String> newDirectories = new ArrayList<String>();
+
+	Iterator<Map.Entry<String, Long>> it = this.pending.entrySet()
+		.iterator();
+	while (it.hasNext()) {
+	    Map.Entry<String, Long> entry = it.next();
+	    if ((now - entry.getValue().longValue()) < Watcher.DEBOUNCE_MILLIS
+		    .get()) {
+		continue;
+	    }
+	    it.remove();
+	    settled.add(entry.getKey());
+
+	    String dir = entry.getKey();
+	    File file = new File(dir);
+	    if (!isRealDirectory(file)) {
+		// removes everything below dir from the index
+		batch.put(dir, Integer.valueOf(-1));
+		this.forgetDirectory(dir);
+		continue;
+	    }
+	    batch.put(dir, Integer.valueOf(0));
+	    File[] subFiles = file.listFiles();
+	    if (subFiles == null) {
+		continue;
+	    }
+	    for (File subFile : subFiles) {
+		if (!isRealDirectory(subFile)) {
+		    continue;
+		}
+		String subDir = Utility.canonicalizePath(subFile
+			.getAbsolutePath());
+		if (!this.watched.containsKey(subDir)) {
+		    batch.put(subDir, Integer.valueOf(-1));
+		    newDirectories.add(subDir);
+		}
+	    }
+	}
+
+	if (batch.isEmpty()) {
+	    return;
+	}
+
+	// get the batch without directories, that will already be covered by
+	// recursive parent directories
+	Map<String, Integer> batchCopy = new HashMap<String, Integer>(batch);
+	for (String s1 : batchCopy.keySet()) {
+	    for (String s2 : batchCopy.keySet()) {
+		if (Utility.isSubDirectory(s2, s1)
+			&& (batchCopy.get(s2).intValue() < 0)) {
+		    batch.remove(s1);
+		    break;
+		}
+	    }
+	}
+
+	IndexResult indexResult = this.directory
+		.updateContentMapInBackground(batch);
+	if (indexResult == null) {
+	    // the new directories are found again by the next try
+	    for (String dir : settled) {
+		this.pending.put(dir, Long.valueOf(0));
+	    }
+	    return;
+	}
+	for (String dir : newDirectories) {
+	    this.register(dir);
+	}
+	System.out.println("[info] IndexWatcher updated " + batch.size()
+		+ " directory(s). " + indexResult);
+    }
+
+    /**
+     * This method forgets a vanished directory and all watched directories
+     * below it.
+     * 
+     * @param dir
+     *            - the canonical path of a directory
+     */
+    private void forgetDirectory(String dir) {
+	Iterator<String> it = this.watched.keySet().iterator();
+	while (it.hasNext()) {
+	    String s = it.next();
+	    if (s.equals(dir) || Utility.isSubDirectory(dir, s)) {
+		it.remove();
+		this.pending.remove(s);
+	    }
+	}
+	this.limitReached = false;
+    }
+
+    /**
+     * This method rescans the recursive root, whose last rescan is the oldest
+     * one, if it is older than {@link Watcher#RECONCILE_INTERVAL_MILLIS}. Only
+     * one root is rescanned per poll. Searches are not blocked meanwhile, see
+     * {@link LuceneDirectory#acquireIndexReader()}, and other crawls abort the
+     * rescan.
+     * 
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void reconcileRoot() throws InterruptedException {
+	String oldestRoot = null;
+	long oldestTime = Long.MAX_VALUE;
+	for (Map.Entry<String, Long> entry : this.roots.entrySet()) {
+	    if (entry.getValue().longValue() < oldestTime) {
+		oldestRoot = entry.getKey();
+		oldestTime = entry.getValue().longValue();
+	    }
+	}
+
+	long now = System.currentTimeMillis();
+	if ((oldestRoot == null)
+		|| ((now - oldestTime) < Watcher.RECONCILE_INTERVAL_MILLIS
+			.get())) {
+	    return;
+	}
+
+	Map<String, Integer> contentMap = new HashMap<String, Integer>();
+	contentMap.put(oldestRoot, Integer.valueOf(-1));
+	IndexResult indexResult = this.directory
+		.updateContentMapInBackground(contentMap);
+	if (indexResult == null) {
+	    // tried again by the next poll
+	    return;
+	}
+	this.roots.put(oldestRoot, Long.valueOf(now));
+	System.out.println("[info] IndexWatcher rescanned <" + oldestRoot
+		+ ">. " + indexResult);
+
+	// pick up directories, that could not be registered before
+	if (this.limitReached) {
+	    this.register(oldestRoot);
+	}
+    }
+
+    /**
+     * This method checks, if a file is a directory and no symbolic link.
+     * Following symbolic links might cause loops.
+     * 
+     * @param file
+     *            - a file
+     * @return true if file is a directory and no symbolic link
+     */
+    private static boolean isRealDirectory(File file) {
+	if (!file.isDirectory()) {
+	    return false;
+	}
+	try {
+	    return file.getAbsolutePath().equals(file.getCanonicalPath());
+	} catch (IOException ignore) {
+	    return false;
+	}
+    }
+}
@@ -6,29 +6,46 @@ import static de.mround.searchbooster.api.Configuration.Index.META_RECURSIVE;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexFileNameFilter;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TotalHitCountCollector;
 import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.store.SimpleFSDirectory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.util.Constants;
+
+import de.mround.searchbooster.api.Configuration.Index;
+import de.mround.searchbooster.api.Configuration.Storage;
 
 /**
  * LuceneDirectory is an abstraction for an index realized with Lucene. Each
@@ -43,33 +60,108 @@ import org.apache.lucene.util.Version;
  * @author Kai Torben Ohlhus
  */
 public final class LuceneDirectory {
+    // Constants
+    private static final FieldSelector PENDING_SELECTOR = new MapFieldSelector(
+	    new String[] { Index.PATH_KEY, Index.PENDING_ENRICHMENT });
+    // folders of a rebuild, next to the index folder
+    private static final String SHADOW_SUFFIX = ".shadow";
+    private static final String BACKUP_SUFFIX = ".backup";
+    // time a rollback waits for a crawl to stop
+    private static final long DROP_WAIT_MILLIS = 1000;
+    // interval of aborting background crawls, while waiting for the crawl
+    // lock
+    private static final long ABORT_INTERVAL_MILLIS = 100;
+    // time a reader is pinned after its last pin, e.g. by a page of a cursor
+    private static final long PIN_MILLIS = 10 * 60 * 1000;
+    // maximum number of pinned readers per index
+    private static final int MAX_PINNED_READERS = 8;
     // Members
     private final String name;
-    private Directory directory = null;
+    private final boolean twoPhase;
+    private final AtomicReference<DirectoryType> directoryType;
+    private final AtomicLong ramMaxBytes;
+    // a failed migration from memory is not retried, until the index is
+    // closed
+    private boolean spillFailed = false;
+    // published for searches, which do not lock this index
+    private volatile Directory directory = null;
+    // guards the reader instead of this index, so searches never wait for a
+    // running crawl
+    private final Object searcherLock = new Object();
+    // holds one reference of its own, which is released, as soon as the
+    // reader is replaced
     private IndexReader indexReader = null;
-    private IndexSearcher indexSearcher = null;
+    // readers by their version, in the order of their last pin. Each holds
+    // one reference of its own. Guarded by the searcher lock.
+    private final Map<Long, PinnedReader> pinnedReaders = new LinkedHashMap<Long, PinnedReader>();
+    // serializes the crawls and the operations closing the index. It is
+    // always acquired before the monitor of this index, which is only held
+    // for single operations, so a crawl does not block the IndexEnricher.
+    private final ReentrantLock crawlLock = new ReentrantLock();
+    // the thread running a background crawl, which yields to all other
+    // holders of the crawl lock. Both are guarded by the monitor.
+    private Thread backgroundCrawler = null;
+    private boolean backgroundAborted = false;
     private IndexWriter indexWriter = null;
+    // the roots of the last commit, published for lookups without locking
+    private volatile RootRegistry committedRoots = null;
+    // the roots including the uncommitted changes
+    private RootRegistry roots = null;
 
     /**
-     * IndexJob is a private helper class to abstract an index job.
+     * DirectoryType is a helper class to choose the storage backend of an
+     * index folder.
+     * <ul>
+     * <li>MMAP - memory mapped files, concurrent reads without locking. Needs
+     * a large virtual address space, i.e. a 64-bit JVM.</li>
+     * <li>NIO - positional reads of a FileChannel, concurrent reads without
+     * locking, except on Windows, where the JVM synchronizes them.</li>
+     * <li>SIMPLE - a RandomAccessFile, all reads of a file are synchronized.</li>
+     * </ul>
      * 
      * @author Kai Torben Ohlhus
      */
-    private static class IndexJob {
-	private final File url;
-	private final int recursionDepth;
+    protected enum DirectoryType {
+	MMAP, NIO, SIMPLE;
 
 	/**
-	 * Constructor.
+	 * Returns the backend suitable for this platform.
+	 * 
+	 * @param longLived
+	 *            - true for an index, that is searched for a long time and
+	 *            profits from mapping its files, false for a short-lived
+	 *            index, that is cleared frequently
+	 * @return the backend suitable for this platform
+	 */
+	protected static DirectoryType getDefault(boolean longLived) {
+	    if (longLived && Constants.JRE_IS_64BIT
+		    && MMapDirectory.UNMAP_SUPPORTED) {
+		return MMAP;
+	    }
+	    return Constants.WINDOWS ? SIMPLE : NIO;
+	}
+
+	/**
+	 * Opens an index folder with this backend.
 	 * 
-	 * @param url
-	 *            - url of the item to index
-	 * @param recursionDepth
-	 *            - the recursion depth for this item
+	 * @param path
+	 *            - the index folder
+	 * @return the opened {@link Directory}
+	 * @throws IOException
+	 *             if the index folder cannot be opened
 	 */
-	private IndexJob(File url, int recursionDepth) {
-	    this.url = url;
-	    this.recursionDepth = recursionDepth;
+	protected Directory open(File path) throws IOException {
+	    switch (this) {
+	    case MMAP:
+		MMapDirectory mmap = new MMapDirectory(path);
+		// release the mappings on close, so the files can be deleted
+		mmap.setUseUnmap(MMapDirectory.UNMAP_SUPPORTED);
+		return mmap;
+	    case NIO:
+		return new NIOFSDirectory(path);
+	    default:
+		return new SimpleFSDirectory(path);
+	    }
 	}
     }
 
@@ -82,7 +174,10 @@ public final class LuceneDirectory {
     protected static class IndexResult {
 	private final long timeMillis;
 	private final long numIndexed;
+	private final long numUnchanged;
+	private final long numDeleted;
 	private final long numIndexErrors;
+	private final long numLimitExceeded;
 
 	/**
 	 * Constructor.
@@ -91,14 +186,27 @@ public final class LuceneDirectory {
 	 *            - time needed for indexing in milliseconds
 	 * @param numIndexed
 	 *            - number of successfully indexed items
+	 * @param numUnchanged
+	 *            - number of items skipped, because they did not change
+	 *            since they were indexed
+	 * @param numDeleted
+	 *            - number of items deleted, because they vanished from the
+	 *            file system
 	 * @param numIndexErrors
 	 *            - number of not successfully indexed items
+	 * @param numLimitExceeded
+	 *            - number of items indexed without their content, because
+	 *            an extraction limit was exceeded
 	 */
-	private IndexResult(long timeMillis, long numIndexed,
-		long numIndexErrors) {
+	protected IndexResult(long timeMillis, long numIndexed,
+		long numUnchanged, long numDeleted, long numIndexErrors,
+		long numLimitExceeded) {
 	    this.timeMillis = timeMillis;
 	    this.numIndexed = numIndexed;
+	    this.numUnchanged = numUnchanged;
+	    this.numDeleted = numDeleted;
 	    this.numIndexErrors = numIndexErrors;
+	    this.numLimitExceeded = numLimitExceeded;
 	}
 
 	/**
@@ -119,6 +227,26 @@ public final class LuceneDirectory {
 	    return this.numIndexed;
 	}
 
+	/**
+	 * Returns the number of items, that did not change since they were
+	 * indexed.
+	 * 
+	 * @return the number of unchanged items
+	 */
+	protected synchronized long getNumUnchanged() {
+	    return this.numUnchanged;
+	}
+
+	/**
+	 * Returns the number of items deleted from the index, because they
+	 * vanished from the file system.
+	 * 
+	 * @return the number of deleted items
+	 */
+	protected synchronized long getNumDeleted() {
+	    return this.numDeleted;
+	}
+
 	/**
 	 * Returns the number of not successfully indexed items.
 	 * 
@@ -127,6 +255,54 @@ public final class LuceneDirectory {
 	protected synchronized long getNumIndexErrors() {
 	    return this.numIndexErrors;
 	}
+
+	/**
+	 * Returns the number of items indexed without their content, because an
+	 * extraction limit was exceeded. These items are part of
+	 * {@link #getNumIndexed()}.
+	 * 
+	 * @return the number of items, that exceeded an extraction limit
+	 */
+	protected synchronized long getNumLimitExceeded() {
+	    return this.numLimitExceeded;
+	}
+
+	/**
+	 * Returns a short human readable summary of these statistics.
+	 * 
+	 * @return a short human readable summary of these statistics
+	 */
+	@Override
+	public synchronized String toString() {
+	    return "Indexing " + this.numIndexed + " files took "
+		    + this.timeMillis + " milliseconds. " + this.numUnchanged
+		    + " files were unchanged, " + this.numDeleted
+		    + " files were removed and " + this.numIndexErrors
+		    + " files were erroneous. " + this.numLimitExceeded
+		    + " files exceeded an extraction limit.";
+	}
+    }
+
+    /**
+     * PinnedReader is a helper class describing an {@link IndexReader}, that
+     * is kept open for later searches on the same state of the index.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static final class PinnedReader {
+	private final IndexReader reader;
+	// the time the reader is released at
+	private long expiryMillis;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param reader
+	 *            - a reader, whose reference is held by this pin
+	 */
+	private PinnedReader(IndexReader reader) {
+	    this.reader = reader;
+	}
     }
 
     /**
@@ -137,9 +313,57 @@ public final class LuceneDirectory {
      *            instance to maintain a Lucene index
      */
     protected LuceneDirectory(String name) {
+	this(name, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param name
+     *            - the name of the index folder which will be used by this
+     *            instance to maintain a Lucene index
+     * @param twoPhase
+     *            - true if files should be indexed by their file system
+     *            information first. Their content has to be extracted by an
+     *            {@link IndexEnricher} afterwards.
+     */
+    protected LuceneDirectory(String name, boolean twoPhase) {
+	this(name, twoPhase, Storage.PERSISTENT_DIRECTORY, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param name
+     *            - the name of the index folder which will be used by this
+     *            instance to maintain a Lucene index
+     * @param twoPhase
+     *            - true if files should be indexed by their file system
+     *            information first. Their content has to be extracted by an
+     *            {@link IndexEnricher} afterwards.
+     * @param directoryType
+     *            - the configured storage backend of the index folder. It is
+     *            read whenever the index folder is opened.
+     * @param ramMaxBytes
+     *            - (optional, null allowed) the configured memory budget of
+     *            the index. If it is positive and the index folder contains
+     *            no index, the index is built in memory and migrated to the
+     *            index folder, as soon as it grows past the budget.
+     */
+    protected LuceneDirectory(String name, boolean twoPhase,
+	    AtomicReference<DirectoryType> directoryType, AtomicLong ramMaxBytes) {
 	this.name = SEARCH_BOOSTER_ROOT + File.separator + name;
-	// Create required file system structure (if necessary)
+	this.twoPhase = twoPhase;
+	this.directoryType = directoryType;
+	this.ramMaxBytes = ramMaxBytes;
+	// Recover from a swap, that was interrupted between its renames
 	File f = new File(this.name);
+	File backup = new File(this.name + BACKUP_SUFFIX);
+	if (!f.exists() && backup.exists() && !backup.renameTo(f)) {
+	    System.err.println("Unable to restore the directory <" + this.name
+		    + "> from <" + backup + ">.");
+	}
+	// Create required file system structure (if necessary)
 	if (!f.exists()) {
 	    if (!f.mkdirs()) {
 		System.err.println("Unable to create the directory <"
@@ -156,20 +380,24 @@ public final class LuceneDirectory {
      * @throws IOException
      *             if a file in the directory cannot be deleted
      */
-    protected synchronized void clearAllFilesInDirectory() throws IOException {
-	this.close();
-
+    protected void clearAllFilesInDirectory() throws IOException {
 	int errors = 0;
-	File dir = new File(this.name);
-	if (dir.canRead() && dir.canWrite()) {
-	    File[] fileList = dir.listFiles();
-	    if (fileList != null) {
-		for (File f : fileList) {
-		    if (!f.delete()) {
-			errors++;
+	this.lockCrawlsUninterruptibly();
+	try {
+	    this.close();
+	    File dir = new File(this.name);
+	    if (dir.canRead() && dir.canWrite()) {
+		File[] fileList = dir.listFiles();
+		if (fileList != null) {
+		    for (File f : fileList) {
+			if (!f.delete()) {
+			    errors++;
+			}
 		    }
 		}
 	    }
+	} finally {
+	    this.crawlLock.unlock();
 	}
 	if (errors > 0) {
 	    throw new IOException("Cannot delete " + errors + " Files in <"
@@ -182,30 +410,57 @@ public final class LuceneDirectory {
      * {@link #close()} and will create a new IndexWriter, ignoring all previous
      * indexes in this directory.
      */
-    protected synchronized void clearDirectory() {
-	this.close();
-	this.initalizeIndexWriter(OpenMode.CREATE);
+    protected void clearDirectory() {
+	this.lockCrawlsUninterruptibly();
+	try {
+	    synchronized (this) {
+		this.close();
+		CrawlFrontier.delete(new File(this.name));
+		this.initalizeIndexWriter(OpenMode.CREATE);
+	    }
+	} finally {
+	    this.crawlLock.unlock();
+	}
     }
 
     /**
      * This method closes all dependencies to the underlying index and resets
      * this object's state as if it has just been constructed. All uncommitted
-     * changes to the index will be lost.
+     * changes to the index will be lost. A running background crawl is
+     * aborted, other crawls are waited for.
      */
-    protected synchronized void close() {
-	if (this.indexWriter != null) {
-	    this.dropChanges();
-	}
-	if (this.directory != null) {
-	    try {
-		this.directory.close();
-	    } catch (IOException ignored) {
-	    } finally {
-		this.directory = null;
+    protected void close() {
+	this.lockCrawlsUninterruptibly();
+	try {
+	    synchronized (this) {
+		if (this.indexWriter != null) {
+		    this.dropChanges();
+		}
+		if (this.directory != null) {
+		    try {
+			this.directory.close();
+		    } catch (IOException ignored) {
+		    } finally {
+			this.directory = null;
+		    }
+		}
+		// IndexReaders still acquired by searches are closed, as soon
+		// as they are released
+		synchronized (this.searcherLock) {
+		    releaseIndexReader(this.indexReader);
+		    this.indexReader = null;
+		    for (PinnedReader pin : this.pinnedReaders.values()) {
+			releaseIndexReader(pin.reader);
+		    }
+		    this.pinnedReaders.clear();
+		}
+		this.committedRoots = null;
+		this.roots = null;
+		this.spillFailed = false;
 	    }
+	} finally {
+	    this.crawlLock.unlock();
 	}
-	// Don't care about IndexReaders and IndexSearchers. They depend on the
-	// existence of a IndexWriter.
     }
 
     /**
@@ -215,7 +470,14 @@ public final class LuceneDirectory {
     private synchronized void openDirectory() {
 	if (this.directory == null) {
 	    try {
-		this.directory = SimpleFSDirectory.open(new File(this.name));
+		this.directory = this.directoryType.get().open(
+			new File(this.name));
+		// a new index starts in memory
+		if ((this.ramMaxBytes != null) && (this.ramMaxBytes.get() > 0)
+			&& !IndexReader.indexExists(this.directory)) {
+		    this.directory.close();
+		    this.directory = new RAMDirectory();
+		}
 	    } catch (IOException e) {
 		System.err.println("Cannot open the Lucene directory in <"
 			+ this.name + ">. Reason: " + e.getMessage());
@@ -224,6 +486,67 @@ public final class LuceneDirectory {
 	}
     }
 
+    /**
+     * This method migrates an index held in memory to the index folder, if it
+     * has grown past its memory budget. All changes are committed before.
+     * {@link IndexReader}s acquired before keep working on the memory, later
+     * ones use the index folder. If this method fails, the index remains in
+     * memory and the migration is not tried again, until this index is
+     * cleared or closed.
+     */
+    private synchronized void spillIfNecessary() {
+	if (this.spillFailed || !(this.directory instanceof RAMDirectory)
+		|| (((RAMDirectory) this.directory).sizeInBytes() <= this.ramMaxBytes
+			.get())) {
+	    return;
+	}
+
+	boolean reopenWriter = (this.indexWriter != null);
+	Directory target = null;
+	try {
+	    if (this.indexWriter != null) {
+		this.countNewRoots();
+		this.indexWriter.commit(this.roots.toUserData());
+		this.committedRoots = this.roots;
+		this.indexWriter.close();
+		this.indexWriter = null;
+	    }
+	    target = this.directoryType.get().open(new File(this.name));
+	    // remove remainders of a former index, e.g. a stale segments file
+	    for (String file : target.listAll()) {
+		if (IndexFileNameFilter.getFilter().accept(null, file)) {
+		    target.deleteFile(file);
+		}
+	    }
+	    for (String file : this.directory.listAll()) {
+		this.directory.copy(target, file, file);
+	    }
+	} catch (IOException e) {
+	    System.err.println("Cannot migrate the Lucene index to <"
+		    + this.name + ">. Reason: " + e.getMessage());
+	    this.spillFailed = true;
+	    if (target != null) {
+		try {
+		    target.close();
+		} catch (IOException ignore) {
+		}
+	    }
+	    target = null;
+	}
+
+	if (target != null) {
+	    System.out.println("[info] Lucene index migrated from memory to <"
+		    + this.name + "> ("
+		    + ((RAMDirectory) this.directory).sizeInBytes() + " bytes).");
+	    // The memory is not closed, as open readers still depend on it.
+	    // The next searcher is opened on the index folder.
+	    this.directory = target;
+	}
+	if (reopenWriter) {
+	    this.initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+	}
+    }
+
     /**
      * This method prepares the unique IndexWriter instance of this Lucene
      * index. If this method fails, {@link #indexWriter} will remain in it's
@@ -235,9 +558,9 @@ public final class LuceneDirectory {
 	    if (this.directory == null) {
 		return;
 	    }
-	    Analyzer analyser = new StandardAnalyzer(Version.LUCENE_35);
+	    Analyzer analyser = LuceneDirectoryUtility.getAnalyzer();
 	    IndexWriterConfig indexWriterConfig = new IndexWriterConfig(
-		    Version.LUCENE_35, analyser);
+		    LuceneDirectoryUtility.LUCENE_VERSION, analyser);
 	    indexWriterConfig.setOpenMode(mode);
 
 	    try {
@@ -257,25 +580,104 @@ public final class LuceneDirectory {
 			+ e.getMessage());
 		this.indexWriter = null;
 	    }
+	    if ((this.indexWriter != null) && (this.committedRoots == null)) {
+		this.readRoots(mode == OpenMode.CREATE);
+	    }
 	}
     }
 
     /**
      * This method drops all changes made to the index since the last commit. If
-     * nothing has been changed this method will do nothing.
+     * nothing has been changed this method will do nothing. A running
+     * background crawl is aborted. If another crawl does not stop within
+     * {@link #DROP_WAIT_MILLIS}, nothing is dropped and the crawl commits its
+     * changes itself, so the calling thread is never blocked by a crawl.
      */
-    protected synchronized void dropChanges() {
-	if (this.indexWriter == null) {
+    protected void dropChanges() {
+	boolean locked = this.crawlLock.tryLock();
+	long deadline = System.currentTimeMillis() + DROP_WAIT_MILLIS;
+	try {
+	    while (!locked && (System.currentTimeMillis() < deadline)) {
+		this.abortBackgroundCrawl();
+		locked = this.crawlLock.tryLock(ABORT_INTERVAL_MILLIS,
+			TimeUnit.MILLISECONDS);
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	if (!locked) {
+	    System.out.println("[info] Lucene index <" + this.name
+		    + "> keeps the changes of its running crawl.");
 	    return;
 	}
-
 	try {
-	    this.indexWriter.rollback();
-	} catch (IOException e) {
-	    System.err.println("Cannot bring the Lucene index back "
-		    + "into a save state. Reason: " + e.getMessage());
+	    synchronized (this) {
+		if (this.indexWriter == null) {
+		    return;
+		}
+
+		// uncommitted roots are dropped, too
+		this.roots = this.committedRoots;
+		try {
+		    this.indexWriter.rollback();
+		} catch (IOException e) {
+		    System.err.println("Cannot bring the Lucene index back "
+			    + "into a save state. Reason: " + e.getMessage());
+		} finally {
+		    this.indexWriter = null;
+		}
+	    }
 	} finally {
-	    this.indexWriter = null;
+	    this.crawlLock.unlock();
+	}
+    }
+
+    /**
+     * This method acquires the crawl lock. A running background crawl is
+     * aborted, so the caller does not wait for a whole rescan.
+     * 
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void lockCrawls() throws InterruptedException {
+	if (this.crawlLock.tryLock()) {
+	    return;
+	}
+	// a background crawl may start, while waiting for another crawl
+	do {
+	    this.abortBackgroundCrawl();
+	} while (!this.crawlLock.tryLock(ABORT_INTERVAL_MILLIS,
+		TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * This method acquires the crawl lock like {@link #lockCrawls()}, but
+     * cannot be interrupted.
+     */
+    private void lockCrawlsUninterruptibly() {
+	boolean interrupted = false;
+	while (true) {
+	    try {
+		this.lockCrawls();
+		break;
+	    } catch (InterruptedException e) {
+		interrupted = true;
+	    }
+	}
+	if (interrupted) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * This method aborts the running background crawl, if there is one. Its
+     * progress is committed, see
+     * {@link #updateContentMapInBackground(Map)}.
+     */
+    private synchronized void abortBackgroundCrawl() {
+	if ((this.backgroundCrawler != null) && !this.backgroundAborted) {
+	    this.backgroundAborted = true;
+	    this.backgroundCrawler.interrupt();
 	}
     }
 
@@ -288,8 +690,10 @@ public final class LuceneDirectory {
 	    return;
 	}
 
+	this.countNewRoots();
 	try {
-	    this.indexWriter.commit();
+	    this.indexWriter.commit(this.roots.toUserData());
+	    this.committedRoots = this.roots;
 	} catch (CorruptIndexException e) {
 	    System.err.println("Lucene index seems to be currupted! "
 		    + "Cannot save changes to the Lucene index. Reason: "
@@ -298,71 +702,210 @@ public final class LuceneDirectory {
 	    System.err.println("Cannot save changes to the Lucene index. "
 		    + "Reason: " + e.getMessage());
 	}
+	this.spillIfNecessary();
     }
 
     /**
      * This method returns a Map, containing information about the
-     * {@link LuceneDirectory}, determined by the {@link IndexSearcher} searcher
-     * object.<br />
+     * {@link LuceneDirectory}, determined by the committed
+     * {@link RootRegistry}.<br />
      * The Map's key String contains a directory url and it's assigned Integer
      * value the recursion depth of the directory.<br />
-     * If the index is empty, this method will return an empty Map.
+     * If the index is empty, this method will return an empty Map. Apart from
+     * the first call, this method reads nothing from the index.
      * 
      * @return a Map containing information about the {@link LuceneDirectory}
      */
     protected Map<String, Integer> getIndexContentMap() {
-	Map<String, Integer> resultMap = new HashMap<String, Integer>();
+	return this.getRootRegistry().getContentMap();
+    }
 
-	IndexSearcher searcher = this.getIndexSearcher();
-	if (searcher == null) {
-	    return resultMap;
+    /**
+     * Returns the committed {@link RootRegistry} of this index. Apart from the
+     * first call, this method neither reads from the index nor waits for
+     * running operations.
+     * 
+     * @return the committed {@link RootRegistry} of this index
+     */
+    protected RootRegistry getRootRegistry() {
+	RootRegistry registry = this.committedRoots;
+	if (registry != null) {
+	    return registry;
+	}
+	synchronized (this) {
+	    this.initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+	    return (this.committedRoots == null) ? RootRegistry.EMPTY
+		    : this.committedRoots;
 	}
+    }
 
-	// Build query
-	Query q = new WildcardQuery(new Term(META_PATH, "*"));
+    /**
+     * This method registers a root, whose crawl has been completed, with the
+     * next commit. Its files are counted by the commit. The IndexWriter has to
+     * be initialized before.
+     * 
+     * @param path
+     *            - the canonical path of the root
+     * @param recursionDepth
+     *            - the recursion depth of indexing
+     * @param indexedMillis
+     *            - the time of the completion in milliseconds
+     */
+    protected synchronized void putRoot(String path, int recursionDepth,
+	    long indexedMillis) {
+	if (this.roots != null) {
+	    this.roots = this.roots.put(path, recursionDepth, indexedMillis,
+		    RootRegistry.UNKNOWN);
+	}
+    }
 
-	// Set initial collector size
-	int collectorSize = 100;
-	TopScoreDocCollector collector = null;
+    /**
+     * This method removes a root with the next commit. The files of the root
+     * are not deleted.
+     * 
+     * @param path
+     *            - the canonical path of the root
+     * @param subDirectories
+     *            - true if all roots below path have to be removed, too
+     */
+    protected synchronized void removeRoot(String path, boolean subDirectories) {
+	this.initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+	if (this.roots != null) {
+	    this.roots = this.roots.remove(path, subDirectories);
+	}
+    }
 
-	// Perform the search.
-	boolean done = false;
-	do {
-	    done = false;
-	    collector = TopScoreDocCollector.create(collectorSize, true);
+    /**
+     * This method reads the {@link RootRegistry} of the last commit. Indexes
+     * of older versions registered their roots by Meta-Index-Entries. They
+     * are converted into a registry and committed once. The IndexWriter has
+     * to be initialized before.
+     * 
+     * @param create
+     *            - true if the index has just been created
+     */
+    private synchronized void readRoots(boolean create) {
+	RootRegistry registry = RootRegistry.EMPTY;
+	try {
+	    if (!create && IndexReader.indexExists(this.directory)) {
+		registry = RootRegistry.fromUserData(IndexReader
+			.getCommitUserData(this.directory));
+		if (registry == null) {
+		    registry = this.convertMetaDocuments();
+		}
+	    }
+	} catch (IOException e) {
+	    System.err.println("Cannot read the roots of the Lucene index in <"
+		    + this.name + ">. Reason: " + e.getMessage());
+	    registry = RootRegistry.EMPTY;
+	}
+	this.roots = registry;
+	this.committedRoots = registry;
+    }
 
+    /**
+     * This method replaces the Meta-Index-Entries of an index of an older
+     * version by a committed {@link RootRegistry}.
+     * 
+     * @return the committed {@link RootRegistry}
+     * @throws IOException
+     *             if the index cannot be read or written
+     */
+    private synchronized RootRegistry convertMetaDocuments()
+	    throws IOException {
+	RootRegistry registry = RootRegistry.EMPTY;
+	IndexReader reader = IndexReader.open(this.directory, true);
+	try {
+	    TermEnum terms = reader.terms(new Term(META_PATH, ""));
 	    try {
-		searcher.search(q, collector);
-	    } catch (IOException ignore) {
-		break;
+		do {
+		    Term t = terms.term();
+		    if ((t == null) || !t.field().equals(META_PATH)) {
+			break;
+		    }
+		    TermDocs termDocs = reader.termDocs(t);
+		    try {
+			if (termDocs.next()) {
+			    int recursionDepth = Integer.parseInt(reader
+				    .document(termDocs.doc()).get(
+					    META_RECURSIVE));
+			    registry = registry.put(t.text(), recursionDepth,
+				    0, countFiles(reader, t.text(),
+					    recursionDepth));
+			}
+		    } finally {
+			termDocs.close();
+		    }
+		} while (terms.next());
+	    } finally {
+		terms.close();
 	    }
+	} finally {
+	    reader.close();
+	}
 
-	    // If there were more then collectorSize search results, the
-	    // searching has to be repeated with a bigger collector with an
-	    // appropriate size.
-	    if (collectorSize < collector.getTotalHits()) {
-		collectorSize = collector.getTotalHits();
-	    } else {
-		done = true;
-	    }
-	} while (!done);
+	this.indexWriter.deleteDocuments(new WildcardQuery(new Term(META_PATH,
+		"*")));
+	this.indexWriter.commit(registry.toUserData());
+	System.out.println("[info] Converted " + registry.getRoots().size()
+		+ " Meta-Index-Entries of <" + this.name + ">.");
+	return registry;
+    }
 
-	// build result
-	TopDocs hits = collector.topDocs();
-	for (ScoreDoc hit : hits.scoreDocs) {
-	    Document d = null;
-	    try {
-		d = searcher.doc(hit.doc);
-	    } catch (CorruptIndexException ignore) {
-		continue;
-	    } catch (IOException ignore) {
-		continue;
+    /**
+     * Returns the number of files of a root.
+     * 
+     * @param reader
+     *            - the reader to count in
+     * @param path
+     *            - the canonical path of the root
+     * @param recursionDepth
+     *            - the recursion depth of indexing
+     * @return the number of files of the root
+     * @throws IOException
+     *             if the index cannot be read
+     */
+    private static long countFiles(IndexReader reader, String path,
+	    int recursionDepth) throws IOException {
+	Query q = (recursionDepth < 0) ? LuceneDirectoryUtility
+		.getSubtreeQuery(path) : new TermQuery(new Term(Index.URL, path));
+	TotalHitCountCollector collector = new TotalHitCountCollector();
+	new IndexSearcher(reader).search(q, collector);
+	return collector.getTotalHits();
+    }
+
+    /**
+     * This method counts the files of all roots, that have been registered
+     * since the last commit, including the uncommitted files.
+     */
+    private synchronized void countNewRoots() {
+	IndexReader reader = null;
+	try {
+	    for (Map.Entry<String, RootRegistry.Root> entry : this.roots
+		    .getRoots().entrySet()) {
+		RootRegistry.Root root = entry.getValue();
+		if (root.getNumFiles() != RootRegistry.UNKNOWN) {
+		    continue;
+		}
+		if (reader == null) {
+		    reader = IndexReader.open(this.indexWriter, true);
+		}
+		this.roots = this.roots.put(entry.getKey(),
+			root.getRecursionDepth(), root.getIndexedMillis(),
+			countFiles(reader, entry.getKey(),
+				root.getRecursionDepth()));
+	    }
+	} catch (IOException e) {
+	    System.err.println("Cannot count the files of the roots. Reason: "
+		    + e.getMessage());
+	} finally {
+	    if (reader != null) {
+		try {
+		    reader.close();
+		} catch (IOException ignore) {
+		}
 	    }
-	    resultMap.put(d.get(META_PATH),
-		    Integer.valueOf(d.get(META_RECURSIVE)));
 	}
-
-	return resultMap;
     }
 
     /**
@@ -374,8 +917,22 @@ public final class LuceneDirectory {
      * <li>x == 0: flat directory indexing of s</li>
      * <li>x < 0: full recursive directory indexing of s</li>
      * </ul>
-     * No actions are performed to avoid double indexing (e.g. the item is
-     * already present in the index).
+     * Indexing is incremental. If an item is already present in the index, only
+     * new or changed files are indexed again and vanished files are removed
+     * from the index.<br />
+     * <br />
+     * The progress is committed periodically and recorded in a
+     * {@link CrawlFrontier}. An item only becomes part of
+     * {@link #getIndexContentMap()}, when its crawl has been completed. If a
+     * crawl was interrupted before, the crawl of its items is resumed, as long
+     * as they are contained in the contentMap again. Otherwise their files are
+     * removed from the index.<br />
+     * <br />
+     * Crawls of this index run one after another, a crawl waits for the
+     * running one, unless that is a background crawl, which is aborted. A
+     * crawl does not hold the monitor of this index, so searches, the
+     * {@link IndexEnricher} and other single operations go on meanwhile and
+     * see the crawl's progress as of its last checkpoint.
      * 
      * @param contentMap
      *            - a Map of items to be added to the index
@@ -383,97 +940,553 @@ public final class LuceneDirectory {
      * @throws InterruptedException
      *             if the currently running Thread was interrupted
      */
-    protected synchronized IndexResult addContentMapToIndex(
-	    Map<String, Integer> contentMap) throws InterruptedException {
-	initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+    protected IndexResult addContentMapToIndex(Map<String, Integer> contentMap)
+	    throws InterruptedException {
+	this.lockCrawls();
+	try {
+	    Map<String, Integer> indexRoots = this.getIndexContentMap();
+	    indexRoots.putAll(contentMap);
+
+	    synchronized (this) {
+		initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+	    }
+
+	    CrawlFrontier frontier = new CrawlFrontier(new File(this.name));
+	    // roots of an interrupted crawl, that are not crawled again
+	    Map<String, Integer> abandonedRoots = frontier.getPendingRoots();
+	    for (String s : indexRoots.keySet()) {
+		String path = Utility.canonicalizePath(s);
+		if (indexRoots.get(s).equals(abandonedRoots.get(path))) {
+		    abandonedRoots.remove(path);
+		}
+	    }
+	    frontier.start(contentMap, abandonedRoots);
+
+	    return this.indexContentMap(contentMap, indexRoots,
+		    abandonedRoots, frontier);
+	} finally {
+	    this.crawlLock.unlock();
+	}
+    }
+
+    /**
+     * This method builds a new index of all items contained in the contentMap
+     * in a shadow folder and replaces this index by it, when the crawl has
+     * been completed. For the format of the contentMap see
+     * {@link #addContentMapToIndex(Map)}. Meanwhile this index keeps serving
+     * searches and updates. Roots added, changed or removed meanwhile are
+     * applied to the new index after the replacement, and the files of its
+     * other roots are updated incrementally, so no change made during the
+     * rebuild is lost.<br />
+     * <br />
+     * If the rebuild is interrupted or fails, the shadow folder is removed and
+     * this index is left untouched.
+     * 
+     * @param contentMap
+     *            - a Map of items to be added to the new index
+     * @return indexing statistics or null, if the rebuild failed
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected IndexResult rebuildContentMap(Map<String, Integer> contentMap)
+	    throws InterruptedException {
+	LuceneDirectory shadow = new LuceneDirectory(new File(this.name)
+		.getName() + SHADOW_SUFFIX, this.twoPhase, this.directoryType,
+		null);
+	File shadowFolder = new File(shadow.name);
+	boolean swapped = false;
+	Map<String, Integer> rootsBefore = this.getIndexContentMap();
+	try {
+	    // remainders of a cancelled rebuild
+	    shadow.clearAllFilesInDirectory();
+	    shadow.clearDirectory();
+
+	    IndexResult result = shadow.addContentMapToIndex(contentMap);
+	    shadow.close();
+
+	    // waits for the running crawls of this index
+	    this.lockCrawls();
+	    try {
+		Map<String, Integer> rootsAtSwap;
+		synchronized (this) {
+		    rootsAtSwap = (this.roots != null) ? this.roots
+			    .getContentMap() : this.getIndexContentMap();
+		    swapped = this.swap(shadowFolder);
+		}
+		if (swapped) {
+		    this.catchUp(contentMap, rootsBefore, rootsAtSwap);
+		}
+	    } finally {
+		this.crawlLock.unlock();
+	    }
+
+	    return swapped ? result : null;
+	} catch (IOException e) {
+	    System.err.println("Cannot rebuild the Lucene index in <"
+		    + shadowFolder + ">. Reason: " + e.getMessage());
+	    return null;
+	} finally {
+	    if (!swapped) {
+		shadow.close();
+		deleteFolder(shadowFolder);
+	    }
+	}
+    }
+
+    /**
+     * This method replaces the index folder by a completely built shadow
+     * folder. It closes this index and renames both folders.
+     * {@link IndexReader}s acquired before keep working on the files of the
+     * replaced index, as far as the platform allows to delete open files. The
+     * crawl lock and the monitor of this index have to be held.
+     * 
+     * @param shadowFolder
+     *            - the folder of the new index
+     * @return true if the index folder was replaced, false if this index was
+     *         left untouched
+     */
+    private boolean swap(File shadowFolder) {
+	// the next searcher is opened on the new index folder
+	this.close();
+
+	File folder = new File(this.name);
+	File backup = new File(this.name + BACKUP_SUFFIX);
+	// remainder of a swap, that was interrupted after its renames
+	deleteFolder(backup);
+	if (!folder.renameTo(backup)) {
+	    System.err.println("Cannot move the Lucene index <" + this.name
+		    + "> to <" + backup + ">.");
+	    return false;
+	}
+	if (!shadowFolder.renameTo(folder)) {
+	    System.err.println("Cannot move the Lucene index <" + shadowFolder
+		    + "> to <" + this.name + ">.");
+	    if (!backup.renameTo(folder)) {
+		System.err.println("Unable to restore the directory <"
+			+ this.name + "> from <" + backup + ">.");
+	    }
+	    return false;
+	}
+	deleteFolder(backup);
+
+	System.out.println("[info] Lucene index <" + this.name
+		+ "> has been replaced by its rebuild.");
+	return true;
+    }
 
-	// push indexing jobs on stack
-	Stack<IndexJob> jobStack = new Stack<IndexJob>();
+    /**
+     * This method applies the changes made to this index during its rebuild
+     * to the new index. Roots added or changed meanwhile are crawled again,
+     * removed roots are deleted and the files of all other roots are updated
+     * incrementally. The crawl lock has to be held.
+     * 
+     * @param contentMap
+     *            - the Map of items of the new index
+     * @param rootsBefore
+     *            - the roots of this index, when the rebuild started
+     * @param rootsAtSwap
+     *            - the roots of this index, when it was replaced
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private void catchUp(Map<String, Integer> contentMap,
+	    Map<String, Integer> rootsBefore, Map<String, Integer> rootsAtSwap)
+	    throws InterruptedException {
+	Map<String, Integer> toAdd = new HashMap<String, Integer>();
+	for (String s : rootsAtSwap.keySet()) {
+	    Integer r = rootsAtSwap.get(s);
+	    if (!r.equals(rootsBefore.get(s)) && !r.equals(contentMap.get(s))) {
+		toAdd.put(s, r);
+	    }
+	}
+	// roots of the new index, that have been removed or changed their
+	// recursion depth meanwhile
+	Map<String, Integer> toDelete = new HashMap<String, Integer>();
 	for (String s : contentMap.keySet()) {
-	    jobStack.push(new IndexJob(new File(s), contentMap.get(s)
-		    .intValue()));
-	    // save meta information
-	    this.addDocumentToIndex(LuceneDirectoryUtility
-		    .getIndexMetaDocument(Utility.canonicalizePath(s),
-			    contentMap.get(s).intValue(),
-			    System.currentTimeMillis()));
-	}
-
-	long start = System.currentTimeMillis();
-	long numIndexed = 0;
-	long numIndexErrors = 0;
-
-	/*-
-	 * This method uses a Stack (LIFO) to do it's job of recursive crawling.
-	 * Steps performed in the LIFO loop until it is empty:
-	 * 
-	 * 1. POP top of Stack
-	 * 2. Is directory? -> yes 2.1
-	 *                  -> no  2.2
-	 *    2.1 Is symbolic directory? -> yes 2.1.1
-	 *                               -> no  2.1.2
-	 *        2.1.1 IGNORE entry (following might cause loops!)
-	 *        2.1.2 PUSH all containing Files to Stack
-	 *    2.2 Is file readable? -> yes 2.2.1
-	 *                          -> no  2.2.2
-	 *        2.2.1 ADD document to Lucene index
-	 *              (even if it is a symbolic link!)
-	 *        2.2.2 IGNORE entry  
-	 */
-	while (!jobStack.isEmpty() && !Thread.currentThread().isInterrupted()) {
-	    IndexJob job = jobStack.pop();
-	    File file = job.url;
+	    if ((rootsBefore.containsKey(s) && !rootsAtSwap.containsKey(s))
+		    || toAdd.containsKey(s)) {
+		toDelete.put(s, contentMap.get(s));
+	    }
+	}
+
+	for (String s : toDelete.keySet()) {
+	    boolean recursive = (toDelete.get(s).intValue() < 0);
+	    this.removeRoot(s, recursive);
+	    this.deleteFromIndex(recursive ? LuceneDirectoryUtility
+		    .getSubtreeQuery(s) : new TermQuery(new Term(Index.URL, s)));
+	}
+	this.commitChanges();
+
+	Map<String, Integer> toUpdate = new HashMap<String, Integer>(
+		contentMap);
+	toUpdate.keySet().removeAll(toDelete.keySet());
+	if (!toUpdate.isEmpty()) {
+	    this.updateContentMapInIndex(toUpdate);
+	}
+	if (!toAdd.isEmpty()) {
+	    this.addContentMapToIndex(toAdd);
+	}
+	if (!toAdd.isEmpty() || !toDelete.isEmpty()) {
+	    System.out.println("[info] Lucene index <" + this.name
+		    + "> caught up with " + (toAdd.size() + toDelete.size())
+		    + " root change(s) made during its rebuild.");
+	}
+    }
+
+    /**
+     * This method deletes a folder and all files it contains. Index folders
+     * contain no subfolders.
+     * 
+     * @param folder
+     *            - the folder to delete
+     */
+    private static void deleteFolder(File folder) {
+	File[] fileList = folder.listFiles();
+	if (fileList != null) {
+	    for (File f : fileList) {
+		if (!f.delete()) {
+		    System.err.println("Cannot delete <" + f + ">.");
+		}
+	    }
+	}
+	if (folder.exists() && !folder.delete()) {
+	    System.err.println("Cannot delete <" + folder + ">.");
+	}
+    }
+
+    /**
+     * This method indexes all items contained in the contentMap again, without
+     * changing the meta information of the index. For the format of the
+     * contentMap see {@link #addContentMapToIndex(Map)}. Only new or changed
+     * files are indexed, vanished files and vanished directories below
+     * recursive items are removed from the index. Like
+     * {@link #addContentMapToIndex(Map)}, this method does not hold the
+     * monitor of this index while crawling.
+     * 
+     * @param contentMap
+     *            - a Map of items, that are already part of the index
+     * @return indexing statistics
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected IndexResult updateContentMapInIndex(
+	    Map<String, Integer> contentMap) throws InterruptedException {
+	this.lockCrawls();
+	try {
+	    synchronized (this) {
+		initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+	    }
+
+	    return this.indexContentMap(contentMap, contentMap,
+		    new HashMap<String, Integer>(), null);
+	} finally {
+	    this.crawlLock.unlock();
+	}
+    }
+
+    /**
+     * This method updates the items contained in the contentMap like
+     * {@link #updateContentMapInIndex(Map)} as a background crawl, e.g. for
+     * the {@link IndexWatcher}. It waits for running crawls, but is aborted
+     * as soon as another operation needs the crawl lock. The progress made
+     * until then is committed.
+     * 
+     * @param contentMap
+     *            - a Map of items, that are already part of the index
+     * @return indexing statistics or null, if the crawl has been aborted
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    protected IndexResult updateContentMapInBackground(
+	    Map<String, Integer> contentMap) throws InterruptedException {
+	this.crawlLock.lockInterruptibly();
+	try {
+	    synchronized (this) {
+		this.backgroundCrawler = Thread.currentThread();
+		this.backgroundAborted = false;
+		initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+	    }
 
-	    if (file.isDirectory()) {
-		String fileCanonicalPath = "";
+	    return this.indexContentMap(contentMap, contentMap,
+		    new HashMap<String, Integer>(), null);
+	} catch (InterruptedException e) {
+	    synchronized (this) {
+		if (!this.backgroundAborted) {
+		    throw e;
+		}
+	    }
+	    return null;
+	} finally {
+	    synchronized (this) {
+		this.backgroundCrawler = null;
+		// an abort must not stop the thread afterwards
+		if (this.backgroundAborted) {
+		    Thread.interrupted();
+		    this.backgroundAborted = false;
+		}
+	    }
+	    this.crawlLock.unlock();
+	}
+    }
+
+    /**
+     * This method crawls, extracts and writes all items contained in the
+     * contentMap concurrently. The changes are committed periodically and
+     * when the crawl has been completed or interrupted. The crawl lock has to
+     * be held.
+     * 
+     * @param contentMap
+     *            - a Map of items to be indexed
+     * @param indexRoots
+     *            - all roots of the index, whose directories must not be
+     *            deleted
+     * @param abandonedRoots
+     *            - a Map of roots of an interrupted crawl, whose files should
+     *            be removed from the index
+     * @param frontier
+     *            - (optional, null allowed) the {@link CrawlFrontier}
+     *            recording the progress. If frontier is null, the items of
+     *            the contentMap get no meta information.
+     * @return indexing statistics
+     * @throws InterruptedException
+     *             if the currently running Thread was interrupted
+     */
+    private IndexResult indexContentMap(Map<String, Integer> contentMap,
+	    Map<String, Integer> indexRoots,
+	    Map<String, Integer> abandonedRoots, CrawlFrontier frontier)
+	    throws InterruptedException {
+	IndexReader reader = this.openNearRealTimeReader();
+	try {
+	    IndexResult result = new IndexPipeline(this, reader, indexRoots,
+		    frontier, !this.twoPhase, Configuration.NUMBER_OF_CPUS).run(
+		    contentMap, abandonedRoots);
+
+	    if (frontier != null) {
+		frontier.finish();
+	    }
+
+	    return result;
+	} finally {
+	    if (frontier != null) {
+		frontier.close();
+	    }
+	    if (reader != null) {
 		try {
-		    fileCanonicalPath = file.getCanonicalPath();
+		    reader.close();
 		} catch (IOException ignore) {
 		}
-		// Do not follow symbolic links (causes loops and
-		// trouble!)
-		if (file.getAbsolutePath().equals(fileCanonicalPath)) {
-		    File[] subFiles = file.listFiles();
-		    if (subFiles != null) {
-			for (File subFile : subFiles) {
-			    // only add directories, if recursion still wanted
-			    if (!subFile.isDirectory()
-				    || (job.recursionDepth != 0)) {
-				jobStack.push(new IndexJob(subFile, -1));
-			    }
-			}
+	    }
+	}
+    }
+
+    /**
+     * This method returns files, whose {@link Document} representation is
+     * marked as {@link Index#PENDING_ENRICHMENT}, including uncommitted ones.
+     * Opening a near real-time reader flushes the changes of a running crawl,
+     * so it is only opened, if the last commit holds such files. Files marked
+     * by a crawl are therefore returned after its next checkpoint.
+     * 
+     * @param max
+     *            - the maximum number of files to return
+     * @return a List of at most max files waiting for their content extraction
+     */
+    protected synchronized List<File> getPendingFiles(int max) {
+	List<File> resultList = new ArrayList<File>();
+	if (this.countPendingDocuments(1) == 0) {
+	    return resultList;
+	}
+	IndexReader reader = this.openNearRealTimeReader();
+	if (reader == null) {
+	    return resultList;
+	}
+
+	TermDocs termDocs = null;
+	try {
+	    termDocs = reader.termDocs(new Term(Index.PENDING_ENRICHMENT,
+		    Index.PENDING_ENRICHMENT_VALUE));
+	    while ((resultList.size() < max) && termDocs.next()) {
+		Document d = reader.document(termDocs.doc(), PENDING_SELECTOR);
+		resultList.add(new File(d.get(Index.PATH_KEY)));
+	    }
+	} catch (IOException ignore) {
+	    // try again later
+	} finally {
+	    if (termDocs != null) {
+		try {
+		    termDocs.close();
+		} catch (IOException ignore) {
+		}
+	    }
+	    try {
+		reader.close();
+	    } catch (IOException ignore) {
+	    }
+	}
+
+	return resultList;
+    }
+
+    /**
+     * This method replaces the {@link Document} representations of files,
+     * that are marked as {@link Index#PENDING_ENRICHMENT}, by enriched ones.
+     * Files, that have been indexed again or removed from the index in the
+     * meantime, are skipped. The changes are not committed.
+     * 
+     * @param documents
+     *            - a Map from the path keys of files (see
+     *            {@link LuceneDirectoryUtility#getPathKey(File)}) to their
+     *            enriched Document representation. A null value deletes the
+     *            representation of a vanished file.
+     * @return the number of replaced and deleted Documents
+     */
+    protected synchronized int enrichDocuments(Map<String, Document> documents) {
+	IndexReader reader = this.openNearRealTimeReader();
+	if (reader == null) {
+	    return 0;
+	}
+
+	int numEnriched = 0;
+	try {
+	    for (String pathKey : documents.keySet()) {
+		Term term = new Term(Index.PATH_KEY, pathKey);
+		if (!isPending(reader, term)) {
+		    continue;
+		}
+		Document doc = documents.get(pathKey);
+		if (doc == null) {
+		    if (this.deleteFromIndex(new TermQuery(term))) {
+			numEnriched++;
 		    }
+		} else if (this.updateDocumentInIndex(term, doc)) {
+		    numEnriched++;
 		}
-	    } else if (file.isFile() && file.canRead()) {
-		if (this.addDocumentToIndex(LuceneDirectoryUtility
-			.getDocument(file))) {
-		    numIndexed++;
-		} else {
-		    numIndexErrors++;
+	    }
+	} finally {
+	    try {
+		reader.close();
+	    } catch (IOException ignore) {
+	    }
+	}
+
+	return numEnriched;
+    }
+
+    /**
+     * This method checks, if the Document representation of a file is still
+     * marked as {@link Index#PENDING_ENRICHMENT}.
+     * 
+     * @param reader
+     *            - an {@link IndexReader} reflecting the current state of the
+     *            index
+     * @param term
+     *            - the path key {@link Term} of the file
+     * @return true if the file waits for its content extraction
+     */
+    private static boolean isPending(IndexReader reader, Term term) {
+	TermDocs termDocs = null;
+	try {
+	    termDocs = reader.termDocs(term);
+	    while (termDocs.next()) {
+		if (reader.document(termDocs.doc(), PENDING_SELECTOR).get(
+			Index.PENDING_ENRICHMENT) != null) {
+		    return true;
+		}
+	    }
+	} catch (IOException ignore) {
+	} finally {
+	    if (termDocs != null) {
+		try {
+		    termDocs.close();
+		} catch (IOException ignore) {
 		}
-	    } else {
-		numIndexErrors++;
 	    }
 	}
-	if (Thread.currentThread().isInterrupted()) {
-	    throw new InterruptedException();
+	return false;
+    }
+
+    /**
+     * This method returns the number of committed {@link Document}
+     * representations, whose content has not been extracted yet.
+     * 
+     * @return the number of Documents marked as
+     *         {@link Index#PENDING_ENRICHMENT}
+     */
+    protected long getNumPendingDocuments() {
+	return this.countPendingDocuments(Long.MAX_VALUE);
+    }
+
+    /**
+     * This method counts the committed {@link Document} representations, whose
+     * content has not been extracted yet, up to a maximum.
+     * 
+     * @param max
+     *            - the maximum number of Documents to count
+     * @return the number of Documents marked as
+     *         {@link Index#PENDING_ENRICHMENT}, but at most max
+     */
+    private long countPendingDocuments(long max) {
+	IndexReader reader = this.acquireIndexReader();
+	if (reader == null) {
+	    return 0;
 	}
 
-	long end = System.currentTimeMillis();
-	this.commitChanges();
+	long numPending = 0;
+	TermDocs termDocs = null;
+	try {
+	    termDocs = reader.termDocs(
+		    new Term(Index.PENDING_ENRICHMENT,
+			    Index.PENDING_ENRICHMENT_VALUE));
+	    while ((numPending < max) && termDocs.next()) {
+		numPending++;
+	    }
+	} catch (IOException ignore) {
+	} finally {
+	    if (termDocs != null) {
+		try {
+		    termDocs.close();
+		} catch (IOException ignore) {
+		}
+	    }
+	    releaseIndexReader(reader);
+	}
 
-	return new IndexResult((end - start), numIndexed, numIndexErrors);
+	return numPending;
     }
 
     /**
-     * This method is a private wrapper method to add a {@link Document} to the
-     * index.
+     * This method returns the committed files, that have the
+     * {@link ContentFingerprint} fingerprint, e.g. to find all locations of a
+     * file.
+     * 
+     * @param fingerprint
+     *            - a fingerprint
+     * @param max
+     *            - the maximum number of files to return
+     * @return a List of at most max files
+     */
+    protected List<File> getFilesByFingerprint(
+	    String fingerprint, int max) {
+	IndexReader reader = this.acquireIndexReader();
+	if (reader == null) {
+	    return new ArrayList<File>();
+	}
+	try {
+	    return LuceneDirectoryUtility.getFilesByFingerprint(reader,
+		    fingerprint, max);
+	} finally {
+	    releaseIndexReader(reader);
+	}
+    }
+
+    /**
+     * This method is a wrapper method to add a {@link Document} to the index.
+     * The IndexWriter has to be initialized before.
      * 
      * @param doc
      *            - a {@link Document} to be added to the index
      * @return true if doc was added to the index without problems
      */
-    private synchronized boolean addDocumentToIndex(Document doc) {
+    protected synchronized boolean addDocumentToIndex(Document doc) {
 	boolean success = true;
 	try {
 	    this.indexWriter.addDocument(doc);
@@ -482,6 +1495,33 @@ public final class LuceneDirectory {
 	} catch (IOException ignore) {
 	    success = false;
 	}
+	this.spillIfNecessary();
+
+	return success;
+    }
+
+    /**
+     * This method is a wrapper method to replace all documents containing a
+     * {@link Term} by a {@link Document}. The IndexWriter has to be
+     * initialized before.
+     * 
+     * @param term
+     *            - the {@link Term} identifying the documents to be replaced
+     * @param doc
+     *            - the new {@link Document}
+     * @return true if doc was added to the index without problems
+     */
+    protected synchronized boolean updateDocumentInIndex(Term term,
+	    Document doc) {
+	boolean success = true;
+	try {
+	    this.indexWriter.updateDocument(term, doc);
+	} catch (CorruptIndexException ignore) {
+	    success = false;
+	} catch (IOException ignore) {
+	    success = false;
+	}
+	this.spillIfNecessary();
 
 	return success;
     }
@@ -508,42 +1548,185 @@ public final class LuceneDirectory {
     }
 
     /**
-     * Returns an up-to-date {@link IndexSearcher} of this index.
+     * Returns a new {@link IndexReader}, that reflects all changes made to the
+     * index, even the uncommitted ones. The caller has to close the reader.
      * 
-     * @return an up-to-date {@link IndexSearcher} of this index
+     * @return a new {@link IndexReader} or null if the reader cannot be opened
      */
-    protected synchronized IndexSearcher getIndexSearcher() {
+    private synchronized IndexReader openNearRealTimeReader() {
+	this.initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
 	if (this.indexWriter == null) {
-	    this.initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
-	    // references became obsolete
-	    this.indexReader = null;
-	    this.indexSearcher = null;
+	    return null;
 	}
 
-	// if there was no seacher at all, or the index has changed
+	IndexReader reader = null;
 	try {
-	    // if (this.indexReader == null) {
-	    this.indexReader = IndexReader.open(this.directory, true);
-	    // } else {
-	    // IndexReader newReader = IndexReader.openIfChanged(
-	    // this.indexReader, true);
-	    // if (newReader != null) {
-	    // this.indexReader = newReader;
-	    // }
-	    // }
+	    reader = IndexReader.open(this.indexWriter, true);
 	} catch (CorruptIndexException e) {
 	    System.err.println("Lucene index seems to be currupted! "
 		    + "Cannot create a new reader. Reason: " + e.getMessage());
-	    this.indexReader = null;
-	} catch (IOException ignore) {
-	    // will be thrown if no segments* file was found in the index
-	    this.indexReader = null;
+	} catch (IOException e) {
+	    System.err.println("Cannot create a new reader. Reason: "
+		    + e.getMessage());
 	}
-	if (this.indexReader == null) {
-	    return null;
+
+	return reader;
+    }
+
+    /**
+     * Returns an up-to-date {@link IndexReader} of this index and holds a
+     * reference of it for the caller, which has to be released by
+     * {@link #releaseIndexReader(IndexReader)}. Apart from the first call,
+     * this method does not wait for running operations on this index, e.g. a
+     * crawl, and returns the state of their last checkpoint. A replaced
+     * reader is closed, as soon as all its callers have released it.
+     * 
+     * @return an up-to-date IndexReader of this index or null, if the index
+     *         cannot be read
+     */
+    protected IndexReader acquireIndexReader() {
+	Directory dir = this.directory;
+	if (dir == null) {
+	    synchronized (this) {
+		this.initalizeIndexWriter(OpenMode.CREATE_OR_APPEND);
+		dir = this.directory;
+	    }
+	    if (dir == null) {
+		return null;
+	    }
 	}
-	this.indexSearcher = new IndexSearcher(this.indexReader);
 
-	return this.indexSearcher;
+	synchronized (this.searcherLock) {
+	    // if there was no reader at all, the index folder has been
+	    // replaced or the index has changed
+	    IndexReader reader = this.indexReader;
+	    try {
+		if ((reader == null) || (reader.directory() != dir)) {
+		    reader = IndexReader.open(dir, true);
+		} else {
+		    IndexReader newReader = IndexReader.openIfChanged(reader,
+			    true);
+		    if (newReader != null) {
+			reader = newReader;
+		    }
+		}
+	    } catch (CorruptIndexException e) {
+		System.err.println("Lucene index seems to be currupted! "
+			+ "Cannot create a new reader. Reason: "
+			+ e.getMessage());
+		reader = null;
+	    } catch (IOException ignore) {
+		// will be thrown if no segments* file was found in the index
+		reader = null;
+	    } catch (AlreadyClosedException ignore) {
+		// the index has been closed in the meantime
+		reader = null;
+	    }
+	    if (reader != this.indexReader) {
+		// the reference of this index moves to the new reader
+		releaseIndexReader(this.indexReader);
+		this.indexReader = reader;
+	    }
+	    if (reader == null) {
+		return null;
+	    }
+	    reader.incRef();
+
+	    return reader;
+	}
+    }
+
+    /**
+     * Pins an {@link IndexReader} returned by {@link #acquireIndexReader()},
+     * so it can be acquired again by its version, e.g. to continue a paged
+     * search on the same state of the index. The reader stays open for
+     * {@link #PIN_MILLIS} after its last pin, while at most
+     * {@link #MAX_PINNED_READERS} readers of this index are pinned.
+     * 
+     * @param reader
+     *            - (optional, null allowed) a reader of this index
+     */
+    protected void pinIndexReader(IndexReader reader) {
+	if (reader == null) {
+	    return;
+	}
+	long now = System.currentTimeMillis();
+	synchronized (this.searcherLock) {
+	    // pinning again moves the reader to the end
+	    Long version = Long.valueOf(reader.getVersion());
+	    PinnedReader pin = this.pinnedReaders.remove(version);
+	    if (pin == null) {
+		reader.incRef();
+		pin = new PinnedReader(reader);
+	    }
+	    pin.expiryMillis = now + PIN_MILLIS;
+	    this.pinnedReaders.put(version, pin);
+	    this.expirePinnedReaders(now);
+	}
+    }
+
+    /**
+     * Returns a pinned {@link IndexReader} of this index and holds a
+     * reference of it for the caller, which has to be released by
+     * {@link #releaseIndexReader(IndexReader)}.
+     * 
+     * @param version
+     *            - the version of a reader passed to
+     *            {@link #pinIndexReader(IndexReader)}
+     * @return the pinned IndexReader or null, if it has expired
+     */
+    protected IndexReader acquirePinnedIndexReader(long version) {
+	synchronized (this.searcherLock) {
+	    this.expirePinnedReaders(System.currentTimeMillis());
+	    PinnedReader pin = this.pinnedReaders.get(Long.valueOf(version));
+	    if (pin == null) {
+		return null;
+	    }
+	    pin.reader.incRef();
+
+	    return pin.reader;
+	}
+    }
+
+    /**
+     * This method releases the pinned readers, that have expired or exceed
+     * {@link #MAX_PINNED_READERS}. The searcher lock has to be held.
+     * 
+     * @param now
+     *            - the current time in milliseconds
+     */
+    private void expirePinnedReaders(long now) {
+	// the readers are ordered by their expiry
+	Iterator<PinnedReader> it = this.pinnedReaders.values().iterator();
+	while (it.hasNext()) {
+	    PinnedReader pin = it.next();
+	    if ((this.pinnedReaders.size() <= MAX_PINNED_READERS)
+		    && (pin.expiryMillis > now)) {
+		break;
+	    }
+	    it.remove();
+	    releaseIndexReader(pin.reader);
+	}
+    }
+
+    /**
+     * Releases a reference of an {@link IndexReader} returned by
+     * {@link #acquireIndexReader()} or {@link #acquirePinnedIndexReader(long)}.
+     * The reader is closed, if it has been replaced and this was its last
+     * reference.
+     * 
+     * @param reader
+     *            - an IndexReader or null
+     */
+    protected static void releaseIndexReader(IndexReader reader) {
+	if (reader == null) {
+	    return;
+	}
+	try {
+	    reader.decRef();
+	} catch (IOException e) {
+	    System.err.println("Cannot close a Lucene index reader. Reason: "
+		    + e.getMessage());
+	}
     }
 }
@@ -1,28 +1,35 @@
 package de.mround.searchbooster.api;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.TermVector;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.document.NumericField;
-import org.apache.tika.exception.TikaException;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
 import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.xml.sax.ContentHandler;
-import org.xml.sax.SAXException;
 
 import de.mround.searchbooster.api.Configuration.Index;
-import de.mround.searchbooster.api.Utility.DatePrecision;
+import de.mround.searchbooster.api.ExtractionService.ExtractionResult;
 
 /**
  * LuceneDirectoryUtility provides many useful methods to operate on a
@@ -31,18 +38,43 @@ import de.mround.searchbooster.api.Utility.DatePrecision;
  * @author Kai Torben Ohlhus
  */
 public final class LuceneDirectoryUtility {
-    // List of prohibited well-known file extensions
-    private final static List<String> whitelist = Collections
-	    .unmodifiableList(new LinkedList<String>() {
-		// anonymous inner class
-		private static final long serialVersionUID = 1L;
-		{
-		    add(".doc");
-		    add(".docx");
-		    add(".odt");
-		    add(".pdf");
-		}
-	    });
+    // Constants
+    protected static final Version LUCENE_VERSION = Version.LUCENE_35;
+    private static final FieldSelector PATH_KEY_SELECTOR = new MapFieldSelector(
+	    new String[] { Index.PATH_KEY });
+
+    /**
+     * TermTokenStream is a private helper class, that passes a collection of
+     * terms, e.g. n-grams, to the IndexWriter as tokens, without further
+     * analysis.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static final class TermTokenStream extends TokenStream {
+	private final CharTermAttribute termAttribute = this
+		.addAttribute(CharTermAttribute.class);
+	private final Iterator<String> it;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param terms
+	 *            - the terms to pass as tokens
+	 */
+	private TermTokenStream(Collection<String> terms) {
+	    this.it = terms.iterator();
+	}
+
+	@Override
+	public boolean incrementToken() {
+	    if (!this.it.hasNext()) {
+		return false;
+	    }
+	    this.clearAttributes();
+	    this.termAttribute.setEmpty().append(this.it.next());
+	    return true;
+	}
+    }
 
     /**
      * Private constructor to avoid instantiation.
@@ -51,32 +83,140 @@ public final class LuceneDirectoryUtility {
     }
 
     /**
-     * This method generates a {@link Document} representation of a
-     * Meta-Index-Entry, that will be stored in a {@link LuceneDirectory}.
+     * Returns an indexed, but not stored field consisting of the given terms.
+     * Only the occurrence of the terms is recorded.
      * 
-     * @param path
-     *            - a path url to a directory that was in the index
-     * @param recursionDepth
-     *            - the recursion depth of indexing
-     * @param millis
-     *            - a timestamp in milliseconds indicating the age of this
-     *            Meta-Index-Entry
-     * @return a {@link Document} representation of a Meta-Index-Entry
+     * @param name
+     *            - the name of the field
+     * @param terms
+     *            - the terms of the field
+     * @return a field ready to be added to a {@link Document}
      */
-    protected static Document getIndexMetaDocument(String path,
-	    int recursionDepth, long millis) {
-	Document doc = new Document();
+    private static Field getTermsField(String name, Collection<String> terms) {
+	Field field = new Field(name, new TermTokenStream(terms));
+	field.setOmitNorms(true);
+	field.setIndexOptions(IndexOptions.DOCS_ONLY);
+	return field;
+    }
 
-	doc.add(new NumericField(Index.META_DATE_INDEXED)
-		.setLongValue(DatePrecision.convertPrecision(millis,
-			DatePrecision.Millisecond,
-			Index.META_DATE_INDEXED_PRECISION)));
-	doc.add(new Field(Index.META_PATH, path, Field.Store.YES,
-		Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-	doc.add(new Field(Index.META_RECURSIVE, Integer
-		.toString(recursionDepth), Field.Store.YES,
-		Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+    /**
+     * Returns the canonical paths of a directory and all directories
+     * containing it, as they are stored in {@link Index#ANCESTOR_PATH}. The
+     * number of these paths is the {@link Index#DEPTH} of the directory.
+     * 
+     * @param dir
+     *            - the canonical path of a directory (see
+     *            {@link Utility#canonicalizePath(String)})
+     * @return the canonical paths from the file system root down to dir
+     */
+    protected static List<String> getAncestorPaths(String dir) {
+	List<String> resultList = new ArrayList<String>();
+	int index = dir.indexOf(File.separator);
+	while (index >= 0) {
+	    resultList.add(dir.substring(0, index + File.separator.length()));
+	    index = dir.indexOf(File.separator, index
+		    + File.separator.length());
+	}
+	return resultList;
+    }
+
+    /**
+     * Returns a Query matching all files located in a directory or below it.
+     * It is a single term lookup in {@link Index#ANCESTOR_PATH}, regardless
+     * of the number of subdirectories.
+     * 
+     * @param dir
+     *            - the path of a directory
+     * @return a Query matching the files of the directory tree
+     */
+    protected static Query getSubtreeQuery(String dir) {
+	return new TermQuery(new Term(Index.ANCESTOR_PATH,
+		Utility.canonicalizePath(dir)));
+    }
+
+    /**
+     * Returns the extension of a file name, as it is stored in
+     * {@link Index#EXTENSION}.
+     * 
+     * @param name
+     *            - a file name
+     * @return the lower case extension without the period or null, if the
+     *         file name has none
+     */
+    protected static String getExtension(String name) {
+	int index = name.lastIndexOf('.');
+	if ((index < 0) || (index == (name.length() - 1))) {
+	    return null;
+	}
+	return name.substring(index + 1).toLowerCase();
+    }
+
+    /**
+     * Returns the distinct n-grams of length
+     * {@link Index#FILE_NAME_NGRAM_LENGTH} of a string in lower case, as they
+     * are stored in {@link Index#FILE_NAME_NGRAMS}.
+     * 
+     * @param s
+     *            - a string, e.g. a file name or a part of a file name pattern
+     * @return the n-grams of s in order of their first occurrence, empty if s
+     *         is shorter than the n-gram length
+     */
+    protected static Set<String> getNGrams(String s) {
+	String lowerCase = s.toLowerCase();
+	Set<String> resultSet = new LinkedHashSet<String>();
+	for (int i = 0; (i + Index.FILE_NAME_NGRAM_LENGTH) <= lowerCase
+		.length(); i++) {
+	    resultSet.add(lowerCase.substring(i, i
+		    + Index.FILE_NAME_NGRAM_LENGTH));
+	}
+	return resultSet;
+    }
 
+    /**
+     * Returns the {@link Analyzer}, that tokenizes the analyzed fields of a
+     * {@link LuceneDirectory}, e.g. {@link Index#TEXT_CONTENT}. Queries on
+     * these fields have to be parsed with the same Analyzer.
+     * 
+     * @return a new {@link Analyzer}
+     */
+    protected static Analyzer getAnalyzer() {
+	return new StandardAnalyzer(LUCENE_VERSION);
+    }
+
+    /**
+     * Returns the key, that identifies the {@link Document} representation of
+     * the {@link File} f in a {@link LuceneDirectory}. The key is the
+     * canonical path of f's directory (see
+     * {@link Utility#canonicalizePath(String)}) followed by f's name.
+     * 
+     * @param f
+     *            - a {@link File}
+     * @return the key of f's {@link Document} representation
+     */
+    protected static String getPathKey(File f) {
+	String url = f.getAbsolutePath().substring(0,
+		f.getAbsolutePath().lastIndexOf(File.separator))
+		+ File.separator;
+	return Utility.canonicalizePath(url) + f.getName();
+    }
+
+    /**
+     * Returns a {@link Document} representation of the {@link File} f, that
+     * only contains the file system information of f and is marked as
+     * {@link Index#PENDING_ENRICHMENT}. It will be replaced by the
+     * {@link IndexEnricher} later on.
+     * 
+     * @param f
+     *            - the {@link File} that should have a {@link Document}
+     *            representation
+     * @return a {@link Document} representation of the {@link File} f without
+     *         the information extracted by Tika
+     */
+    protected static Document getPendingDocument(File f) {
+	Document doc = getDocument(f, null, null);
+	doc.add(new Field(Index.PENDING_ENRICHMENT,
+		Index.PENDING_ENRICHMENT_VALUE, Field.Store.YES,
+		Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
 	return doc;
     }
 
@@ -88,125 +228,159 @@ public final class LuceneDirectoryUtility {
      * @param f
      *            - the {@link File} that should have a {@link Document}
      *            representation
+     * @param extraction
+     *            - (optional, null allowed) the outcome of f's extraction by
+     *            the {@link ExtractionService}. If extraction is null, only
+     *            the file system information of f is used.
+     * @param fingerprint
+     *            - (optional, null allowed) the {@link ContentFingerprint} of
+     *            f
      * @return a {@link Document} representation of the {@link File} f. Ready to
      *         insert it into the Lucene index
      */
-    protected static Document getDocument(File f) {
+    protected static Document getDocument(File f, ExtractionResult extraction,
+	    String fingerprint) {
 	Document doc = new Document();
 
 	// flat file info
 	doc.add(new Field(Index.FILE_NAME, f.getName(), Field.Store.YES,
 		Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+	doc.add(getTermsField(Index.FILE_NAME_NGRAMS, getNGrams(f.getName())));
+	String extension = getExtension(f.getName());
+	if (extension != null) {
+	    doc.add(new Field(Index.EXTENSION, extension, Field.Store.YES,
+		    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+	}
 	String url = f.getAbsolutePath().substring(0,
 		f.getAbsolutePath().lastIndexOf(File.separator))
 		+ File.separator;
 	doc.add(new Field(Index.URL, Utility.canonicalizePath(url),
 		Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
 		TermVector.NO));
-	doc.add(new Field(Index.LAST_MODIFIED, Long.toString(DatePrecision
-		.convertPrecision(f.lastModified(), DatePrecision.Millisecond,
-			DatePrecision.Day)), Field.Store.YES,
+	List<String> ancestors = getAncestorPaths(Utility.canonicalizePath(url));
+	doc.add(getTermsField(Index.ANCESTOR_PATH, ancestors));
+	doc.add(new NumericField(Index.DEPTH).setIntValue(ancestors.size()));
+	// identity of the entry for incremental indexing
+	doc.add(new Field(Index.PATH_KEY, getPathKey(f), Field.Store.YES,
 		Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-	doc.add(new NumericField(Index.LAST_MODIFIED_SEARCH, 1,
-		Field.Store.YES, true).setLongValue(DatePrecision
-		.convertPrecision(f.lastModified(), DatePrecision.Millisecond,
-			DatePrecision.Day)));
-
-	if (f.getAbsolutePath().equals("/tmp/gedit-fifo.EARB8V")) {
-	    System.err.println("DEBUG " + f.canRead() + " " + f.canWrite());
+	doc.add(new NumericField(Index.FILE_SIZE,
+		Index.NUMERIC_PRECISION_STEP, Field.Store.YES, true)
+		.setLongValue(f.length()));
+	doc.add(new NumericField(Index.LAST_MODIFIED_MILLIS,
+		Index.NUMERIC_PRECISION_STEP, Field.Store.YES, true)
+		.setLongValue(f.lastModified()));
+	doc.add(new NumericField(Index.INDEXED_MILLIS,
+		Index.NUMERIC_PRECISION_STEP, Field.Store.NO, true)
+		.setLongValue(System.currentTimeMillis()));
+	if (fingerprint != null) {
+	    doc.add(new Field(Index.CONTENT_HASH, fingerprint, Field.Store.YES,
+		    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
 	}
+	doc.add(new Field(Index.SCHEMA_VERSION, Integer
+		.toString(Index.SCHEMA_VERSION_VALUE), Field.Store.YES,
+		Field.Index.NO, TermVector.NO));
 
 	// advanced file info using Tika
-	FileInputStream is = null;
-	String type = "";
-	String ext = "";
-	try {
-	    is = new FileInputStream(f);
-
-	    // Get file extension (if period exists)
-	    if (f.getName().contains(".")) {
-		ext = f.getName().substring(f.getName().lastIndexOf("."))
-			.toLowerCase();
-	    }
+	if (extraction == null) {
+	    return doc;
+	}
+	Metadata metadata = extraction.getMetadata();
+	String textContent = extraction.getTextContent();
 
-	    ContentHandler contenthandler = new BodyContentHandler();
-	    Metadata metadata = new Metadata();
-	    metadata.set(Metadata.RESOURCE_NAME_KEY, f.getName());
-	    Parser parser = new AutoDetectParser();
+	// get MIME-type, if file is no byte stream
+	// MIME-type in form xxx/xxx
+	String type = extraction.getMediaType().toString();
+	if (!type.equals("application/octet-stream")) {
+	    type = extraction.getMediaType().getType();
+	}
 
-	    // Parse file
-	    if (f.isFile() && f.canRead()) {
-		parser.parse(is, contenthandler, metadata, new ParseContext());
+	if (type.equals("text")) {
+	    // mostly text files, octet-stream (byte stream) not
+	    // wanted
+	    doc.add(new Field(Index.TYPE, "document", Field.Store.YES,
+		    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+	    // Add content, tokenized by the analyzer of the index
+	    if (textContent != null) {
+		doc.add(new Field(Index.TEXT_CONTENT, textContent,
+			Field.Store.NO, Field.Index.ANALYZED, TermVector.NO));
 	    }
+	} else if (type.equals("application")) {
+	    // mostly text files, octet-stream (byte stream) not
+	    // wanted
+	    doc.add(new Field(Index.TYPE, "document", Field.Store.YES,
+		    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
 
-	    // Print metadata
-	    // for (String n : metadata.names()) {
-	    // System.out.println(n + ": " + metadata.get(n));
-	    // }
-
-	    type = metadata.get("Content-Type");
-
-	    // get MIME-type, if file is no byte stream
-	    // MIME-type in form xxx/xxx
-	    if (!type.equals("application/octet-stream") && type.contains("/")) {
-		type = type.substring(0, type.indexOf("/"));
+	    // only available for whitelisted file extensions
+	    if (textContent != null) {
+		doc.add(new Field(Index.TEXT_CONTENT, textContent,
+			Field.Store.NO, Field.Index.ANALYZED, TermVector.NO));
 	    }
+	} else if (type.equals("image")) {
+	    doc.add(new Field(Index.TYPE, "image", Field.Store.YES,
+		    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+	} else if (type.equals("audio")) {
+	    doc.add(new Field(Index.TYPE, "audio", Field.Store.YES,
+		    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
 
-	    // System.out.println(f.getName() + ": " + type);
-
-	    if (type.equals("text")) {
-		// mostly text files, octet-stream (byte stream) not
-		// wanted
-		doc.add(new Field(Index.TYPE, "document", Field.Store.YES,
+	    // Store artist or author
+	    if (metadata.get("xmpDM:artist") != null) {
+		doc.add(new Field(Index.INTERPRET, metadata
+			.get("xmpDM:artist").toLowerCase(), Field.Store.YES,
 			Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-		// Add content
-		doc.add(new Field(Index.TEXT_CONTENT,
-			contenthandler.toString(), Field.Store.NO,
+	    } else if (metadata.get("author") != null) {
+		doc.add(new Field(Index.INTERPRET, metadata.get("author")
+			.toLowerCase(), Field.Store.YES,
 			Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-	    } else if (type.equals("application")) {
-		// mostly text files, octet-stream (byte stream) not
-		// wanted
-		doc.add(new Field(Index.TYPE, "document", Field.Store.YES,
+	    }
+	    // Store album
+	    if (metadata.get("xmpDM:album") != null) {
+		doc.add(new Field(Index.ALBUM, metadata.get("xmpDM:album")
+			.toLowerCase(), Field.Store.YES,
 			Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+	    }
+	} else {
+	    // no entry
+	}
 
-		if (whitelist.contains(ext)) {
-		    doc.add(new Field(Index.TEXT_CONTENT, contenthandler
-			    .toString().toLowerCase(), Field.Store.NO,
-			    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-		}
-	    } else if (type.equals("image")) {
-		doc.add(new Field(Index.TYPE, "image", Field.Store.YES,
-			Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-	    } else if (type.equals("audio")) {
-		doc.add(new Field(Index.TYPE, "audio", Field.Store.YES,
-			Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
+	return doc;
+    }
 
-		// Store artist or author
-		if (metadata.get("xmpDM:artist") != null) {
-		    doc.add(new Field(Index.INTERPRET, metadata.get(
-			    "xmpDM:artist").toLowerCase(), Field.Store.YES,
-			    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-		} else if (metadata.get("author") != null) {
-		    doc.add(new Field(Index.INTERPRET, metadata.get("author")
-			    .toLowerCase(), Field.Store.YES,
-			    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-		}
-		// Store album
-		if (metadata.get("xmpDM:album") != null) {
-		    doc.add(new Field(Index.ALBUM, metadata.get("xmpDM:album")
-			    .toLowerCase(), Field.Store.YES,
-			    Field.Index.NOT_ANALYZED_NO_NORMS, TermVector.NO));
-		}
-	    } else {
-		// no entry
+    /**
+     * Returns the files, whose {@link Document} representations in an index
+     * have the {@link ContentFingerprint} fingerprint. These files are copies
+     * of each other, as long as the fingerprint is complete (see
+     * {@link ContentFingerprint#isComplete(File)}).
+     * 
+     * @param reader
+     *            - an {@link IndexReader} of the index
+     * @param fingerprint
+     *            - a fingerprint
+     * @param max
+     *            - the maximum number of files to return
+     * @return a List of at most max files
+     */
+    protected static List<File> getFilesByFingerprint(IndexReader reader,
+	    String fingerprint, int max) {
+	List<File> resultList = new ArrayList<File>();
+	TermDocs termDocs = null;
+	try {
+	    termDocs = reader.termDocs(new Term(Index.CONTENT_HASH,
+		    fingerprint));
+	    while ((resultList.size() < max) && termDocs.next()) {
+		Document d = reader.document(termDocs.doc(), PATH_KEY_SELECTOR);
+		resultList.add(new File(d.get(Index.PATH_KEY)));
 	    }
-
-	} catch (FileNotFoundException ignore) {
 	} catch (IOException ignore) {
-	} catch (SAXException ignore) {
-	} catch (TikaException ignore) {
+	    // no copies known
+	} finally {
+	    if (termDocs != null) {
+		try {
+		    termDocs.close();
+		} catch (IOException ignore) {
+		}
+	    }
 	}
 
-	return doc;
+	return resultList;
     }
 }
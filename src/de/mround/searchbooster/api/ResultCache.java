@@ -0,0 +1,244 @@
+package de.mround.searchbooster.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.mround.searchbooster.api.Configuration.Caching;
+
+/**
+ * ResultCache keeps the pages of recent searches, so repeated searches are
+ * answered without building and running their Query again. A page is stored
+ * under a normalized form of its search request and is only valid for the
+ * versions of the index readers, that have been searched. As soon as a
+ * search sees newer versions, e.g. after an index committed its changes, all
+ * pages of the old versions are dropped. Searches of older versions, e.g. the
+ * pages of a cursor, are not cached.<br />
+ * <br />
+ * The least recently used pages are evicted, when the estimated size of all
+ * pages exceeds {@link Caching#RESULT_CACHE_MAX_BYTES}. All methods are
+ * thread-safe.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class ResultCache {
+    // Constants
+    // estimated size of an object header and its references
+    private static final long OBJECT_BYTES = 32;
+    // Members
+    private final Map<String, Page> pages = new LinkedHashMap<String, Page>(
+	    16, 0.75f, true);
+    // the reader versions of all pages
+    private long[] versions = null;
+    private long bytes = 0;
+    // statistics
+    private long numHits = 0;
+    private long numMisses = 0;
+    private long numEvictions = 0;
+
+    /**
+     * Page is a helper class describing the results of a search page.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    protected static final class Page {
+	private final int totalHits;
+	private final List<String> paths;
+	private final long[] lastModified;
+	private final Map<String, Map<String, Integer>> facetCounts;
+	private final String nextCursor;
+	private final long bytes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param totalHits
+	 *            - the number of all hits of the search
+	 * @param paths
+	 *            - the paths of the results of the page
+	 * @param lastModified
+	 *            - the modification times of the results in milliseconds
+	 * @param facetCounts
+	 *            - a Map from facet names to Maps from their values to the
+	 *            number of hits, see {@link FacetCollector}. It must not
+	 *            be modified afterwards.
+	 * @param nextCursor
+	 *            - (optional, null allowed) the cursor of the next page
+	 */
+	protected Page(int totalHits, List<String> paths, long[] lastModified,
+		Map<String, Map<String, Integer>> facetCounts, String nextCursor) {
+	    this.totalHits = totalHits;
+	    this.paths = Collections.unmodifiableList(paths);
+	    this.lastModified = lastModified;
+	    this.facetCounts = Collections.unmodifiableMap(facetCounts);
+	    this.nextCursor = nextCursor;
+
+	    long b = 4 * OBJECT_BYTES + 8L * lastModified.length;
+	    for (String path : paths) {
+		b += OBJECT_BYTES + 2L * path.length();
+	    }
+	    for (Map<String, Integer> counts : facetCounts.values()) {
+		for (String value : counts.keySet()) {
+		    b += 2 * OBJECT_BYTES + 2L * value.length();
+		}
+	    }
+	    if (nextCursor != null) {
+		b += OBJECT_BYTES + 2L * nextCursor.length();
+	    }
+	    this.bytes = b;
+	}
+
+	/**
+	 * Returns the number of all hits of the search.
+	 * 
+	 * @return the number of all hits of the search
+	 */
+	protected int getTotalHits() {
+	    return this.totalHits;
+	}
+
+	/**
+	 * Returns the paths of the results of the page.
+	 * 
+	 * @return an unmodifiable List of paths in the order of the results
+	 */
+	protected List<String> getPaths() {
+	    return this.paths;
+	}
+
+	/**
+	 * Returns the modification time of a result.
+	 * 
+	 * @param i
+	 *            - the index of the result
+	 * @return the modification time in milliseconds
+	 */
+	protected long getLastModified(int i) {
+	    return this.lastModified[i];
+	}
+
+	/**
+	 * Returns the facet counts of the search.
+	 * 
+	 * @return an unmodifiable Map from facet names to Maps from their values
+	 *         to the number of hits. It is empty for all pages but the
+	 *         first one.
+	 */
+	protected Map<String, Map<String, Integer>> getFacetCounts() {
+	    return this.facetCounts;
+	}
+
+	/**
+	 * Returns the cursor of the next page.
+	 * 
+	 * @return the cursor of the next page or null, if this is the last page
+	 */
+	protected String getNextCursor() {
+	    return this.nextCursor;
+	}
+    }
+
+    /**
+     * Returns a cached page.
+     * 
+     * @param key
+     *            - the normalized search request of the page
+     * @param readerVersions
+     *            - the current versions of the index readers
+     * @return the page or null, if it is not cached for these versions
+     */
+    protected synchronized Page get(String key, long[] readerVersions) {
+	Page page = null;
+	if (this.checkVersions(readerVersions)) {
+	    page = this.pages.get(key);
+	}
+	if (page == null) {
+	    this.numMisses++;
+	} else {
+	    this.numHits++;
+	}
+	return page;
+    }
+
+    /**
+     * This method caches a page and evicts the least recently used pages, if
+     * the cache grows too large.
+     * 
+     * @param key
+     *            - the normalized search request of the page
+     * @param readerVersions
+     *            - the versions of the index readers, that have been searched
+     * @param page
+     *            - the page to cache
+     */
+    protected synchronized void put(String key, long[] readerVersions,
+	    Page page) {
+	if (!this.checkVersions(readerVersions)) {
+	    return;
+	}
+	Page old = this.pages.put(key, page);
+	if (old != null) {
+	    this.bytes -= getBytes(key, old);
+	}
+	this.bytes += getBytes(key, page);
+
+	long maxBytes = Caching.RESULT_CACHE_MAX_BYTES.get();
+	Iterator<Map.Entry<String, Page>> it = this.pages.entrySet()
+		.iterator();
+	while ((this.bytes > maxBytes) && it.hasNext()) {
+	    Map.Entry<String, Page> eldest = it.next();
+	    this.bytes -= getBytes(eldest.getKey(), eldest.getValue());
+	    it.remove();
+	    this.numEvictions++;
+	}
+    }
+
+    /**
+     * This method drops all pages, if they belong to older reader versions.
+     * 
+     * @param readerVersions
+     *            - the searched versions of the index readers
+     * @return true if the pages belong to readerVersions, false if one of
+     *         them is older than the versions of the pages
+     */
+    private boolean checkVersions(long[] readerVersions) {
+	if (Arrays.equals(this.versions, readerVersions)) {
+	    return true;
+	}
+	if (this.versions != null) {
+	    for (int i = 0; i < readerVersions.length; i++) {
+		if (readerVersions[i] < this.versions[i]) {
+		    return false;
+		}
+	    }
+	}
+	this.numEvictions += this.pages.size();
+	this.pages.clear();
+	this.bytes = 0;
+	this.versions = readerVersions.clone();
+	return true;
+    }
+
+    /**
+     * Returns the estimated size of a cache entry.
+     * 
+     * @param key
+     *            - the key of the entry
+     * @param page
+     *            - the page of the entry
+     * @return the estimated size in bytes
+     */
+    private static long getBytes(String key, Page page) {
+	return OBJECT_BYTES + 2L * key.length() + page.bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+	return this.numHits + " hits, " + this.numMisses + " misses, "
+		+ this.numEvictions + " evictions, " + this.pages.size()
+		+ " pages (" + this.bytes + " bytes)";
+    }
+}
@@ -0,0 +1,218 @@
+package de.mround.searchbooster.api;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RootRegistry is an immutable snapshot of the roots of an index, i.e. the
+ * directories, whose crawl has been completed. Each root has a recursion
+ * depth, the time of its last complete crawl and the number of its files at
+ * that time.<br />
+ * <br />
+ * The registry is stored in the user data of each commit of the index, so
+ * the roots are known without searching the index. Changes create a new
+ * snapshot.
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public final class RootRegistry {
+    // Constants
+    protected static final RootRegistry EMPTY = new RootRegistry(
+	    new TreeMap<String, Root>());
+    // the number of files of a root, that has not been counted yet
+    protected static final long UNKNOWN = -1;
+    // marks the user data of an index, that has a registry
+    private static final String VERSION_KEY = "RootRegistry";
+    private static final String VERSION_VALUE = "1";
+    // prefix of the user data key of each root
+    private static final String ROOT_KEY_PREFIX = "Root:";
+    private static final String SEPARATOR = ",";
+    // Members
+    private final Map<String, Root> roots;
+
+    /**
+     * Root is a helper class describing a single root of an index.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    protected static final class Root {
+	private final int recursionDepth;
+	private final long indexedMillis;
+	private final long numFiles;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param recursionDepth
+	 *            - the recursion depth of indexing
+	 * @param indexedMillis
+	 *            - the time of the last complete crawl in milliseconds or
+	 *            0, if it is unknown
+	 * @param numFiles
+	 *            - the number of files or {@link RootRegistry#UNKNOWN}
+	 */
+	private Root(int recursionDepth, long indexedMillis, long numFiles) {
+	    this.recursionDepth = recursionDepth;
+	    this.indexedMillis = indexedMillis;
+	    this.numFiles = numFiles;
+	}
+
+	/**
+	 * Returns the recursion depth of indexing.
+	 * 
+	 * @return the recursion depth of indexing
+	 */
+	protected int getRecursionDepth() {
+	    return this.recursionDepth;
+	}
+
+	/**
+	 * Returns the time of the last complete crawl.
+	 * 
+	 * @return the time of the last complete crawl in milliseconds or 0, if
+	 *         it is unknown
+	 */
+	protected long getIndexedMillis() {
+	    return this.indexedMillis;
+	}
+
+	/**
+	 * Returns the number of files at the time of the last complete crawl.
+	 * 
+	 * @return the number of files or {@link RootRegistry#UNKNOWN}
+	 */
+	protected long getNumFiles() {
+	    return this.numFiles;
+	}
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param roots
+     *            - a Map from the paths of the roots to their description. It
+     *            must not be modified afterwards.
+     */
+    private RootRegistry(Map<String, Root> roots) {
+	this.roots = Collections.unmodifiableMap(roots);
+    }
+
+    /**
+     * Returns the registry stored in the user data of a commit.
+     * 
+     * @param userData
+     *            - the user data of a commit
+     * @return the registry or null, if the commit has no registry
+     */
+    protected static RootRegistry fromUserData(Map<String, String> userData) {
+	if ((userData == null)
+		|| !VERSION_VALUE.equals(userData.get(VERSION_KEY))) {
+	    return null;
+	}
+
+	Map<String, Root> roots = new TreeMap<String, Root>();
+	for (Map.Entry<String, String> entry : userData.entrySet()) {
+	    if (!entry.getKey().startsWith(ROOT_KEY_PREFIX)) {
+		continue;
+	    }
+	    String[] values = entry.getValue().split(SEPARATOR);
+	    try {
+		roots.put(entry.getKey().substring(ROOT_KEY_PREFIX.length()),
+			new Root(Integer.parseInt(values[0]), Long
+				.parseLong(values[1]), Long
+				.parseLong(values[2])));
+	    } catch (RuntimeException e) {
+		System.err.println("Ignoring the invalid root <"
+			+ entry.getKey() + ">.");
+	    }
+	}
+
+	return new RootRegistry(roots);
+    }
+
+    /**
+     * Returns the user data of a commit, that stores this registry.
+     * 
+     * @return the user data of a commit
+     */
+    protected Map<String, String> toUserData() {
+	Map<String, String> userData = new HashMap<String, String>();
+	userData.put(VERSION_KEY, VERSION_VALUE);
+	for (Map.Entry<String, Root> entry : this.roots.entrySet()) {
+	    Root root = entry.getValue();
+	    userData.put(ROOT_KEY_PREFIX + entry.getKey(), root.recursionDepth
+		    + SEPARATOR + root.indexedMillis + SEPARATOR
+		    + root.numFiles);
+	}
+	return userData;
+    }
+
+    /**
+     * Returns a registry, that contains a root in addition to or instead of
+     * the roots of this registry.
+     * 
+     * @param path
+     *            - the canonical path of the root
+     * @param recursionDepth
+     *            - the recursion depth of indexing
+     * @param indexedMillis
+     *            - the time of the last complete crawl in milliseconds
+     * @param numFiles
+     *            - the number of files or {@link #UNKNOWN}
+     * @return a new registry
+     */
+    protected RootRegistry put(String path, int recursionDepth,
+	    long indexedMillis, long numFiles) {
+	Map<String, Root> roots = new TreeMap<String, Root>(this.roots);
+	roots.put(path, new Root(recursionDepth, indexedMillis, numFiles));
+	return new RootRegistry(roots);
+    }
+
+    /**
+     * Returns a registry without a root.
+     * 
+     * @param path
+     *            - the canonical path of the root
+     * @param subDirectories
+     *            - true if all roots below path have to be removed, too
+     * @return a new registry or this registry, if nothing has been removed
+     */
+    protected RootRegistry remove(String path, boolean subDirectories) {
+	Map<String, Root> roots = new TreeMap<String, Root>(this.roots);
+	for (String s : this.roots.keySet()) {
+	    if (s.equals(path)
+		    || (subDirectories && Utility.isSubDirectory(path, s))) {
+		roots.remove(s);
+	    }
+	}
+	return (roots.size() == this.roots.size()) ? this : new RootRegistry(
+		roots);
+    }
+
+    /**
+     * Returns all roots.
+     * 
+     * @return an unmodifiable Map from the paths of the roots to their
+     *         description
+     */
+    protected Map<String, Root> getRoots() {
+	return this.roots;
+    }
+
+    /**
+     * Returns a Map-Representation of the roots. For the format see
+     * {@link LuceneDirectory#getIndexContentMap()}.
+     * 
+     * @return a new Map from the paths of the roots to their recursion depth
+     */
+    protected Map<String, Integer> getContentMap() {
+	Map<String, Integer> resultMap = new HashMap<String, Integer>();
+	for (Map.Entry<String, Root> entry : this.roots.entrySet()) {
+	    resultMap.put(entry.getKey(),
+		    Integer.valueOf(entry.getValue().recursionDepth));
+	}
+	return resultMap;
+    }
+}
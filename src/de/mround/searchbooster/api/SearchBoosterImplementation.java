@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.InvalidPropertiesFormatException;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -21,11 +22,23 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.w3c.dom.Document;
 
+import de.mround.searchbooster.api.Configuration.Caching;
+import de.mround.searchbooster.api.Configuration.Checkpoint;
+import de.mround.searchbooster.api.Configuration.Extraction;
+import de.mround.searchbooster.api.Configuration.Paging;
+import de.mround.searchbooster.api.Configuration.ParallelSearch;
+import de.mround.searchbooster.api.Configuration.Storage;
+import de.mround.searchbooster.api.Configuration.Watcher;
+import de.mround.searchbooster.api.LuceneDirectory.DirectoryType;
 import de.mround.searchbooster.api.xml.RequestAbortParser;
 import de.mround.searchbooster.api.xml.RequestIndexChangeParser;
 import de.mround.searchbooster.api.xml.RequestIndexInfoParser;
@@ -51,14 +64,19 @@ public class SearchBoosterImplementation implements SearchBooster {
 		// anonymous inner class
 		private static final long serialVersionUID = 1L;
 		{
-		    put("persistent", new LuceneDirectory("persistent"));
-		    put("temporary", new LuceneDirectory("temporary"));
+		    put("persistent", new LuceneDirectory("persistent", true));
+		    put("temporary", new LuceneDirectory("temporary", false,
+			    Storage.TEMPORARY_DIRECTORY,
+			    Storage.TEMPORARY_RAM_MAX_BYTES));
 		}
 	    });
     private final ArrayBlockingQueue<Document> responseQueue = new ArrayBlockingQueue<Document>(
 	    this.responseQueueSize);
     private final ExecutorService executorService = Executors
 	    .newFixedThreadPool(this.threadPoolSize);
+    // searches slices of the segments of the indexes, null if disabled
+    private ThreadPoolExecutor searchExecutor = null;
+    private final ResultCache resultCache = new ResultCache();
     private Future<?> currentRequest = null;
     private TaskType currentRequestType = null;
 
@@ -131,6 +149,48 @@ public class SearchBoosterImplementation implements SearchBooster {
 		}
 		EXPIRE_TIME_MILLIS.set(l);
 	    }
+	    // update the extraction limits (if available)
+	    loadProperty(properties, "EXTRACTION_MAX_BYTES",
+		    Extraction.MAX_BYTES);
+	    loadProperty(properties, "EXTRACTION_MAX_CHARS",
+		    Extraction.MAX_CHARS);
+	    loadProperty(properties, "EXTRACTION_TIMEOUT_MILLIS",
+		    Extraction.TIMEOUT_MILLIS);
+	    loadProperty(properties, "EXTRACTION_CACHE_MAX_BYTES",
+		    Extraction.CACHE_MAX_BYTES);
+	    loadProperty(properties, "EXTRACTION_FINGERPRINT_MIN_BYTES",
+		    Extraction.FINGERPRINT_MIN_BYTES);
+	    // update the checkpoints of indexing (if available)
+	    loadProperty(properties, "CHECKPOINT_DOCUMENTS",
+		    Checkpoint.DOCUMENTS);
+	    loadProperty(properties, "CHECKPOINT_INTERVAL_MILLIS",
+		    Checkpoint.INTERVAL_MILLIS);
+	    // update the IndexWatcher configuration (if available)
+	    loadProperty(properties, "WATCHER_POLL_INTERVAL_MILLIS",
+		    Watcher.POLL_INTERVAL_MILLIS);
+	    loadProperty(properties, "WATCHER_DEBOUNCE_MILLIS",
+		    Watcher.DEBOUNCE_MILLIS);
+	    loadProperty(properties, "WATCHER_RECONCILE_INTERVAL_MILLIS",
+		    Watcher.RECONCILE_INTERVAL_MILLIS);
+	    loadProperty(properties, "WATCHER_MAX_DIRECTORIES",
+		    Watcher.MAX_DIRECTORIES);
+	    // update the storage backends (if available)
+	    loadProperty(properties, "PERSISTENT_DIRECTORY",
+		    Storage.PERSISTENT_DIRECTORY);
+	    loadProperty(properties, "TEMPORARY_DIRECTORY",
+		    Storage.TEMPORARY_DIRECTORY);
+	    loadProperty(properties, "TEMPORARY_RAM_MAX_BYTES",
+		    Storage.TEMPORARY_RAM_MAX_BYTES);
+	    // update the search configuration (if available)
+	    loadProperty(properties, "PAGE_SIZE", Paging.PAGE_SIZE);
+	    loadProperty(properties, "PARALLEL_SEARCH_THREADS",
+		    ParallelSearch.THREADS);
+	    loadProperty(properties, "PARALLEL_SEARCH_MIN_SLICE_DOCUMENTS",
+		    ParallelSearch.MIN_SLICE_DOCUMENTS);
+	    loadProperty(properties, "RESULT_CACHE_MAX_BYTES",
+		    Caching.RESULT_CACHE_MAX_BYTES);
+	    loadProperty(properties, "FILTER_CACHE_MAX_FILTERS",
+		    Caching.FILTER_CACHE_MAX_FILTERS);
 	} else {
 	    System.out.println("[info] Default configuration is used.");
 
@@ -145,6 +205,44 @@ public class SearchBoosterImplementation implements SearchBooster {
 	    // save value for upcoming runs
 	    properties.setProperty("EXPIRE_TIME_MILLIS",
 		    Long.toString(EXPIRE_TIME_MILLIS.get()));
+	    properties.setProperty("EXTRACTION_MAX_BYTES",
+		    Long.toString(Extraction.MAX_BYTES.get()));
+	    properties.setProperty("EXTRACTION_MAX_CHARS",
+		    Long.toString(Extraction.MAX_CHARS.get()));
+	    properties.setProperty("EXTRACTION_TIMEOUT_MILLIS",
+		    Long.toString(Extraction.TIMEOUT_MILLIS.get()));
+	    properties.setProperty("EXTRACTION_CACHE_MAX_BYTES",
+		    Long.toString(Extraction.CACHE_MAX_BYTES.get()));
+	    properties.setProperty("EXTRACTION_FINGERPRINT_MIN_BYTES",
+		    Long.toString(Extraction.FINGERPRINT_MIN_BYTES.get()));
+	    properties.setProperty("CHECKPOINT_DOCUMENTS",
+		    Long.toString(Checkpoint.DOCUMENTS.get()));
+	    properties.setProperty("CHECKPOINT_INTERVAL_MILLIS",
+		    Long.toString(Checkpoint.INTERVAL_MILLIS.get()));
+	    properties.setProperty("WATCHER_POLL_INTERVAL_MILLIS",
+		    Long.toString(Watcher.POLL_INTERVAL_MILLIS.get()));
+	    properties.setProperty("WATCHER_DEBOUNCE_MILLIS",
+		    Long.toString(Watcher.DEBOUNCE_MILLIS.get()));
+	    properties.setProperty("WATCHER_RECONCILE_INTERVAL_MILLIS",
+		    Long.toString(Watcher.RECONCILE_INTERVAL_MILLIS.get()));
+	    properties.setProperty("WATCHER_MAX_DIRECTORIES",
+		    Long.toString(Watcher.MAX_DIRECTORIES.get()));
+	    properties.setProperty("PERSISTENT_DIRECTORY",
+		    Storage.PERSISTENT_DIRECTORY.get().name());
+	    properties.setProperty("TEMPORARY_DIRECTORY",
+		    Storage.TEMPORARY_DIRECTORY.get().name());
+	    properties.setProperty("TEMPORARY_RAM_MAX_BYTES",
+		    Long.toString(Storage.TEMPORARY_RAM_MAX_BYTES.get()));
+	    properties.setProperty("PAGE_SIZE",
+		    Long.toString(Paging.PAGE_SIZE.get()));
+	    properties.setProperty("PARALLEL_SEARCH_THREADS",
+		    Long.toString(ParallelSearch.THREADS.get()));
+	    properties.setProperty("PARALLEL_SEARCH_MIN_SLICE_DOCUMENTS",
+		    Long.toString(ParallelSearch.MIN_SLICE_DOCUMENTS.get()));
+	    properties.setProperty("RESULT_CACHE_MAX_BYTES",
+		    Long.toString(Caching.RESULT_CACHE_MAX_BYTES.get()));
+	    properties.setProperty("FILTER_CACHE_MAX_FILTERS",
+		    Long.toString(Caching.FILTER_CACHE_MAX_FILTERS.get()));
 	    try {
 		properties.storeToXML(new FileOutputStream(configFile),
 			"SearchBooster Configuration");
@@ -152,6 +250,89 @@ public class SearchBoosterImplementation implements SearchBooster {
 	    } catch (IOException ignore) {
 	    }
 	}
+
+	// search slices of segments in parallel (if enabled)
+	int searchThreads = (int) Math.min(ParallelSearch.THREADS.get(),
+		Integer.MAX_VALUE);
+	if (searchThreads > 0) {
+	    this.searchExecutor = (ThreadPoolExecutor) Executors
+		    .newFixedThreadPool(searchThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+			    Thread t = new Thread(r, "SearchSlice");
+			    t.setDaemon(true);
+			    return t;
+			}
+		    });
+	}
+
+	// keep the persistent index up to date in the background
+	if (Watcher.POLL_INTERVAL_MILLIS.get() > 0) {
+	    Thread watcherThread = new Thread(new IndexWatcher(
+		    this.indexes.get("persistent")), "IndexWatcher");
+	    watcherThread.setDaemon(true);
+	    watcherThread.start();
+	}
+
+	// extract the content of files, that are searchable by their name only
+	Thread enricherThread = new Thread(new IndexEnricher(
+		this.indexes.get("persistent")), "IndexEnricher");
+	enricherThread.setDaemon(true);
+	enricherThread.start();
+    }
+
+    /**
+     * This method overrides a mutable configuration value by the value of a
+     * property (if available and valid).
+     * 
+     * @param properties
+     *            - the loaded configuration file
+     * @param key
+     *            - the name of the property
+     * @param value
+     *            - the configuration value to override
+     */
+    private static void loadProperty(Properties properties, String key,
+	    AtomicLong value) {
+	String property = properties.getProperty(key);
+	if (property == null) {
+	    return;
+	}
+	try {
+	    value.set(Math.max(0, Long.parseLong(property.trim())));
+	} catch (NumberFormatException e) {
+	    System.err.println("[info] Configuration value " + key
+		    + " is invalid. Default value " + value.get()
+		    + " is used.");
+	}
+    }
+
+    /**
+     * This method overrides a configured storage backend by the value of a
+     * property (if available and valid). Valid values are the names of
+     * {@link DirectoryType}, ignoring the case.
+     * 
+     * @param properties
+     *            - the loaded configuration file
+     * @param key
+     *            - the name of the property
+     * @param value
+     *            - the configured storage backend to override
+     */
+    private static void loadProperty(Properties properties, String key,
+	    AtomicReference<DirectoryType> value) {
+	String property = properties.getProperty(key);
+	if (property == null) {
+	    return;
+	}
+	try {
+	    value.set(DirectoryType.valueOf(property.trim().toUpperCase(
+		    Locale.ENGLISH)));
+	} catch (IllegalArgumentException e) {
+	    System.err.println("[info] Configuration value " + key
+		    + " is invalid. Default value " + value.get()
+		    + " is used.");
+	}
     }
 
     /**
@@ -210,12 +391,13 @@ public class SearchBoosterImplementation implements SearchBooster {
 	    this.currentRequestType = TaskType.Search;
 	    this.currentRequest = this.executorService.submit(new SearchTask(
 		    this.responseQueue, this.indexes.get("persistent"),
-		    this.indexes.get("temporary"), request));
+		    this.indexes.get("temporary"), request,
+		    this.searchExecutor, this.resultCache));
 	} else if (RequestIndexInfoParser.isIndexInfoRequest(request)) {
 	    this.currentRequestType = TaskType.IndexInfo;
 	    this.currentRequest = this.executorService
 		    .submit(new IndexInfoTask(this.responseQueue, this.indexes
-			    .get("persistent")));
+			    .get("persistent"), this.resultCache));
 	} else if (RequestIndexChangeParser.isIndexChangeRequest(request)) {
 	    this.currentRequestType = TaskType.IndexChange;
 	    this.currentRequest = this.executorService
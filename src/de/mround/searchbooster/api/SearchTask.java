@@ -2,34 +2,44 @@ package de.mround.searchbooster.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 
-import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.NumericRangeQuery;
-import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.WildcardQuery;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 import de.mround.searchbooster.api.Configuration.Index;
+import de.mround.searchbooster.api.Configuration.Paging;
 import de.mround.searchbooster.api.LuceneDirectory.IndexResult;
 import de.mround.searchbooster.api.Utility.DatePrecision;
 import de.mround.searchbooster.api.xml.RequestIndexChangeParser;
@@ -44,21 +54,64 @@ import de.mround.searchbooster.api.xml.SearchBoosterXML.StatusCodeID;
  * <li>Check what the persistent and temporary indexes contain.</li>
  * <li>Analyze the search request to see what has to be added to the temporary
  * index.</li>
- * <li>Perform searches on both indexes.</li>
+ * <li>Perform a single search on both indexes, see {@link FederatedSearch}.
+ * </li>
  * </ol>
+ * The results are delivered in pages of a bounded size. The last response of
+ * a page carries a cursor, which continues the search after the last result of
+ * the page, if the request is sent again with it. All pages of a search are
+ * taken from the state of the indexes searched for the first page, whose
+ * readers are pinned while the cursors are used, see
+ * {@link LuceneDirectory#pinIndexReader(IndexReader)}. A cursor is rejected,
+ * once this state has expired. The facets are counted for the first page
+ * only.<br />
+ * <br />
+ * Pages are kept in a {@link ResultCache} as long as the searched indexes do
+ * not change, so repeated searches skip the search of the indexes.
  * 
  * @author Kai Torben Ohlhus
  */
 public final class SearchTask implements Runnable {
+    // maximum number of values per facet in a response
+    private static final int MAX_FACET_VALUES = 20;
     private final BlockingQueue<Document> responseQueue;
     private final LuceneDirectory persistent;
     private final LuceneDirectory temporary;
     private final Document request;
+    private final ThreadPoolExecutor searchExecutor;
+    private final ResultCache resultCache;
 
-    // The item order will be the order in which the indexes are searched in
-    private static enum IndexType {
-	PERSISTENT, TEMPORARAY
-    };
+    // separates the values of a cursor
+    private static final String CURSOR_SEPARATOR = ",";
+    // separates the parts of the key of a cached page
+    private static final String KEY_SEPARATOR = "\n";
+
+    /**
+     * Cursor is a helper class describing the position after the last result
+     * of a page.
+     * 
+     * @author Kai Torben Ohlhus
+     */
+    private static final class Cursor {
+	// the last result of the page
+	private final ScoreDoc after;
+	// the versions of the index readers, that have been searched
+	private final long[] readerVersions;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param after
+	 *            - the last result of the page
+	 * @param readerVersions
+	 *            - the versions of the index readers, that have been
+	 *            searched
+	 */
+	private Cursor(ScoreDoc after, long[] readerVersions) {
+	    this.after = after;
+	    this.readerVersions = readerVersions;
+	}
+    }
 
     /**
      * Constructor.
@@ -71,14 +124,23 @@ public final class SearchTask implements Runnable {
      *            - a reference to the persistent index
      * @param request
      *            - the search request to be performed
+     * @param searchExecutor
+     *            - (optional, null allowed) the executor searching slices of
+     *            the segments in parallel, see {@link FederatedSearch}
+     * @param resultCache
+     *            - (optional, null allowed) the cache of the pages of recent
+     *            searches
      */
     protected SearchTask(BlockingQueue<Document> responseQueue,
 	    LuceneDirectory persistent, LuceneDirectory temporary,
-	    Document request) {
+	    Document request, ThreadPoolExecutor searchExecutor,
+	    ResultCache resultCache) {
 	this.responseQueue = responseQueue;
 	this.persistent = persistent;
 	this.temporary = temporary;
 	this.request = request;
+	this.searchExecutor = searchExecutor;
+	this.resultCache = resultCache;
     }
 
     @Override
@@ -87,11 +149,32 @@ public final class SearchTask implements Runnable {
 
 	Document response = ResponseSearchBuilder.create(StatusCodeID.ERROR,
 		"Searching failed.");
+	FederatedSearch search = null;
+	IndexReader persistentReader = null;
+	IndexReader temporaryReader = null;
 
 	try {
 	    Query q = this.buildQueryFromSearchRequest();
 	    System.out.println("[debug] " + q);
 
+	    // the page of results to deliver
+	    int limit = RequestSearchParser.getPageLimit(this.request);
+	    if (limit <= 0) {
+		limit = (int) Math.max(1,
+			Math.min(Paging.PAGE_SIZE.get(), Integer.MAX_VALUE));
+	    }
+	    Cursor cursor = null;
+	    String cursorString = RequestSearchParser
+		    .getPageCursor(this.request);
+	    if (cursorString != null) {
+		cursor = parseCursor(cursorString);
+		if (cursor == null) {
+		    response = ResponseSearchBuilder.create(StatusCodeID.ERROR,
+			    "Invalid cursor <" + cursorString + ">.");
+		    return;
+		}
+	    }
+
 	    // get the contents of the persistent and temporary indexes
 	    Map<String, Integer> persistentContentMap = this.persistent
 		    .getIndexContentMap();
@@ -155,30 +238,33 @@ public final class SearchTask implements Runnable {
 	    }
 
 	    // get a model of the temporary index without entries, that have to
-	    // be extended by the coming search request => delete them from
-	    // the temporary index
+	    // be extended by the coming search request => delete only their
+	    // meta information, the already indexed files are reused by the
+	    // incremental indexing of the extending search path
+	    Map<String, Integer> toExtend = new HashMap<String, Integer>();
 	    for (String s1 : temporaryContentMap.keySet()) {
 		for (String s2 : searchPathMap.keySet()) {
 		    if (Utility.isSubDirectory(s2, s1)
 			    && (searchPathMap.get(s2).intValue() < 0)) {
-			toDelete.put(s1, temporaryContentMap.get(s1));
+			toExtend.put(s1, temporaryContentMap.get(s1));
 		    }
 		}
 	    }
-	    for (String s : toDelete.keySet()) {
+	    for (String s : toExtend.keySet()) {
 		temporaryContentMap.remove(s);
 	    }
 
 	    // perform deletions on the temporary index
 	    if (toDelete.size() > 0) {
 		for (String s : toDelete.keySet()) {
-		    Query deleteQuery = new PrefixQuery(new Term(
-			    Index.META_PATH, s));
-		    this.temporary.deleteFromIndex(deleteQuery);
-		    deleteQuery = new PrefixQuery(new Term(Index.URL, s));
-		    this.temporary.deleteFromIndex(deleteQuery);
+		    this.temporary.removeRoot(s, true);
+		    this.temporary.deleteFromIndex(LuceneDirectoryUtility
+			    .getSubtreeQuery(s));
 		}
 	    }
+	    for (String s : toExtend.keySet()) {
+		this.temporary.removeRoot(s, false);
+	    }
 	    toDelete.clear();
 
 	    // get entries that really have to be indexed temporary
@@ -229,149 +315,169 @@ public final class SearchTask implements Runnable {
 	    System.out.println("[info] Adding " + indexResult.getNumIndexed()
 		    + " files to the temporary index took "
 		    + indexResult.getTimeMillis() + " milliseconds. "
+		    + indexResult.getNumUnchanged() + " files were unchanged, "
+		    + indexResult.getNumDeleted() + " files were removed and "
 		    + indexResult.getNumIndexErrors()
-		    + " files were erroneous.");
-
-	    // get searchers
-	    IndexSearcher persistentSearcher = this.persistent
-		    .getIndexSearcher();
-	    IndexSearcher temporarySearcher = this.temporary.getIndexSearcher();
+		    + " files were erroneous. "
+		    + indexResult.getNumLimitExceeded()
+		    + " files exceeded an extraction limit.");
 
 	    // Checkpoint
 	    if (Thread.currentThread().isInterrupted()) {
 		throw new InterruptedException();
 	    }
 
-	    // Perform the search.
-	    int persistentHits = 0;
-	    int temporaryHits = 0;
-	    long persistentTime = 0;
-	    long temporaryTime = 0;
-	    long start = 0;
-	    long end = 0;
+	    // content information of the persistent index might be incomplete
+	    String enrichmentStatus = "";
+	    if (this.isContentSearch()) {
+		long numPending = this.persistent.getNumPendingDocuments();
+		if (numPending > 0) {
+		    enrichmentStatus = ". The content of " + numPending
+			    + " files is still being extracted, so content "
+			    + "results may be incomplete.";
+		}
+	    }
 
-	    TopScoreDocCollector collector = null;
+	    // The page is looked up in the cache by the versions of the
+	    // indexes, that have been updated by now. The positions of a
+	    // cursor are only valid for the versions, that have been searched
+	    // for its page, so it continues on their pinned readers.
+	    long start = System.currentTimeMillis();
+	    if (cursor == null) {
+		persistentReader = this.persistent.acquireIndexReader();
+		temporaryReader = this.temporary.acquireIndexReader();
+	    } else {
+		persistentReader = acquirePinnedIndexReader(this.persistent,
+			cursor.readerVersions[0]);
+		temporaryReader = acquirePinnedIndexReader(this.temporary,
+			cursor.readerVersions[1]);
+	    }
+	    long[] readerVersions = { getVersion(persistentReader),
+		    getVersion(temporaryReader) };
+	    if ((cursor != null)
+		    && !Arrays.equals(cursor.readerVersions, readerVersions)) {
+		response = ResponseSearchBuilder.create(StatusCodeID.ERROR,
+			"The cursor <" + cursorString + "> has expired. Please "
+				+ "restart the search without a cursor.");
+		return;
+	    }
+	    String cacheKey = q + KEY_SEPARATOR + limit + KEY_SEPARATOR
+		    + cursorString;
+	    ResultCache.Page page = null;
+	    if (this.resultCache != null) {
+		page = this.resultCache.get(cacheKey, readerVersions);
+	    }
+	    boolean cached = (page != null);
+
+	    if (page == null) {
+		// Perform the search on both indexes at once, files of both
+		// indexes are taken from the persistent one. Only the first
+		// page counts the facets.
+		search = new FederatedSearch(this.searchExecutor,
+			persistentReader, temporaryReader);
+
+		// one more hit tells, whether there is a next page
+		Map<String, Map<String, Integer>> facetCounts = new LinkedHashMap<String, Map<String, Integer>>();
+		TopDocs topDocs = null;
+		try {
+		    topDocs = search.searchAfter(
+			    (cursor == null) ? null : cursor.after, q, limit + 1,
+			    (cursor == null) ? facetCounts : null);
+		} catch (IOException e) {
+		    System.err.println("Cannot search the indexes. Reason: "
+			    + e.getMessage());
+		    return;
+		}
 
-	    for (IndexType indexType : IndexType.values()) {
+		// Checkpoint
+		if (Thread.currentThread().isInterrupted()) {
+		    throw new InterruptedException();
+		}
 
-		// Set initial collector size
-		int collectorSize = 100;
-		boolean done = false;
-		do {
-		    collector = TopScoreDocCollector
-			    .create(collectorSize, true);
+		ScoreDoc[] hits = topDocs.scoreDocs;
+		int numPageHits = Math.min(hits.length, limit);
+		ScoreDoc nextCursor = (hits.length > limit) ? hits[limit - 1]
+			: null;
 
-		    start = System.currentTimeMillis();
+		// read the results without loading the stored fields
+		IndexColumns columns = new IndexColumns(search.getIndexReader());
+		List<String> paths = new ArrayList<String>(numPageHits);
+		long[] lastModified = new long[numPageHits];
+		for (int i = 0; i < numPageHits; i++) {
 		    try {
-			if (indexType.equals(IndexType.PERSISTENT)
-				&& (persistentSearcher != null)) {
-			    persistentSearcher.search(q, collector);
-			} else if (indexType.equals(IndexType.TEMPORARAY)
-				&& (temporarySearcher != null)) {
-			    temporarySearcher.search(q, collector);
+			String path = columns.getPath(hits[i].doc);
+			if (path != null) {
+			    lastModified[paths.size()] = columns.getLong(
+				    hits[i].doc, Index.LAST_MODIFIED_MILLIS);
+			    paths.add(path);
 			}
 		    } catch (IOException ignore) {
-			// Failure will be responded via BlockingQueue
-		    }
-		    end = System.currentTimeMillis();
-
-		    // Time statistics
-		    if (indexType.equals(IndexType.PERSISTENT)) {
-			persistentHits = collector.getTotalHits();
-			persistentTime += end - start;
-		    } else if (indexType.equals(IndexType.TEMPORARAY)) {
-			temporaryHits = collector.getTotalHits();
-			temporaryTime += end - start;
 		    }
+		}
 
-		    // If there were more then collectorSize search results, the
-		    // searching has to be repeated with a bigger collector with
-		    // an appropriate size.
-		    if (collectorSize < collector.getTotalHits()) {
-			collectorSize = collector.getTotalHits();
-		    } else {
-			done = true;
-		    }
-		} while (!done);
+		page = new ResultCache.Page(topDocs.totalHits, paths,
+			Arrays.copyOf(lastModified, paths.size()), facetCounts,
+			(nextCursor == null) ? null : toCursor(nextCursor,
+				readerVersions));
+		if (this.resultCache != null) {
+		    this.resultCache.put(cacheKey, readerVersions, page);
+		}
+	    }
+	    long time = System.currentTimeMillis() - start;
+
+	    String message = "Found " + page.getTotalHits()
+		    + " document(s) (in " + time + " milliseconds"
+		    + (cached ? ", cached" : "") + ")" + enrichmentStatus;
+	    response = ResponseSearchBuilder.create(StatusCodeID.SUCCESSFUL,
+		    message);
 
+	    // one response per result, the last one completes the page
+	    List<String> paths = page.getPaths();
+	    for (int i = 0; i < paths.size(); i++) {
 		// Checkpoint
 		if (Thread.currentThread().isInterrupted()) {
 		    throw new InterruptedException();
 		}
 
-		TopDocs hits = collector.topDocs();
-		int searchResults = (indexType.equals(IndexType.PERSISTENT) ? persistentHits
-			: temporaryHits);
-		done = false;
-
-		response = ResponseSearchBuilder
-			.create(((indexType.equals(IndexType.TEMPORARAY)) ? StatusCodeID.SUCCESSFUL
-				: StatusCodeID.NOT_COMPLETED), "Found "
-				+ (persistentHits + temporaryHits)
-				+ " document(s) (in "
-				+ (persistentTime + temporaryTime)
-				+ " milliseconds)");
-
-		for (int i = 0; i < searchResults; i++) {
-		    // Checkpoint
-		    if (Thread.currentThread().isInterrupted()) {
-			throw new InterruptedException();
-		    }
-
-		    // last result?
-		    if ((i + 1) == searchResults) {
-			done = true;
-		    }
-
-		    response = ResponseSearchBuilder
-			    .create(((done && indexType
-				    .equals(IndexType.TEMPORARAY)) ? StatusCodeID.SUCCESSFUL
-				    : StatusCodeID.NOT_COMPLETED), "Found "
-				    + (persistentHits + temporaryHits)
-				    + " document(s) (in "
-				    + (persistentTime + temporaryTime)
-				    + " milliseconds)");
-
-		    ScoreDoc hit = hits.scoreDocs[i];
-
-		    org.apache.lucene.document.Document d = null;
-		    try {
-			if (indexType.equals(IndexType.PERSISTENT)
-				&& (persistentSearcher != null)) {
-			    d = persistentSearcher.doc(hit.doc);
-			} else if (indexType.equals(IndexType.TEMPORARAY)
-				&& (temporarySearcher != null)) {
-			    d = temporarySearcher.doc(hit.doc);
-			}
-		    } catch (CorruptIndexException ignore) {
-			continue;
-		    } catch (IOException ignore) {
-			continue;
-		    }
-
-		    long lastModified = Long.parseLong(d
-			    .get(Index.LAST_MODIFIED));
-		    lastModified = DatePrecision.convertPrecision(lastModified,
-			    DatePrecision.Day, DatePrecision.Millisecond);
-		    GregorianCalendar cal = new GregorianCalendar();
-		    cal.setTimeInMillis(lastModified);
-		    XMLGregorianCalendar modificationdate = null;
-		    try {
-			modificationdate = DatatypeFactory.newInstance()
-				.newXMLGregorianCalendar(cal);
-		    } catch (DatatypeConfigurationException ignore) {
-			continue;
-		    }
+		boolean done = ((i + 1) == paths.size());
+		Document hitResponse = ResponseSearchBuilder.create(
+			done ? StatusCodeID.SUCCESSFUL
+				: StatusCodeID.NOT_COMPLETED, message);
+		if (done) {
+		    response = hitResponse;
+		}
 
-		    ResponseSearchBuilder.appendSearchResult(response,
-			    d.get(Index.URL) + d.get(Index.FILE_NAME),
-			    modificationdate, false);
+		GregorianCalendar cal = new GregorianCalendar();
+		cal.setTimeInMillis(page.getLastModified(i));
+		XMLGregorianCalendar modificationdate = null;
+		try {
+		    modificationdate = DatatypeFactory.newInstance()
+			    .newXMLGregorianCalendar(cal);
+		} catch (DatatypeConfigurationException ignore) {
+		    continue;
+		}
 
-		    this.responseQueue.put(response);
+		ResponseSearchBuilder.appendSearchResult(hitResponse,
+			paths.get(i), modificationdate, false);
+		if (!done) {
+		    this.responseQueue.put(hitResponse);
 		}
 	    }
+
+	    // the last response carries the facets and the next page
+	    appendFacets(response, page.getFacetCounts());
+	    if (page.getNextCursor() != null) {
+		this.persistent.pinIndexReader(persistentReader);
+		this.temporary.pinIndexReader(temporaryReader);
+		ResponseSearchBuilder.setCursor(response, page.getNextCursor());
+	    }
 	} catch (InterruptedException ignore) {
 	} finally {
+	    if (search != null) {
+		search.close();
+	    }
+	    LuceneDirectory.releaseIndexReader(persistentReader);
+	    LuceneDirectory.releaseIndexReader(temporaryReader);
 	    try {
 		this.responseQueue.put(response);
 	    } catch (InterruptedException ignore) {
@@ -380,6 +486,104 @@ public final class SearchTask implements Runnable {
 	}
     }
 
+    /**
+     * Returns the pinned reader of an index, that has been searched for the
+     * previous page of a cursor.
+     * 
+     * @param directory
+     *            - an index
+     * @param version
+     *            - the version of the reader or -1, if the index had none
+     * @return the pinned reader or null, if the index had none or the reader
+     *         has expired
+     */
+    private static IndexReader acquirePinnedIndexReader(
+	    LuceneDirectory directory, long version) {
+	return (version == -1) ? null : directory
+		.acquirePinnedIndexReader(version);
+    }
+
+    /**
+     * Returns the version of the reader of an index.
+     * 
+     * @param reader
+     *            - (optional, null allowed) the reader of an index
+     * @return the version of the commit of the reader or -1, if reader is null
+     */
+    private static long getVersion(IndexReader reader) {
+	return (reader == null) ? -1 : reader.getVersion();
+    }
+
+    /**
+     * Returns the cursor of a page, i.e. the position of its last result.
+     * A cursor carries the versions of the searched readers, so the next page
+     * is taken from the same state of the indexes.
+     * 
+     * @param after
+     *            - the last result of a page
+     * @param readerVersions
+     *            - the versions of the index readers, that have been searched
+     * @return a String describing the cursor
+     */
+    private static String toCursor(ScoreDoc after, long[] readerVersions) {
+	// the score is stored exactly by its bits
+	StringBuilder sb = new StringBuilder();
+	sb.append(after.doc).append(CURSOR_SEPARATOR)
+		.append(Integer.toHexString(Float.floatToIntBits(after.score)));
+	for (long version : readerVersions) {
+	    sb.append(CURSOR_SEPARATOR).append(version);
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Returns the position described by a cursor of
+     * {@link #toCursor(ScoreDoc, long[])}.
+     * 
+     * @param cursor
+     *            - a String describing a cursor
+     * @return the position after the last result of the previous page or
+     *         null, if cursor is invalid
+     */
+    private static Cursor parseCursor(String cursor) {
+	// the persistent and the temporary reader versions follow the result
+	String[] values = cursor.split(CURSOR_SEPARATOR);
+	if (values.length != 4) {
+	    return null;
+	}
+	try {
+	    ScoreDoc after = new ScoreDoc(Integer.parseInt(values[0]),
+		    Float.intBitsToFloat((int) Long.parseLong(values[1], 16)));
+	    long[] readerVersions = { Long.parseLong(values[2]),
+		    Long.parseLong(values[3]) };
+	    return new Cursor(after, readerVersions);
+	} catch (NumberFormatException ignore) {
+	    return null;
+	}
+    }
+
+    /**
+     * This method appends the most frequent values of all non-empty facets to
+     * a Search Response.
+     * 
+     * @param response
+     *            - a Search Response
+     * @param facetCounts
+     *            - a Map from facet names to Maps from their values to the
+     *            number of hits
+     */
+    private static void appendFacets(Document response,
+	    Map<String, Map<String, Integer>> facetCounts) {
+	for (Map.Entry<String, Map<String, Integer>> facet : facetCounts
+		.entrySet()) {
+	    if (!facet.getValue().isEmpty()) {
+		ResponseSearchBuilder.appendFacet(response, facet.getKey(),
+			FacetCollector.getTopCounts(facet.getValue(),
+				MAX_FACET_VALUES));
+	    }
+	}
+    }
+
     /**
      * This method returns a Map-Representation of the path urls of a search
      * request, where searching should happen.
@@ -398,9 +602,141 @@ public final class SearchTask implements Runnable {
 	return resultMap;
     }
 
+    /**
+     * This method checks, if the search request depends on information
+     * extracted by Tika, i.e. searches for a content type or metadata.
+     * 
+     * @return true if the search request contains content parameters
+     */
+    private boolean isContentSearch() {
+	for (Node parameter : RequestSearchParser
+		.getParameterList(this.request)) {
+	    if (RequestSearchParser.hasParameterContentMusic(parameter)
+		    || RequestSearchParser.hasParameterContentPicture(parameter)
+		    || RequestSearchParser
+			    .hasParameterContentDocument(parameter)
+		    || RequestSearchParser.hasParameterContentVideo(parameter)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * This method plans the Query for a file name pattern. Instead of a
+     * {@link WildcardQuery} enumerating all file names of the index, the
+     * literal parts of the pattern are split into n-grams. All files
+     * containing these n-grams in {@link Index#FILE_NAME_NGRAMS} are
+     * candidates, which are verified by a {@link FileNameFilter}. If the
+     * literal parts are too short to provide n-grams, e.g. for the pattern
+     * a?c, all files are verified once per segment, see {@link CachedFilters}.
+     * Patterns consisting of * only match all files without verification.<br />
+     * <br />
+     * Patterns ending with a literal extension, e.g. report*.pdf, only
+     * consider files with this {@link Index#EXTENSION}. Pure suffix patterns,
+     * e.g. *.pdf, are answered by the extension alone without verification.
+     * 
+     * @param pattern
+     *            - a file name pattern, that may contain the wildcards * and ?
+     * @return a Query, which the Lucene index can process
+     */
+    protected static Query getFileNameQuery(String pattern) {
+	if (pattern.matches("\\*+")) {
+	    return new MatchAllDocsQuery();
+	}
+	BooleanQuery candidates = new BooleanQuery();
+	String residual = pattern;
+
+	String extension = getPatternExtension(pattern);
+	if (extension != null) {
+	    residual = pattern.substring(0, pattern.lastIndexOf('.'));
+	    TermQuery extensionQuery = new TermQuery(new Term(Index.EXTENSION,
+		    extension));
+	    if (residual.matches("\\*+")) {
+		return new ConstantScoreQuery(extensionQuery);
+	    }
+	    candidates.add(extensionQuery, Occur.MUST);
+	}
+
+	Set<String> nGrams = new LinkedHashSet<String>();
+	for (String literal : residual.split("[*?]")) {
+	    nGrams.addAll(LuceneDirectoryUtility.getNGrams(literal));
+	}
+	for (String nGram : nGrams) {
+	    // the remaining n-grams are checked by the verification
+	    if (candidates.clauses().size() >= BooleanQuery
+		    .getMaxClauseCount()) {
+		break;
+	    }
+	    candidates.add(new TermQuery(new Term(Index.FILE_NAME_NGRAMS,
+		    nGram)), Occur.MUST);
+	}
+
+	if (candidates.clauses().isEmpty()) {
+	    return new ConstantScoreQuery(CachedFilters
+		    .getFilter(new FileNameFilter(null, pattern)));
+	}
+	return new ConstantScoreQuery(new FileNameFilter(candidates, pattern));
+    }
+
+    /**
+     * Returns the extension of a file name pattern, if all file names matching
+     * the pattern share it.
+     * 
+     * @param pattern
+     *            - a file name pattern, that may contain the wildcards * and ?
+     * @return the extension in the format of {@link Index#EXTENSION} or null,
+     *         if the pattern does not end with a literal extension
+     */
+    private static String getPatternExtension(String pattern) {
+	int index = pattern.lastIndexOf('.');
+	if (index < 0) {
+	    return null;
+	}
+	String extension = pattern.substring(index + 1);
+	if (extension.isEmpty() || (extension.indexOf('*') >= 0)
+		|| (extension.indexOf('?') >= 0)) {
+	    return null;
+	}
+	return extension.toLowerCase();
+    }
+
+    /**
+     * This method translates the search string of a document content search
+     * into a Query on the tokenized {@link Index#TEXT_CONTENT}. All words have
+     * to occur in a document. The query syntax of Lucene's
+     * {@link QueryParser} is supported, e.g. "exact phrase", "near words"~5,
+     * prefix* or word1 OR word2. A search string, that cannot be parsed, is
+     * searched for literally. Words ignored by the analyzer, e.g. stop words,
+     * match nothing.
+     * 
+     * @param search
+     *            - the search string of a document content search
+     * @return a Query, which the Lucene index can process
+     */
+    private static Query getContentQuery(String search) {
+	// the analyzer has to match the one of the IndexWriter
+	QueryParser parser = new QueryParser(
+		LuceneDirectoryUtility.LUCENE_VERSION, Index.TEXT_CONTENT,
+		LuceneDirectoryUtility.getAnalyzer());
+	parser.setDefaultOperator(QueryParser.AND_OPERATOR);
+	try {
+	    return parser.parse(search);
+	} catch (ParseException ignore) {
+	    try {
+		return parser.parse(QueryParser.escape(search));
+	    } catch (ParseException e) {
+		// matches nothing
+		return new BooleanQuery();
+	    }
+	}
+    }
+
     /**
      * This method translates a XML-Search-Request into a Query, which the
-     * Lucene index can process.
+     * Lucene index can process. The search paths and the types of the files
+     * restrict the results without scoring them, so they are applied as
+     * {@link CachedFilters}.
      * 
      * @return a Query, which the Lucene index can process
      */
@@ -414,6 +750,7 @@ public final class SearchTask implements Runnable {
 	    BooleanQuery parametersQuery = new BooleanQuery();
 	    for (Node parameter : parameterList) {
 		BooleanQuery parameterQuery = new BooleanQuery();
+		Query typeQuery = null;
 
 		// query for all file names, if search field is empty
 		String search = "*";
@@ -422,13 +759,12 @@ public final class SearchTask implements Runnable {
 			    .getParameterFileName(parameter);
 		}
 
-		Term t = new Term(Index.FILE_NAME, search);
-		parameterQuery.add(new WildcardQuery(t), Occur.MUST);
+		parameterQuery.add(getFileNameQuery(search), Occur.MUST);
 
 		// Check for selected type and metadata
 		if (RequestSearchParser.hasParameterContentMusic(parameter)) {
 		    Term t0 = new Term(Index.TYPE, "audio");
-		    parameterQuery.add(new WildcardQuery(t0), Occur.MUST);
+		    typeQuery = new WildcardQuery(t0);
 
 		    // Search artist/album tag
 		    if (RequestSearchParser
@@ -451,29 +787,25 @@ public final class SearchTask implements Runnable {
 		} else if (RequestSearchParser
 			.hasParameterContentPicture(parameter)) {
 		    Term t0 = new Term(Index.TYPE, "image");
-		    parameterQuery.add(new TermQuery(t0), Occur.MUST);
+		    typeQuery = new TermQuery(t0);
 		} else if (RequestSearchParser
 			.hasParameterContentDocument(parameter)) {
 		    Term t0 = new Term(Index.TYPE, "document");
-		    parameterQuery.add(new TermQuery(t0), Occur.MUST);
+		    typeQuery = new TermQuery(t0);
 
 		    // Search document content
 		    if (RequestSearchParser
 			    .hasParameterContentDocumentSearchString(parameter)) {
-			Term t1 = new Term(
-				Index.TEXT_CONTENT,
-				"*"
-					+ RequestSearchParser
-						.getParameterContentDocumentSearchString(
-							parameter)
-						.toLowerCase() + "*");
-			parameterQuery.add(new WildcardQuery(t1), Occur.MUST);
+			parameterQuery.add(
+				getContentQuery(RequestSearchParser
+					.getParameterContentDocumentSearchString(
+						parameter)), Occur.MUST);
 		    }
 
 		} else if (RequestSearchParser
 			.hasParameterContentVideo(parameter)) {
 		    Term t0 = new Term(Index.TYPE, "video");
-		    parameterQuery.add(new WildcardQuery(t0), Occur.MUST);
+		    typeQuery = new WildcardQuery(t0);
 		}
 
 		if (RequestSearchParser
@@ -515,24 +847,30 @@ public final class SearchTask implements Runnable {
 			}
 		    }
 
-		    if ((min > 0L) && (max > 0L)) {
-			numericQuery = NumericRangeQuery.newLongRange(
-				Index.LAST_MODIFIED_SEARCH, 1, min, max, false,
-				true);
-		    } else if ((min > 0L) && (max == 0L)) {
+		    // the days (min, max] in milliseconds
+		    Long minMillis = (min > 0L) ? Long.valueOf(DatePrecision
+			    .convertPrecision(min + 1, DatePrecision.Day,
+				    DatePrecision.Millisecond)) : null;
+		    Long maxMillis = (max > 0L) ? Long.valueOf(DatePrecision
+			    .convertPrecision(max + 1, DatePrecision.Day,
+				    DatePrecision.Millisecond)) : null;
+		    if ((minMillis != null) || (maxMillis != null)) {
 			numericQuery = NumericRangeQuery.newLongRange(
-				Index.LAST_MODIFIED_SEARCH, 1, min, null,
-				false, true);
-		    } else if ((min == 0L) && (max > 0L)) {
-			numericQuery = NumericRangeQuery.newLongRange(
-				Index.LAST_MODIFIED_SEARCH, 1, null, max,
-				false, true);
+				Index.LAST_MODIFIED_MILLIS,
+				Index.NUMERIC_PRECISION_STEP, minMillis,
+				maxMillis, true, false);
 		    }
 
 		    parameterQuery.add(numericQuery, Occur.MUST);
 
 		}
-		parametersQuery.add(parameterQuery, Occur.SHOULD);
+		// the type is applied as a filter
+		if (typeQuery == null) {
+		    parametersQuery.add(parameterQuery, Occur.SHOULD);
+		} else {
+		    parametersQuery.add(new FilteredQuery(parameterQuery,
+			    CachedFilters.getFilter(typeQuery)), Occur.SHOULD);
+		}
 	    }
 	    rootQuery.add(parametersQuery, Occur.MUST);
 	}
@@ -557,16 +895,34 @@ public final class SearchTask implements Runnable {
 		    Term t = new Term(Index.FILE_NAME, fileName);
 		    urlQuery.add(new TermQuery(t), Occur.MUST);
 		}
-		Term t = new Term(Index.URL, Utility.canonicalizePath(path));
+		path = Utility.canonicalizePath(path);
+		int recursionDepth = paths.get(url).intValue();
 
-		if (paths.get(url).intValue() < 0) {
-		    urlQuery.add(new PrefixQuery(t), Occur.MUST);
-		} else {
+		if (f.isFile() || (recursionDepth == 0)) {
+		    Term t = new Term(Index.URL, path);
 		    urlQuery.add(new TermQuery(t), Occur.MUST);
+		} else {
+		    urlQuery.add(LuceneDirectoryUtility.getSubtreeQuery(path),
+			    Occur.MUST);
+		    // limit the recursion to the given number of levels
+		    if (recursionDepth > 0) {
+			int depth = LuceneDirectoryUtility.getAncestorPaths(
+				path).size();
+			urlQuery.add(NumericRangeQuery.newIntRange(Index.DEPTH,
+				Integer.valueOf(depth),
+				Integer.valueOf(depth + recursionDepth), true,
+				true), Occur.MUST);
+		    }
 		}
 		pathsQuery.add(urlQuery, Occur.SHOULD);
 	    }
-	    rootQuery.add(pathsQuery, Occur.MUST);
+
+	    // the paths are applied as a filter
+	    Filter pathsFilter = CachedFilters.getFilter(pathsQuery);
+	    if (parameterList.isEmpty()) {
+		return new ConstantScoreQuery(pathsFilter);
+	    }
+	    return new FilteredQuery(rootQuery, pathsFilter);
 	}
 
 	return rootQuery;
@@ -155,6 +155,9 @@ public final class RequestSearchBuilder {
 	Node Search = document.getElementsByTagName("Search").item(0);
 	Node FirstParameter = document.getElementsByTagName("Parameter")
 		.item(0);
+	if (FirstParameter == null) {
+	    FirstParameter = document.getElementsByTagName("Page").item(0);
+	}
 
 	Element Path = document.createElement("Path");
 	Element URL = document.createElement("URL");
@@ -280,7 +283,9 @@ public final class RequestSearchBuilder {
 	    Parameter.appendChild(Content);
 	}
 
-	Search.appendChild(Parameter);
+	// parameters precede the page
+	Search.insertBefore(Parameter, document.getElementsByTagName("Page")
+		.item(0));
 
 	trimEmptyParameterNodes(document);
 
@@ -290,6 +295,73 @@ public final class RequestSearchBuilder {
 	}
     }
 
+    /**
+     * This method sets the following Node-structure of a Search Request, which
+     * limits the number of search results of a response. A previously set
+     * page is replaced.<br />
+     * <br />
+     * <code>
+     * &lt;Page&gt;<br />
+     * &nbsp;&nbsp;&lt;Limit&gt;limit&lt;/Limit&gt;<br />
+     * &nbsp;&nbsp;&lt;Cursor&gt;cursor&lt;/Cursor&gt;<br />
+     * &lt;/Page&gt;
+     * </code>
+     * 
+     * @param document
+     *            - a Search Request
+     * @param limit
+     *            - (required) maximum number of search results of the page
+     * @param cursor
+     *            - (optional, null allowed) the Cursor of the previous page,
+     *            as returned by the Search Response. Without a cursor the
+     *            first page is requested.
+     * @throws NullPointerException
+     *             if document is null
+     * @throws IllegalArgumentException
+     *             if limit is not positive or if cursor is an empty String
+     * @throws RuntimeException
+     *             if document is invalid or if appending to document results in
+     *             an invalid Document
+     */
+    public static void setPage(Document document, int limit, String cursor) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+	if (limit <= 0) {
+	    throw new IllegalArgumentException(
+		    "Input parameter limit is not positive.");
+	}
+	if ((cursor != null) && cursor.isEmpty()) {
+	    throw new IllegalArgumentException(
+		    "Input parameter cursor is an empty String.");
+	}
+	if (!SearchBoosterXML.isValid(document)) {
+	    throw new RuntimeException("Input parameter document is invalid.");
+	}
+
+	Node Search = document.getElementsByTagName("Search").item(0);
+	Node OldPage = document.getElementsByTagName("Page").item(0);
+	if (OldPage != null) {
+	    Search.removeChild(OldPage);
+	}
+
+	Element Page = document.createElement("Page");
+	Element Limit = document.createElement("Limit");
+	Limit.setTextContent(Integer.toString(limit));
+	Page.appendChild(Limit);
+	if (cursor != null) {
+	    Element Cursor = document.createElement("Cursor");
+	    Cursor.setTextContent(cursor);
+	    Page.appendChild(Cursor);
+	}
+	Search.appendChild(Page);
+
+	if (!SearchBoosterXML.isValid(document)) {
+	    throw new RuntimeException(
+		    "Appending to document resulted in an invalid Document.");
+	}
+    }
+
     /**
      * This method creates a Request to search for files in the file system.
      * 
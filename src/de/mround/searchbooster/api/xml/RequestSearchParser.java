@@ -151,6 +151,60 @@ public final class RequestSearchParser {
 	return nodeList;
     }
 
+    /**
+     * Returns the Limit of the optional <code>&lt;Page&gt;</code>-Node of a
+     * given Request of type Search.<br />
+     * <br />
+     * Warning: This method relies on document to be a valid Request of type
+     * Search. Before calling this method ensure validness by using
+     * {@link RequestSearchParser#isSearchRequest(Document)}.
+     * 
+     * @param document
+     *            - a Request of type Search
+     * @return the Limit of the <code>&lt;Page&gt;</code>-Node or 0, if the
+     *         Request has no <code>&lt;Page&gt;</code>-Node
+     * @throws NullPointerException
+     *             if document is null
+     */
+    public static int getPageLimit(Document document) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+
+	NodeList Limits = document.getElementsByTagName("Limit");
+	if (Limits.getLength() == 0) {
+	    return 0;
+	}
+	return Integer.parseInt(Limits.item(0).getTextContent());
+    }
+
+    /**
+     * Returns the Cursor of the optional <code>&lt;Page&gt;</code>-Node of a
+     * given Request of type Search.<br />
+     * <br />
+     * Warning: This method relies on document to be a valid Request of type
+     * Search. Before calling this method ensure validness by using
+     * {@link RequestSearchParser#isSearchRequest(Document)}.
+     * 
+     * @param document
+     *            - a Request of type Search
+     * @return the Cursor of the <code>&lt;Page&gt;</code>-Node or null, if the
+     *         first page is requested
+     * @throws NullPointerException
+     *             if document is null
+     */
+    public static String getPageCursor(Document document) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+
+	NodeList Cursors = document.getElementsByTagName("Cursor");
+	if (Cursors.getLength() == 0) {
+	    return null;
+	}
+	return Cursors.item(0).getTextContent();
+    }
+
     /**
      * This method checks, if the given <code>&lt;Parameter&gt;</code>-Node
      * contains an optional <code>&lt;FileName&gt;</code>-Node.<br />
@@ -1,5 +1,7 @@
 package de.mround.searchbooster.api.xml;
 
+import java.util.Map;
+
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.w3c.dom.Document;
@@ -92,7 +94,153 @@ public final class ResponseSearchBuilder {
 	Result.appendChild(URL);
 	Result.appendChild(ModificationDate);
 	Result.appendChild(ContentMatch);
-	Search.appendChild(Result);
+	// results precede the facets and the cursor
+	Node Next = document.getElementsByTagName("Facet").item(0);
+	if (Next == null) {
+	    Next = document.getElementsByTagName("Cursor").item(0);
+	}
+	Search.insertBefore(Result, Next);
+
+	if (!SearchBoosterXML.isValid(document)) {
+	    throw new RuntimeException(
+		    "Appending to document resulted in an invalid Document.");
+	}
+    }
+
+    /**
+     * This method appends the following Node-structure to a Search Response.<br />
+     * <br />
+     * <code>
+     * &lt;Facet&gt;<br />
+     * &nbsp;&nbsp;&lt;Name&gt;name&lt;/Name&gt;<br />
+     * &nbsp;&nbsp;&lt;Value&gt;<br />
+     * &nbsp;&nbsp;&nbsp;&nbsp;&lt;Term&gt;term&lt;/Term&gt;<br />
+     * &nbsp;&nbsp;&nbsp;&nbsp;&lt;Count&gt;count&lt;/Count&gt;<br />
+     * &nbsp;&nbsp;&lt;/Value&gt;<br />
+     * &nbsp;&nbsp;...<br />
+     * &lt;/Facet&gt;
+     * </code>
+     * 
+     * @param document
+     *            - a Search Response
+     * @param name
+     *            - (required) name of the facet, e.g. Type
+     * @param counts
+     *            - (required) the values of the facet and the number of search
+     *            results having them, in the order they should appear
+     * @throws NullPointerException
+     *             if document is null or if name is null or if counts is null
+     * @throws IllegalArgumentException
+     *             if name is an empty String
+     * @throws RuntimeException
+     *             if document is an invalid Document or if document is no
+     *             Search Response or if appending to document results in an
+     *             invalid document
+     */
+    public static void appendFacet(Document document, String name,
+	    Map<String, Integer> counts) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+	if (name == null) {
+	    throw new NullPointerException("Input parameter name is null.");
+	}
+	if (counts == null) {
+	    throw new NullPointerException("Input parameter counts is null.");
+	}
+	if (name.isEmpty()) {
+	    throw new IllegalArgumentException(
+		    "Input parameter name is an empty String.");
+	}
+	if (!SearchBoosterXML.isValid(document)) {
+	    throw new RuntimeException("Input parameter document is invalid.");
+	}
+	if (document.getElementsByTagName("IndexContent").getLength() > 0) {
+	    throw new RuntimeException(
+		    "Input parameter document must be created with "
+			    + "ResponseSearchBuilder.create(...).");
+	}
+
+	Node Search = document.getElementsByTagName("Search").item(0);
+
+	Element Facet = document.createElement("Facet");
+	Element Name = document.createElement("Name");
+	Name.setTextContent(name);
+	Facet.appendChild(Name);
+	for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+	    Element Value = document.createElement("Value");
+	    Element Term = document.createElement("Term");
+	    Element Count = document.createElement("Count");
+
+	    Term.setTextContent(entry.getKey());
+	    Count.setTextContent(entry.getValue().toString());
+
+	    Value.appendChild(Term);
+	    Value.appendChild(Count);
+	    Facet.appendChild(Value);
+	}
+	// facets precede the cursor
+	Search.insertBefore(Facet, document.getElementsByTagName("Cursor")
+		.item(0));
+
+	if (!SearchBoosterXML.isValid(document)) {
+	    throw new RuntimeException(
+		    "Appending to document resulted in an invalid Document.");
+	}
+    }
+
+    /**
+     * This method sets the following Node-structure of a Search Response,
+     * which continues the search with the next page. A previously set cursor
+     * is replaced.<br />
+     * <br />
+     * <code>
+     * &lt;Cursor&gt;cursor&lt;/Cursor&gt;
+     * </code>
+     * 
+     * @param document
+     *            - a Search Response
+     * @param cursor
+     *            - (required) an opaque String to be passed to the Page of the
+     *            next Search Request
+     * @throws NullPointerException
+     *             if document is null or if cursor is null
+     * @throws IllegalArgumentException
+     *             if cursor is an empty String
+     * @throws RuntimeException
+     *             if document is an invalid Document or if document is no
+     *             Search Response or if appending to document results in an
+     *             invalid document
+     */
+    public static void setCursor(Document document, String cursor) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+	if (cursor == null) {
+	    throw new NullPointerException("Input parameter cursor is null.");
+	}
+	if (cursor.isEmpty()) {
+	    throw new IllegalArgumentException(
+		    "Input parameter cursor is an empty String.");
+	}
+	if (!SearchBoosterXML.isValid(document)) {
+	    throw new RuntimeException("Input parameter document is invalid.");
+	}
+	if (document.getElementsByTagName("IndexContent").getLength() > 0) {
+	    throw new RuntimeException(
+		    "Input parameter document must be created with "
+			    + "ResponseSearchBuilder.create(...).");
+	}
+
+	Node Search = document.getElementsByTagName("Search").item(0);
+	Node OldCursor = document.getElementsByTagName("Cursor").item(0);
+	if (OldCursor != null) {
+	    Search.removeChild(OldCursor);
+	}
+
+	Element Cursor = document.createElement("Cursor");
+	Cursor.setTextContent(cursor);
+	Search.appendChild(Cursor);
 
 	if (!SearchBoosterXML.isValid(document)) {
 	    throw new RuntimeException(
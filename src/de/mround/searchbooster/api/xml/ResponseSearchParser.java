@@ -1,7 +1,9 @@
 package de.mround.searchbooster.api.xml;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -189,4 +191,112 @@ public final class ResponseSearchParser {
 	return Boolean.parseBoolean(node.getChildNodes().item(2)
 		.getTextContent());
     }
+
+    /**
+     * Returns a list with access to all <code>&lt;Facet&gt;</code>-Nodes from
+     * a given Response of type Search.<br />
+     * <br />
+     * Warning: This method relies on document to be a valid Response of type
+     * Search. No further checks are performed.
+     * 
+     * @param document
+     *            - a Response of type Search
+     * @return a list with access to all <code>&lt;Facet&gt;</code>-Nodes from
+     *         a given Response of type Search
+     * @throws NullPointerException
+     *             if document is null
+     */
+    public static List<Node> getFacetList(Document document) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+
+	List<Node> nodeList = new ArrayList<Node>();
+
+	NodeList Facets = document.getElementsByTagName("Facet");
+	for (int i = 0; i < Facets.getLength(); i++) {
+	    nodeList.add(Facets.item(i));
+	}
+
+	return nodeList;
+    }
+
+    /**
+     * Returns the Name of a given <code>&lt;Facet&gt;</code>-Node.<br />
+     * <br />
+     * Warning: This method relies on node to be a valid
+     * <code>&lt;Facet&gt;</code>-Node of a valid Response of type Search. No
+     * further checks are performed.
+     * 
+     * @param node
+     *            - a valid <code>&lt;Facet&gt;</code>-Node of a valid Response
+     *            of type Search
+     * @return the Name of a given <code>&lt;Facet&gt;</code>-Node
+     * @throws NullPointerException
+     *             if node is null
+     */
+    public static String getFacetName(Node node) {
+	if (node == null) {
+	    throw new NullPointerException("Input parameter node is null.");
+	}
+	return node.getChildNodes().item(0).getTextContent();
+    }
+
+    /**
+     * Returns the Values of a given <code>&lt;Facet&gt;</code>-Node.<br />
+     * <br />
+     * Warning: This method relies on node to be a valid
+     * <code>&lt;Facet&gt;</code>-Node of a valid Response of type Search. No
+     * further checks are performed.
+     * 
+     * @param node
+     *            - a valid <code>&lt;Facet&gt;</code>-Node of a valid Response
+     *            of type Search
+     * @return a Map from the Terms of a given <code>&lt;Facet&gt;</code>-Node
+     *         to their Counts in the order of the Values
+     * @throws NullPointerException
+     *             if node is null
+     */
+    public static Map<String, Integer> getFacetCounts(Node node) {
+	if (node == null) {
+	    throw new NullPointerException("Input parameter node is null.");
+	}
+
+	Map<String, Integer> resultMap = new LinkedHashMap<String, Integer>();
+
+	NodeList Values = node.getChildNodes();
+	for (int i = 1; i < Values.getLength(); i++) {
+	    Node Value = Values.item(i);
+	    resultMap.put(Value.getChildNodes().item(0).getTextContent(),
+		    Integer.valueOf(Value.getChildNodes().item(1)
+			    .getTextContent()));
+	}
+
+	return resultMap;
+    }
+
+    /**
+     * Returns the Cursor of a given Response of type Search.<br />
+     * <br />
+     * Warning: This method relies on document to be a valid Response of type
+     * Search. No further checks are performed.
+     * 
+     * @param document
+     *            - a Response of type Search
+     * @return the Cursor to request the next page or null, if there are no
+     *         further search results
+     * @throws NullPointerException
+     *             if document is null
+     */
+    public static String getCursor(Document document) {
+	if (document == null) {
+	    throw new NullPointerException("Input parameter document is null.");
+	}
+
+	NodeList Cursors = document.getElementsByTagName("Cursor");
+	if (Cursors.getLength() == 0) {
+	    return null;
+	}
+	return Cursors.item(0).getTextContent();
+    }
 }
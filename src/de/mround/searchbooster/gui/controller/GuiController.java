@@ -84,6 +84,22 @@ public class GuiController {
 	 */
 	private final ResultTableModel resultTableModel = new ResultTableModel();
 
+	/**
+	 * Number of search results fetched per request
+	 */
+	private static final int SEARCH_PAGE_SIZE = 500;
+
+	/**
+	 * Last search request (first page)
+	 */
+	private volatile Document searchRequest = null;
+
+	/**
+	 * Cursor of the next result page of the last search request (null if
+	 * there are no further results)
+	 */
+	private volatile String searchCursor = null;
+
 	/**
 	 * Constructor
 	 * 
@@ -160,6 +176,11 @@ public class GuiController {
 						/* Handle different responses */
 						if (ResponseSearchParser.isResponseSearch(event)) {
 							if (runningRequestType == RequestType.SEARCH) {
+								/* Remember cursor of next result page */
+								if (responseId == StatusCodeID.SUCCESSFUL) {
+									searchCursor = ResponseSearchParser
+											.getCursor(event);
+								}
 								for (Node searchResult : ResponseSearchParser
 										.getResultList(event)) {
 									File file = new File(
@@ -336,10 +357,44 @@ public class GuiController {
 					xmlEndModificationDate, content);
 		}
 
+		/* First result page */
+		RequestSearchBuilder.setPage(searchRequest, SEARCH_PAGE_SIZE, null);
+		this.searchRequest = searchRequest;
+		this.searchCursor = null;
+
 		guiView.setStatusLabelText("Searching...", true);
 		this.sendRequest(searchRequest, RequestType.SEARCH);
 	}
 
+	/**
+	 * Fetch next result page of last search (API call)
+	 * 
+	 * Does nothing if a request is running or if all results of the last
+	 * search have been fetched.
+	 */
+	public void fetchNextPage() {
+
+		synchronized (this.runningRequest) {
+			if (this.runningRequest != RequestType.NONE) {
+				return;
+			}
+		}
+
+		String cursor = this.searchCursor;
+		Document searchRequest = this.searchRequest;
+		if ((cursor == null) || (searchRequest == null)) {
+			return;
+		}
+		this.searchCursor = null;
+
+		/* Continue last search request after cursor */
+		Document pageRequest = (Document) searchRequest.cloneNode(true);
+		RequestSearchBuilder.setPage(pageRequest, SEARCH_PAGE_SIZE, cursor);
+
+		guiView.setStatusLabelText("Fetching more results...", true);
+		this.sendRequest(pageRequest, RequestType.SEARCH);
+	}
+
 	/**
 	 * Set index (API call)
 	 * 
@@ -439,6 +494,8 @@ public class GuiController {
 
 		Document cancelRequest = RequestAbortBuilder
 				.create("Cancel running request.");
+		this.searchRequest = null;
+		this.searchCursor = null;
 		guiView.setStatusLabelText("Canceling running request...", true);
 		this.sendRequest(cancelRequest, RequestType.ABORT);
 	}
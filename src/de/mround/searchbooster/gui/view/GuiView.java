@@ -551,6 +551,19 @@ public class GuiView extends JFrame {
 		this.resultPopupMenu.add(this.resultOpenFolderMenuItem);
 
 		this.resultScrollPanel.setViewportView(this.resultTable);
+		this.resultScrollPanel.getVerticalScrollBar().addAdjustmentListener(
+				new AdjustmentListener() {
+					public void adjustmentValueChanged(AdjustmentEvent event) {
+
+						/* Fetch next result page if scrolled to the bottom */
+						JScrollBar scrollBar = resultScrollPanel
+								.getVerticalScrollBar();
+						if (event.getValue() + scrollBar.getVisibleAmount() >= scrollBar
+								.getMaximum() - resultTable.getRowHeight()) {
+							guiController.fetchNextPage();
+						}
+					}
+				});
 		this.optionCollapseTopSeparator.setOrientation(SwingConstants.VERTICAL);
 
 		resultPanel.add(this.optionCollapseTopSeparator,
@@ -0,0 +1,129 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+
+import de.mround.searchbooster.api.LuceneDirectory.DirectoryType;
+
+/**
+ * DirectoryBenchmark compares the query throughput of the storage backends
+ * ({@link DirectoryType}) under concurrent load. A synthetic index is written
+ * once to a temporary folder and searched by a shared {@link IndexSearcher}
+ * from several threads for each backend.<br />
+ * <br />
+ * Usage: DirectoryBenchmark [number of documents] [number of threads]
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public class DirectoryBenchmark {
+    private static final String[] WORDS = { "report", "invoice", "holiday",
+	    "photo", "budget", "draft", "final", "summary", "track", "notes",
+	    "letter", "backup", "scan", "thesis", "slides", "readme" };
+    private static final String[] EXTENSIONS = { "pdf", "docx", "mp3", "jpg",
+	    "txt", "xlsx", "png", "java", "html", "zip" };
+    private static final String[] PATTERNS = { "*.pdf", "*report*.pdf",
+	    "holiday*.jpg", "*invoice*", "*_1?.txt" };
+    private static final long DURATION_MILLIS = 5000;
+
+    public static void main(String[] args) throws IOException,
+	    InterruptedException, ExecutionException {
+	int numDocs = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+	int numThreads = (args.length > 1) ? Integer.parseInt(args[1])
+		: Configuration.NUMBER_OF_CPUS;
+
+	File path = File.createTempFile("DirectoryBenchmark", "");
+	if (!path.delete() || !path.mkdirs()) {
+	    throw new IOException("Cannot create the folder <" + path + ">.");
+	}
+
+	long start = System.currentTimeMillis();
+	Directory directory = DirectoryType.SIMPLE.open(path);
+	IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+		LuceneDirectoryUtility.LUCENE_VERSION,
+		LuceneDirectoryUtility.getAnalyzer())
+		.setOpenMode(OpenMode.CREATE));
+	Random random = new Random(42);
+	for (int i = 0; i < numDocs; i++) {
+	    String name = WORDS[random.nextInt(WORDS.length)] + "_" + i + "."
+		    + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+	    File f = new File("/benchmark/dir" + (i / 1000), name);
+	    writer.addDocument(LuceneDirectoryUtility.getDocument(f, null, null));
+	}
+	writer.close();
+	directory.close();
+	System.out.println("Indexed " + numDocs + " documents in "
+		+ (System.currentTimeMillis() - start) + " milliseconds.");
+	System.out.println("Default backends: persistent "
+		+ DirectoryType.getDefault(true) + ", temporary "
+		+ DirectoryType.getDefault(false));
+
+	final Query[] queries = new Query[PATTERNS.length];
+	for (int i = 0; i < PATTERNS.length; i++) {
+	    queries[i] = SearchTask.getFileNameQuery(PATTERNS[i]);
+	}
+
+	ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+	System.out.println("backend\tthreads\tqueries\tqueries per second");
+	for (DirectoryType type : DirectoryType.values()) {
+	    directory = type.open(path);
+	    final IndexSearcher searcher = new IndexSearcher(
+		    IndexReader.open(directory));
+	    // warm up the searcher and the FieldCache
+	    for (Query query : queries) {
+		searcher.search(query, 10);
+	    }
+
+	    final long end = System.currentTimeMillis() + DURATION_MILLIS;
+	    Future<?>[] futures = new Future<?>[numThreads];
+	    for (int t = 0; t < numThreads; t++) {
+		final int offset = t;
+		futures[t] = executor.submit(new Callable<Long>() {
+		    @Override
+		    public Long call() throws IOException {
+			long n = 0;
+			while (System.currentTimeMillis() < end) {
+			    searcher.search(
+				    queries[(int) ((n + offset) % queries.length)],
+				    10);
+			    n++;
+			}
+			return Long.valueOf(n);
+		    }
+		});
+	    }
+	    long total = 0;
+	    for (Future<?> future : futures) {
+		total += ((Long) future.get()).longValue();
+	    }
+	    System.out.println(type + "\t" + numThreads + "\t" + total + "\t"
+		    + (total * 1000 / DURATION_MILLIS));
+
+	    searcher.getIndexReader().close();
+	    searcher.close();
+	    directory.close();
+	}
+	executor.shutdown();
+
+	File[] files = path.listFiles();
+	if (files != null) {
+	    for (File f : files) {
+		f.delete();
+	    }
+	}
+	path.delete();
+    }
+}
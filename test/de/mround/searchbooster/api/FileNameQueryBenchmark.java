@@ -0,0 +1,91 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+import de.mround.searchbooster.api.Configuration.Index;
+
+/**
+ * FileNameQueryBenchmark compares the latency of file name patterns on a
+ * large synthetic index. Before is the plain {@link WildcardQuery} on
+ * {@link Index#FILE_NAME}, after is the Query planned by
+ * {@link SearchTask#getFileNameQuery(String)}.<br />
+ * <br />
+ * Usage: FileNameQueryBenchmark [number of documents]
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public class FileNameQueryBenchmark {
+    private static final String[] WORDS = { "report", "invoice", "holiday",
+	    "photo", "budget", "draft", "final", "summary", "track", "notes",
+	    "letter", "backup", "scan", "thesis", "slides", "readme" };
+    private static final String[] EXTENSIONS = { "pdf", "docx", "mp3", "jpg",
+	    "txt", "xlsx", "png", "java", "html", "zip" };
+    private static final String[] PATTERNS = { "*.pdf", "*.docx", "*.mp3",
+	    "*report*.pdf", "holiday*.jpg", "*invoice*", "*.tar.gz", "*" };
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+	int numDocs = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+
+	RAMDirectory directory = new RAMDirectory();
+	long start = System.currentTimeMillis();
+	IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+		LuceneDirectoryUtility.LUCENE_VERSION,
+		LuceneDirectoryUtility.getAnalyzer()));
+	Random random = new Random(42);
+	for (int i = 0; i < numDocs; i++) {
+	    String name = WORDS[random.nextInt(WORDS.length)] + "_" + i + "."
+		    + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+	    File f = new File("/benchmark/dir" + (i / 1000), name);
+	    writer.addDocument(LuceneDirectoryUtility.getDocument(f, null, null));
+	}
+	writer.close();
+	System.out.println("Indexed " + numDocs + " documents in "
+		+ (System.currentTimeMillis() - start) + " milliseconds.");
+
+	IndexSearcher searcher = new IndexSearcher(IndexReader.open(directory));
+	System.out.println("pattern\thits before\tms before\thits after\t"
+		+ "ms after");
+	for (String pattern : PATTERNS) {
+	    Query before = new WildcardQuery(new Term(Index.FILE_NAME, pattern));
+	    Query after = SearchTask.getFileNameQuery(pattern);
+	    System.out.println(pattern + "\t" + searcher.search(before, 1).totalHits
+		    + "\t" + measure(searcher, before) + "\t"
+		    + searcher.search(after, 1).totalHits + "\t"
+		    + measure(searcher, after));
+	}
+	searcher.close();
+    }
+
+    /**
+     * Returns the average latency of a Query after a warm-up run.
+     * 
+     * @param searcher
+     *            - the searcher to use
+     * @param query
+     *            - the query to measure
+     * @return the average latency in milliseconds
+     * @throws IOException
+     *             if the index cannot be searched
+     */
+    private static double measure(IndexSearcher searcher, Query query)
+	    throws IOException {
+	searcher.search(query, 10);
+	long start = System.nanoTime();
+	for (int i = 0; i < RUNS; i++) {
+	    searcher.search(query, 10);
+	}
+	return (System.nanoTime() - start) / (RUNS * 1000000.0);
+    }
+}
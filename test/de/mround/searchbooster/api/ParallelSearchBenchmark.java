@@ -0,0 +1,159 @@
+package de.mround.searchbooster.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import de.mround.searchbooster.api.Configuration.ParallelSearch;
+
+/**
+ * ParallelSearchBenchmark compares the latency of the first page of broad
+ * queries, searched by the requesting thread only and by slices of segments
+ * in parallel ({@link FederatedSearch}). Both modes are measured with a
+ * single client and with as many clients as there are CPUs, to see the
+ * effect on the throughput under load.<br />
+ * <br />
+ * Usage: ParallelSearchBenchmark [number of documents] [number of threads]
+ * 
+ * @author Kai Torben Ohlhus
+ */
+public class ParallelSearchBenchmark {
+    private static final String[] WORDS = { "report", "invoice", "holiday",
+	    "photo", "budget", "draft", "final", "summary" };
+    private static final String[] EXTENSIONS = { "pdf", "docx", "mp3", "jpg",
+	    "txt" };
+    private static final String[] PATTERNS = { "*", "*.pdf", "*report*" };
+    private static final int PAGE_SIZE = 100;
+    private static final int QUERIES_PER_CLIENT = 50;
+
+    public static void main(String[] args) throws IOException,
+	    InterruptedException, ExecutionException {
+	int numDocs = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+	int numThreads = (args.length > 1) ? Integer.parseInt(args[1])
+		: Configuration.NUMBER_OF_CPUS;
+
+	// many segments, as in a persistent index updated incrementally
+	Directory directory = new RAMDirectory();
+	LogByteSizeMergePolicy mergePolicy = new LogByteSizeMergePolicy();
+	mergePolicy.setMergeFactor(30);
+	IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+		LuceneDirectoryUtility.LUCENE_VERSION,
+		LuceneDirectoryUtility.getAnalyzer()).setOpenMode(
+		OpenMode.CREATE).setMergePolicy(mergePolicy));
+	Random random = new Random(42);
+	for (int i = 0; i < numDocs; i++) {
+	    String name = WORDS[random.nextInt(WORDS.length)] + "_" + i + "."
+		    + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+	    File f = new File("/benchmark/dir" + (i / 1000), name);
+	    writer.addDocument(LuceneDirectoryUtility.getDocument(f, null, null));
+	}
+	writer.close();
+	final IndexReader reader = IndexReader.open(directory);
+	System.out.println("Indexed " + numDocs + " documents in "
+		+ reader.getSequentialSubReaders().length + " segments.");
+
+	// up to 16 slices
+	ParallelSearch.MIN_SLICE_DOCUMENTS.set(reader.maxDoc() / 16 + 1);
+
+	final Query[] queries = new Query[PATTERNS.length];
+	for (int i = 0; i < PATTERNS.length; i++) {
+	    queries[i] = SearchTask.getFileNameQuery(PATTERNS[i]);
+	}
+
+	ThreadPoolExecutor searchExecutor = (ThreadPoolExecutor) Executors
+		.newFixedThreadPool(numThreads);
+	ExecutorService clientExecutor = Executors
+		.newFixedThreadPool(numThreads);
+	System.out.println("mode\tclients\tp50 ms\tp90 ms\tqueries per second");
+	for (final ThreadPoolExecutor executor : new ThreadPoolExecutor[] {
+		null, searchExecutor }) {
+	    // warm up the FieldCache
+	    search(executor, reader, queries[0]);
+
+	    for (int numClients : new int[] { 1, numThreads }) {
+		long start = System.currentTimeMillis();
+		Future<?>[] futures = new Future<?>[numClients];
+		for (int c = 0; c < numClients; c++) {
+		    futures[c] = clientExecutor.submit(new Callable<long[]>() {
+			@Override
+			public long[] call() throws IOException,
+				InterruptedException {
+			    long[] latencies = new long[QUERIES_PER_CLIENT];
+			    for (int i = 0; i < QUERIES_PER_CLIENT; i++) {
+				long t = System.nanoTime();
+				search(executor, reader, queries[i
+					% queries.length]);
+				latencies[i] = System.nanoTime() - t;
+			    }
+			    return latencies;
+			}
+		    });
+		}
+		long[] latencies = new long[numClients * QUERIES_PER_CLIENT];
+		for (int c = 0; c < numClients; c++) {
+		    System.arraycopy(futures[c].get(), 0, latencies, c
+			    * QUERIES_PER_CLIENT, QUERIES_PER_CLIENT);
+		}
+		long millis = System.currentTimeMillis() - start;
+		Arrays.sort(latencies);
+		System.out.println(((executor == null) ? "sequential"
+			: "parallel")
+			+ "\t"
+			+ numClients
+			+ "\t"
+			+ (latencies[latencies.length / 2] / 1000000)
+			+ "\t"
+			+ (latencies[latencies.length * 9 / 10] / 1000000)
+			+ "\t" + (latencies.length * 1000L / Math.max(1, millis)));
+	    }
+	}
+	searchExecutor.shutdown();
+	clientExecutor.shutdown();
+	reader.close();
+	directory.close();
+    }
+
+    /**
+     * This method searches the first page and the facets of a query.
+     * 
+     * @param executor
+     *            - (optional, null allowed) the executor searching slices
+     * @param reader
+     *            - the reader of the index
+     * @param query
+     *            - the Query to search for
+     * @throws IOException
+     *             if the index cannot be searched
+     * @throws InterruptedException
+     *             if the thread is interrupted
+     */
+    private static void search(ThreadPoolExecutor executor,
+	    IndexReader reader, Query query) throws IOException,
+	    InterruptedException {
+	FederatedSearch search = new FederatedSearch(executor, reader);
+	try {
+	    search.searchAfter(null, query, PAGE_SIZE,
+		    new LinkedHashMap<String, Map<String, Integer>>());
+	} finally {
+	    search.close();
+	}
+    }
+}
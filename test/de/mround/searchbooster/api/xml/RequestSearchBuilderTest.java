@@ -1,6 +1,7 @@
 package de.mround.searchbooster.api.xml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -131,4 +132,48 @@ public class RequestSearchBuilderTest {
 	}
     }
 
+    @Test
+    public void testSetPage() {
+	System.out.println("");
+	System.out.println("Test setPage");
+	System.out.println("------------");
+	System.out.println("");
+
+	Document document = RequestSearchBuilder.create();
+	RequestSearchBuilder.setPage(document, 50, null);
+	assertEquals(50, RequestSearchParser.getPageLimit(document));
+	assertNull(RequestSearchParser.getPageCursor(document));
+
+	// paths and parameters precede the page, that is replaced
+	RequestSearchBuilder.setPage(document, 100, "0,42,3f800000");
+	RequestSearchBuilder.appendParameter(document, "*.pdf", null, null,
+		null);
+	RequestSearchBuilder.appendPath(document, "/root/is/good", -1);
+	try {
+	    System.out.println(SearchBoosterXML
+		    .getFormattedStringFromDocument(document));
+	} catch (TransformerException e) {
+	    System.err.println(e.getMessage());
+	}
+
+	assertEquals(100, RequestSearchParser.getPageLimit(document));
+	assertEquals("0,42,3f800000",
+		RequestSearchParser.getPageCursor(document));
+	assertEquals(1, RequestSearchParser.getPathList(document).size());
+	assertEquals(1, RequestSearchParser.getParameterList(document).size());
+	assertEquals(0,
+		RequestSearchParser.getPageLimit(RequestSearchBuilder.create()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetPageWrongLimit() {
+	System.out.println("");
+	System.out.println("Test setPage Wrong Limit");
+	System.out.println("------------------------");
+	System.out.println("");
+
+	// throws!!
+	RequestSearchBuilder.setPage(RequestSearchBuilder.create(), 0, null);
+    }
+
 }
@@ -2,6 +2,10 @@ package de.mround.searchbooster.api.xml;
 
 import static org.junit.Assert.*;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -13,6 +17,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 
 import de.mround.searchbooster.api.xml.SearchBoosterXML.StatusCodeID;
 
@@ -109,4 +114,107 @@ public class ResponseMetaSearchResultBuilderTest {
 	}
     }
 
+    @Test
+    public void testAppendFacet() {
+	System.out.println("");
+	System.out.println("Test Append Facet");
+	System.out.println("-----------------");
+	System.out.println("");
+
+	XMLGregorianCalendar modificationdate1 = null;
+	XMLGregorianCalendar modificationdate2 = null;
+	try {
+	    modificationdate1 = DatatypeFactory.newInstance()
+		    .newXMLGregorianCalendar("2000-01-20T12:00:00");
+	    modificationdate2 = DatatypeFactory.newInstance()
+		    .newXMLGregorianCalendar("2010-01-20T12:00:00");
+	} catch (DatatypeConfigurationException e) {
+	    System.err.println(e.getMessage());
+	}
+
+	Map<String, Integer> types = new LinkedHashMap<String, Integer>();
+	types.put("document", 2);
+	types.put("audio", 1);
+
+	Document document = ResponseSearchBuilder.create(
+		StatusCodeID.SUCCESSFUL, "This is a Test message.");
+	ResponseSearchBuilder.appendSearchResult(document,
+		"/path/to/my/first/doc", modificationdate1, false);
+	ResponseSearchBuilder.appendFacet(document, "Type", types);
+	ResponseSearchBuilder.appendFacet(document, "Album",
+		new LinkedHashMap<String, Integer>());
+	// results are inserted before the facets
+	ResponseSearchBuilder.appendSearchResult(document,
+		"/path/to/my/second/doc", modificationdate2, false);
+
+	try {
+	    System.out.println(SearchBoosterXML
+		    .getFormattedStringFromDocument(document));
+	} catch (TransformerException e) {
+	    System.err.println(e.getMessage());
+	}
+
+	assertTrue(SearchBoosterXML.isValid(document));
+	assertEquals(2, ResponseSearchParser.getResultList(document).size());
+	List<Node> facetList = ResponseSearchParser.getFacetList(document);
+	assertEquals(2, facetList.size());
+	assertEquals("Type", ResponseSearchParser.getFacetName(facetList.get(0)));
+	assertEquals(types, ResponseSearchParser.getFacetCounts(facetList.get(0)));
+	assertTrue(ResponseSearchParser.getFacetCounts(facetList.get(1))
+		.isEmpty());
+    }
+
+    @Test
+    public void testSetCursor() {
+	System.out.println("");
+	System.out.println("Test Set Cursor");
+	System.out.println("---------------");
+	System.out.println("");
+
+	XMLGregorianCalendar modificationdate = null;
+	try {
+	    modificationdate = DatatypeFactory.newInstance()
+		    .newXMLGregorianCalendar("2000-01-20T12:00:00");
+	} catch (DatatypeConfigurationException e) {
+	    System.err.println(e.getMessage());
+	}
+
+	Document document = ResponseSearchBuilder.create(
+		StatusCodeID.SUCCESSFUL, "This is a Test message.");
+	assertNull(ResponseSearchParser.getCursor(document));
+	ResponseSearchBuilder.setCursor(document, "0,99,3f800000");
+	// results and facets are inserted before the cursor, which is replaced
+	ResponseSearchBuilder.appendSearchResult(document,
+		"/path/to/my/first/doc", modificationdate, false);
+	ResponseSearchBuilder.appendFacet(document, "Type",
+		new LinkedHashMap<String, Integer>());
+	ResponseSearchBuilder.setCursor(document, "1,7,3f800000");
+
+	try {
+	    System.out.println(SearchBoosterXML
+		    .getFormattedStringFromDocument(document));
+	} catch (TransformerException e) {
+	    System.err.println(e.getMessage());
+	}
+
+	assertTrue(SearchBoosterXML.isValid(document));
+	assertEquals(1, ResponseSearchParser.getResultList(document).size());
+	assertEquals(1, ResponseSearchParser.getFacetList(document).size());
+	assertEquals("1,7,3f800000", ResponseSearchParser.getCursor(document));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testAppendFacetWrongType() {
+	System.out.println("");
+	System.out.println("Test Append Facet Wrong Type");
+	System.out.println("----------------------------");
+	System.out.println("");
+
+	Document document = ResponseIndexContentBuilder.create(
+		StatusCodeID.SUCCESSFUL, "This is a Test message.");
+	// throws!!
+	ResponseSearchBuilder.appendFacet(document, "Type",
+		new LinkedHashMap<String, Integer>());
+    }
+
 }